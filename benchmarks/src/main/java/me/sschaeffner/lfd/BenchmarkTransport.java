@@ -0,0 +1,55 @@
+package me.sschaeffner.lfd;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * A connection that encodes packets like the real ones but never sends them.
+ *
+ * @author Simon Schäffner (simon.schaeffner@googlemail.com)
+ */
+final class BenchmarkTransport implements Transport {
+
+    /* the send buffer, cleared on flush */
+    private final ByteBuffer sendBuffer = ByteBuffer.allocate(64 * 1024).order(ByteOrder.LITTLE_ENDIAN);
+
+    /* the sequence of the packet encoded last */
+    volatile byte lastSequence;
+
+    /* bytes "sent" so far */
+    long bytesSent;
+
+    @Override
+    public synchronized void write(byte flag, byte command, byte sequence, long target, int targetLength, long data, int dataLength) {
+        if (sendBuffer.remaining() < PacketEncoder.length(targetLength, dataLength)) {
+            flush();
+        }
+        PacketEncoder.encode(sendBuffer, flag, command, sequence, target, targetLength, data, dataLength);
+        lastSequence = sequence;
+    }
+
+    @Override
+    public synchronized void flush() {
+        bytesSent += sendBuffer.position();
+        sendBuffer.clear();
+    }
+
+    @Override
+    public boolean isConnected() {
+        return true;
+    }
+
+    @Override
+    public void shutdown() {
+    }
+
+    /**
+     * Constructs a bridge using this transport.
+     *
+     * @return the bridge
+     */
+    LfdBridge connect() throws IOException {
+        return new LfdBridge(null, receiver -> this);
+    }
+}
@@ -0,0 +1,630 @@
+package me.sschaeffner.lfd;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * An in-process stand-in for a bridge to load test the client without hardware.
+ *
+ * The simulator listens on Transport.PORT of a local address and speaks the protocol the client uses:
+ * it answers ALL_LIGHTS_STATUS, GROUP_LIST and GROUP_INFO requests from a simulated fleet of lights
+ * and acknowledges commands to lights and groups after applying them to the fleet. Lights are split
+ * into groups of a fixed size in address order.
+ *
+ * To resemble a real bridge on a real network the simulator can
+ *
+ * - delay every answer by a random latency (answers may then arrive out of order)
+ * - split answers into several TCP segments
+ * - coalesce several answers into a single TCP segment
+ * - drop requests without answering them
+ *
+ * Any amount of clients may be connected at the same time; every connection is served by its own
+ * thread. Configure the simulator before clients connect.
+ *
+ * Since every loopback address (127.0.0.0/8) can be bound on Linux, several simulators can run side
+ * by side to simulate a cluster of bridges.
+ *
+ * @author Simon Schäffner (simon.schaeffner@googlemail.com)
+ */
+public final class BridgeSimulator implements Closeable {
+
+    /* the first light address used */
+    static final long FIRST_ADDRESS = Packets.FIRST_ADDRESS;
+
+    /* the maximum amount of lights (an ALL_LIGHTS_STATUS answer's length has to fit into 2 bytes) */
+    public static final int MAX_LIGHTS = (0xFFFF - 9) / 50;
+
+    /* error code answered to commands to unknown targets */
+    private static final byte ERROR_UNKNOWN_TARGET = 0x01;
+
+    /* length of a light record in ALL_LIGHTS_STATUS answers */
+    private static final int LIGHT_RECORD_LENGTH = 50;
+
+    /* length of a group record in GROUP_LIST answers and of a light record in GROUP_INFO answers */
+    private static final int GROUP_RECORD_LENGTH = 18;
+
+    /* the time held back answers are written at the latest (in microseconds) */
+    private static final long COALESCE_DELAY = 1000;
+
+    /* the maximum amount of answers coalesced into one segment */
+    private static final int MAX_COALESCED = 8;
+
+    /* the listening socket */
+    private final ServerSocket serverSocket;
+
+    /* the amount of lights */
+    private final int lights;
+
+    /* the amount of lights per group */
+    private final int groupSize;
+
+    /* the state of the fleet, indexed by light (guarded by this) */
+    private final boolean[] on;
+    private final byte[] luminance;
+    private final short[] temperature;
+    private final byte[] r;
+    private final byte[] g;
+    private final byte[] b;
+
+    /* delays answers and writes coalesced answers */
+    private final ScheduledThreadPoolExecutor timer;
+
+    /* all open connections */
+    private final Set<Connection> connections = ConcurrentHashMap.newKeySet();
+
+    /* statistics */
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder answers = new LongAdder();
+    private final LongAdder segments = new LongAdder();
+
+    /* configuration */
+    private volatile long minLatency;
+    private volatile long maxLatency;
+    private volatile int maxSegmentSize;
+    private volatile double coalesceRate;
+    private volatile double dropRate;
+
+    /**
+     * Constructs a new BridgeSimulator listening on 127.0.0.1.
+     *
+     * @param lights    the amount of lights (up to MAX_LIGHTS)
+     * @param groupSize the amount of lights per group (1 to 255)
+     */
+    public BridgeSimulator(int lights, int groupSize) throws IOException {
+        this(InetAddress.getLoopbackAddress(), lights, groupSize);
+    }
+
+    /**
+     * Constructs a new BridgeSimulator.
+     *
+     * @param address   the local address to listen on
+     * @param lights    the amount of lights (up to MAX_LIGHTS)
+     * @param groupSize the amount of lights per group (1 to 255)
+     */
+    public BridgeSimulator(InetAddress address, int lights, int groupSize) throws IOException {
+        if (lights < 0 || lights > MAX_LIGHTS) {
+            throw new IllegalArgumentException("lights must be between 0 and " + MAX_LIGHTS);
+        }
+        if (groupSize < 1 || groupSize > 0xFF) {
+            throw new IllegalArgumentException("groupSize must be between 1 and 255");
+        }
+        this.lights = lights;
+        this.groupSize = groupSize;
+        this.on = new boolean[lights];
+        this.luminance = new byte[lights];
+        this.temperature = new short[lights];
+        this.r = new byte[lights];
+        this.g = new byte[lights];
+        this.b = new byte[lights];
+        for (int i = 0; i < lights; i++) {
+            on[i] = true;
+            luminance[i] = 50;
+            temperature[i] = 2700;
+            r[i] = (byte) 0xFF;
+            g[i] = (byte) 0xFF;
+            b[i] = (byte) 0xFF;
+        }
+
+        this.timer = new ScheduledThreadPoolExecutor(2, runnable -> {
+            Thread t = new Thread(runnable, "bridge-simulator-timer");
+            t.setDaemon(true);
+            return t;
+        });
+        this.timer.setRemoveOnCancelPolicy(true);
+
+        this.serverSocket = new ServerSocket(Transport.PORT, 50, address);
+        Thread t = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                accept();
+            }
+        }, "bridge-simulator");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    /**
+     * Returns the address clients connect to.
+     *
+     * @return the host
+     */
+    public String getHost() {
+        return serverSocket.getInetAddress().getHostAddress();
+    }
+
+    /**
+     * Sets the latency every answer is delayed by. The latency of each answer is chosen at random
+     * between min and max.
+     *
+     * @param min   the minimum latency in microseconds
+     * @param max   the maximum latency in microseconds
+     */
+    public void setLatency(long min, long max) {
+        if (min < 0 || max < min) {
+            throw new IllegalArgumentException("latency must satisfy 0 <= min <= max");
+        }
+        this.minLatency = min;
+        this.maxLatency = max;
+    }
+
+    /**
+     * Splits answers into TCP segments of at most the given size (each of random length). 0 writes
+     * every answer in one piece.
+     *
+     * @param size  the maximum segment size in bytes
+     */
+    public void setMaxSegmentSize(int size) {
+        if (size < 0) {
+            throw new IllegalArgumentException("size must not be negative");
+        }
+        this.maxSegmentSize = size;
+    }
+
+    /**
+     * Sets the probability an answer is held back to be written together with the following answers
+     * of the same connection (at most 1ms later).
+     *
+     * @param rate  the probability (0 to 1)
+     */
+    public void setCoalesceRate(double rate) {
+        this.coalesceRate = probability(rate);
+    }
+
+    /**
+     * Sets the probability a request is dropped without being answered.
+     *
+     * @param rate  the probability (0 to 1)
+     */
+    public void setDropRate(double rate) {
+        this.dropRate = probability(rate);
+    }
+
+    public int getConnectionCount() {
+        return connections.size();
+    }
+
+    public long getRequestCount() {
+        return requests.sum();
+    }
+
+    public long getDroppedCount() {
+        return dropped.sum();
+    }
+
+    public long getAnswerCount() {
+        return answers.sum();
+    }
+
+    /**
+     * Returns the amount of TCP segments written (not taking into account how the kernel splits or
+     * merges them).
+     *
+     * @return the amount of segments
+     */
+    public long getSegmentCount() {
+        return segments.sum();
+    }
+
+    /**
+     * Returns the simulated luminance of a light.
+     *
+     * @param address   the light's address
+     * @return the luminance
+     */
+    public synchronized int getLuminance(long address) {
+        return luminance[index(address)] & 0xFF;
+    }
+
+    /**
+     * Stops listening and closes all connections.
+     */
+    @Override
+    public void close() throws IOException {
+        serverSocket.close();
+        for (Connection connection : connections) {
+            connection.close();
+        }
+        timer.shutdownNow();
+    }
+
+    private void accept() {
+        try {
+            while (true) {
+                Socket socket = serverSocket.accept();
+                socket.setTcpNoDelay(true);
+                final Connection connection = new Connection(socket);
+                connections.add(connection);
+                Thread t = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        connection.serve();
+                    }
+                }, "bridge-simulator-connection");
+                t.setDaemon(true);
+                t.start();
+            }
+        } catch (IOException e) {
+            /* closed */
+        }
+    }
+
+    /**
+     * Applies a request to the fleet and builds its answer.
+     *
+     * @param request   the request (without length prefix)
+     * @param length    the request's length
+     * @return the answer including the length prefix
+     */
+    private ByteBuffer answer(byte[] request, int length) {
+        ByteBuffer in = ByteBuffer.wrap(request, 0, length).order(ByteOrder.LITTLE_ENDIAN);
+        byte flag = request[0];
+        byte opcode = request[1];
+        byte sequence = request[5];
+
+        switch (opcode) {
+            case LfdOpCodes.ALL_LIGHTS_STATUS:
+                return status(sequence);
+            case LfdOpCodes.GROUP_LIST:
+                return groupList(sequence);
+            case LfdOpCodes.GROUP_INFO:
+                return groupInfo(sequence, (int) in.getLong(6));
+            case LfdOpCodes.ONOFF:
+            case LfdOpCodes.LUMINANCE:
+            case LfdOpCodes.TEMPERATURE:
+            case LfdOpCodes.COLOUR:
+                long target = in.getLong(6);
+                int first;
+                int last;
+                if (flag == PacketEncoder.FLAG_GROUP) {
+                    first = ((int) target - 1) * groupSize;
+                    last = Math.min(first + groupSize, lights);
+                } else {
+                    first = index(target);
+                    last = first + 1;
+                }
+                if (first < 0 || first >= last) {
+                    return acknowledgement(opcode, sequence, ERROR_UNKNOWN_TARGET);
+                }
+                apply(opcode, in, first, last);
+                return acknowledgement(opcode, sequence, (byte) 0);
+            default:
+                return acknowledgement(opcode, sequence, (byte) 0);
+        }
+    }
+
+    private synchronized void apply(byte opcode, ByteBuffer in, int first, int last) {
+        for (int i = first; i < last; i++) {
+            switch (opcode) {
+                case LfdOpCodes.ONOFF:
+                    on[i] = in.get(14) != 0;
+                    break;
+                case LfdOpCodes.LUMINANCE:
+                    luminance[i] = in.get(14);
+                    break;
+                case LfdOpCodes.TEMPERATURE:
+                    temperature[i] = in.getShort(14);
+                    break;
+                case LfdOpCodes.COLOUR:
+                    r[i] = in.get(14);
+                    g[i] = in.get(15);
+                    b[i] = in.get(16);
+                    break;
+            }
+        }
+    }
+
+    private synchronized ByteBuffer status(byte sequence) {
+        ByteBuffer out = header(LfdOpCodes.ALL_LIGHTS_STATUS, sequence, (byte) 0, 2 + lights * LIGHT_RECORD_LENGTH);
+        out.putShort((short) lights);
+        for (int i = 0; i < lights; i++) {
+            int record = out.position();
+            out.putShort((short) i);
+            out.putLong(FIRST_ADDRESS + i);
+            out.position(record + 18);
+            out.put((byte) (on[i] ? 1 : 0));
+            out.put(luminance[i]);
+            out.putShort(temperature[i]);
+            out.put(r[i]);
+            out.put(g[i]);
+            out.put(b[i]);
+            out.put((byte) 0xFF);
+            putName(out, "light " + i);
+            out.position(record + LIGHT_RECORD_LENGTH);
+        }
+        out.flip();
+        return out;
+    }
+
+    private ByteBuffer groupList(byte sequence) {
+        int groups = (lights + groupSize - 1) / groupSize;
+        ByteBuffer out = header(LfdOpCodes.GROUP_LIST, sequence, (byte) 0, 2 + groups * GROUP_RECORD_LENGTH);
+        out.putShort((short) groups);
+        for (int id = 1; id <= groups; id++) {
+            out.putShort((short) id);
+            putName(out, "group " + id);
+        }
+        out.flip();
+        return out;
+    }
+
+    private ByteBuffer groupInfo(byte sequence, int id) {
+        int first = (id - 1) * groupSize;
+        if (id < 1 || first >= lights) {
+            return acknowledgement(LfdOpCodes.GROUP_INFO, sequence, ERROR_UNKNOWN_TARGET);
+        }
+        int count = Math.min(groupSize, lights - first);
+        ByteBuffer out = header(LfdOpCodes.GROUP_INFO, sequence, (byte) 0,
+                2 + PacketView.NAME_LENGTH + 1 + count * GROUP_RECORD_LENGTH);
+        out.putShort((short) id);
+        putName(out, "group " + id);
+        out.put((byte) count);
+        for (int i = 0; i < count; i++) {
+            out.putLong(FIRST_ADDRESS + first + i);
+            out.position(out.position() + GROUP_RECORD_LENGTH - 8);
+        }
+        out.flip();
+        return out;
+    }
+
+    private int index(long address) {
+        long index = address - FIRST_ADDRESS;
+        return index >= 0 && index < lights ? (int) index : -1;
+    }
+
+    private static ByteBuffer acknowledgement(byte opcode, byte sequence, byte error) {
+        ByteBuffer out = header(opcode, sequence, error, 0);
+        out.flip();
+        return out;
+    }
+
+    private static ByteBuffer header(byte opcode, byte sequence, byte error, int payload) {
+        ByteBuffer out = ByteBuffer.allocate(2 + 7 + payload).order(ByteOrder.LITTLE_ENDIAN);
+        out.putShort((short) (7 + payload));
+        out.put((byte) 0x03);
+        out.put(opcode);
+        out.put((byte) 0x00);
+        out.put((byte) 0x00);
+        out.put((byte) 0x07);
+        out.put(sequence);
+        out.put(error);
+        return out;
+    }
+
+    private static void putName(ByteBuffer out, String name) {
+        byte[] ascii = name.getBytes(StandardCharsets.US_ASCII);
+        int start = out.position();
+        out.put(ascii, 0, Math.min(ascii.length, PacketView.NAME_LENGTH));
+        out.position(start + PacketView.NAME_LENGTH);
+    }
+
+    private static double probability(double rate) {
+        if (rate < 0 || rate > 1) {
+            throw new IllegalArgumentException("rate must be between 0 and 1");
+        }
+        return rate;
+    }
+
+    /**
+     * A client's connection.
+     */
+    private final class Connection {
+
+        /* the connection's socket */
+        private final Socket socket;
+
+        /* the socket's output (guarded by this) */
+        private final OutputStream out;
+
+        /* answers held back to be coalesced (guarded by this) */
+        private final ByteBuffer held = ByteBuffer.allocate(64 * 1024);
+        private int heldAnswers;
+
+        Connection(Socket socket) throws IOException {
+            this.socket = socket;
+            this.out = socket.getOutputStream();
+        }
+
+        void serve() {
+            try {
+                DataInputStream in = new DataInputStream(socket.getInputStream());
+                byte[] request = new byte[256];
+                while (true) {
+                    int length = Short.reverseBytes(in.readShort()) & 0xFFFF;
+                    if (length > request.length) {
+                        request = new byte[length];
+                    }
+                    in.readFully(request, 0, length);
+                    requests.increment();
+
+                    ThreadLocalRandom random = ThreadLocalRandom.current();
+                    if (dropRate > 0 && random.nextDouble() < dropRate) {
+                        dropped.increment();
+                        continue;
+                    }
+
+                    final ByteBuffer answer = answer(request, length);
+                    long latency = minLatency + (maxLatency > minLatency ? random.nextLong(maxLatency - minLatency + 1) : 0);
+                    if (latency == 0) {
+                        send(answer);
+                    } else {
+                        timer.schedule(new Runnable() {
+                            @Override
+                            public void run() {
+                                send(answer);
+                            }
+                        }, latency, TimeUnit.MICROSECONDS);
+                    }
+                }
+            } catch (IOException e) {
+                /* connection closed */
+            } finally {
+                close();
+            }
+        }
+
+        /**
+         * Sends an answer, holding it back or splitting it as configured.
+         */
+        synchronized void send(ByteBuffer answer) {
+            answers.increment();
+            try {
+                if (coalesceRate > 0 && heldAnswers < MAX_COALESCED && answer.remaining() <= held.remaining()
+                        && ThreadLocalRandom.current().nextDouble() < coalesceRate) {
+                    held.put(answer);
+                    if (heldAnswers++ == 0) {
+                        timer.schedule(new Runnable() {
+                            @Override
+                            public void run() {
+                                flushHeld();
+                            }
+                        }, COALESCE_DELAY, TimeUnit.MICROSECONDS);
+                    }
+                    return;
+                }
+                if (heldAnswers > 0) {
+                    /* answers held back go out in the same segment as this one */
+                    boolean fits = answer.remaining() <= held.remaining();
+                    if (fits) {
+                        held.put(answer);
+                    }
+                    flushHeld();
+                    if (fits) {
+                        return;
+                    }
+                }
+                write(answer);
+            } catch (IOException e) {
+                close();
+            }
+        }
+
+        synchronized void flushHeld() {
+            if (heldAnswers == 0) {
+                return;
+            }
+            held.flip();
+            heldAnswers = 0;
+            try {
+                write(held);
+            } catch (IOException e) {
+                close();
+            }
+            held.clear();
+        }
+
+        private void write(ByteBuffer data) throws IOException {
+            int size = maxSegmentSize;
+            while (data.hasRemaining()) {
+                int length = size == 0 ? data.remaining()
+                        : Math.min(data.remaining(), 1 + ThreadLocalRandom.current().nextInt(size));
+                out.write(data.array(), data.arrayOffset() + data.position(), length);
+                data.position(data.position() + length);
+                segments.increment();
+            }
+        }
+
+        void close() {
+            connections.remove(this);
+            try {
+                socket.close();
+            } catch (IOException e) {
+                /* already closed */
+            }
+        }
+    }
+
+    /**
+     * Runs a simulator until the process is killed.
+     *
+     * Options: --lights N, --group-size N, --bind ADDRESS, --latency MIN[-MAX] (microseconds),
+     * --segment-size N, --coalesce RATE, --drop RATE
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int lights = 500;
+        int groupSize = 50;
+        InetAddress address = InetAddress.getLoopbackAddress();
+        long minLatency = 0;
+        long maxLatency = 0;
+        int segmentSize = 0;
+        double coalesce = 0;
+        double drop = 0;
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            String value = args[i + 1];
+            switch (args[i]) {
+                case "--lights":
+                    lights = Integer.parseInt(value);
+                    break;
+                case "--group-size":
+                    groupSize = Integer.parseInt(value);
+                    break;
+                case "--bind":
+                    address = InetAddress.getByName(value);
+                    break;
+                case "--latency":
+                    int dash = value.indexOf('-');
+                    minLatency = Long.parseLong(dash < 0 ? value : value.substring(0, dash));
+                    maxLatency = dash < 0 ? minLatency : Long.parseLong(value.substring(dash + 1));
+                    break;
+                case "--segment-size":
+                    segmentSize = Integer.parseInt(value);
+                    break;
+                case "--coalesce":
+                    coalesce = Double.parseDouble(value);
+                    break;
+                case "--drop":
+                    drop = Double.parseDouble(value);
+                    break;
+                default:
+                    throw new IllegalArgumentException("unknown option " + args[i]);
+            }
+        }
+
+        BridgeSimulator simulator = new BridgeSimulator(address, lights, groupSize);
+        simulator.setLatency(minLatency, maxLatency);
+        simulator.setMaxSegmentSize(segmentSize);
+        simulator.setCoalesceRate(coalesce);
+        simulator.setDropRate(drop);
+        System.out.println("simulating " + lights + " lights on " + simulator.getHost() + ":" + Transport.PORT);
+        while (true) {
+            Thread.sleep(10000);
+            System.out.println(simulator.getConnectionCount() + " connections, " + simulator.getRequestCount()
+                    + " requests, " + simulator.getDroppedCount() + " dropped, " + simulator.getAnswerCount()
+                    + " answers in " + simulator.getSegmentCount() + " segments");
+        }
+    }
+}
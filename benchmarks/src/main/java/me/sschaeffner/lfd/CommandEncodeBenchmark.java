@@ -0,0 +1,81 @@
+package me.sschaeffner.lfd;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures sending commands through LfdObject down to the encoded bytes in the send buffer.
+ *
+ * @author Simon Schäffner (simon.schaeffner@googlemail.com)
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CommandEncodeBenchmark {
+
+    private BenchmarkTransport transport;
+    private LfdBridge bridge;
+    private LfdLight light;
+    private List<LfdLight> lights;
+    private int value;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException, LfdException {
+        transport = new BenchmarkTransport();
+        bridge = transport.connect();
+        Dispatch.answer(bridge, transport, bridge.requestAllLightsStatusAsync(), Packets.allLightsStatus(100, 50));
+        lights = bridge.getLights();
+        light = lights.get(0);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        bridge.shutdown();
+    }
+
+    @Benchmark
+    public void encodeOnly() {
+        transport.write(PacketEncoder.FLAG_LIGHT, LfdOpCodes.LUMINANCE, (byte) 1, light.getTarget(),
+                PacketEncoder.TARGET_LENGTH, value++ & 0x3F, 3);
+        transport.flush();
+    }
+
+    @Benchmark
+    public void sendLuminance() {
+        light.sendLuminance((byte) (value++ & 0x3F), (short) 0);
+    }
+
+    @Benchmark
+    public void sendColour() {
+        int v = value++;
+        light.sendColour((byte) v, (byte) (v >> 8), (byte) 0x80, (short) 0);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public void batchOf100() {
+        final int v = value++ & 0x3F;
+        bridge.batch(b -> {
+            for (LfdLight l : lights) {
+                l.sendLuminance((byte) v, (short) 0);
+            }
+        });
+    }
+}
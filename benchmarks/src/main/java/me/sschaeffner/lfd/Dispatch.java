@@ -0,0 +1,31 @@
+package me.sschaeffner.lfd;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Feeds answers to a bridge as if they had been received.
+ *
+ * @author Simon Schäffner (simon.schaeffner@googlemail.com)
+ */
+final class Dispatch {
+
+    private Dispatch() {
+    }
+
+    /**
+     * Answers a request sent through a BenchmarkTransport and waits for the answer to be handled.
+     *
+     * @param bridge    the bridge
+     * @param transport the bridge's transport
+     * @param request   the request's future
+     * @param answer    the answer (its sequence is set to the request's)
+     */
+    static void answer(LfdBridge bridge, BenchmarkTransport transport, CompletableFuture<?> request, ByteBuffer answer)
+            throws LfdException {
+        Packets.setSequence(answer, transport.lastSequence);
+        bridge.onPacketReceive(answer);
+        answer.rewind();
+        LfdBridge.waitForAnswer(request);
+    }
+}
@@ -0,0 +1,91 @@
+package me.sschaeffner.lfd;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures splitting a received byte stream into packets as done by the connections' listener.
+ *
+ * The stream holds 1000 command acknowledgements and a status answer of 100 lights and is fed to the
+ * decoder in chunks of the given size, like reads from a socket.
+ *
+ * @author Simon Schäffner (simon.schaeffner@googlemail.com)
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FramingBenchmark {
+
+    @Param({"64", "1460", "16384"})
+    private int chunk;
+
+    @Param({"false", "true"})
+    private boolean direct;
+
+    private byte[] stream;
+    private FrameDecoder decoder;
+    private int packets;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        ByteBuffer out = ByteBuffer.allocate(64 * 1024).order(ByteOrder.LITTLE_ENDIAN);
+        for (int i = 0; i < 1000; i++) {
+            out.putShort((short) 7);
+            out.put(new byte[] {0x03, LfdOpCodes.LUMINANCE, 0x00, 0x00, 0x07, (byte) i, 0x00});
+        }
+        ByteBuffer status = Packets.allLightsStatus(100, 50);
+        out.putShort((short) status.remaining());
+        out.put(status);
+        stream = new byte[out.position()];
+        out.flip();
+        out.get(stream);
+
+        decoder = new FrameDecoder(new PacketReceiver() {
+            @Override
+            public void onPacketReceive(ByteBuffer packet) {
+                packets++;
+            }
+
+            @Override
+            public void onConnectionLost(IOException cause) {
+            }
+
+            @Override
+            public void onConnectionRestored() {
+            }
+        }, direct);
+    }
+
+    /**
+     * Decodes the whole stream; one operation corresponds to stream.length bytes.
+     */
+    @Benchmark
+    public int decodeStream() {
+        for (int offset = 0; offset < stream.length; ) {
+            ByteBuffer buffer = decoder.buffer();
+            int length = Math.min(Math.min(chunk, buffer.remaining()), stream.length - offset);
+            buffer.put(stream, offset, length);
+            offset += length;
+            decoder.decode();
+        }
+        return packets;
+    }
+}
@@ -0,0 +1,148 @@
+package me.sschaeffner.lfd;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Load test against a BridgeSimulator: every benchmark thread is a separate client with its own
+ * connections. Sampling reports the latency distribution (p50 to p99.99) so the effect of latency,
+ * split answers and dropped requests on the tail can be seen.
+ *
+ * Run with more or less clients using -t, e.g.
+ *
+ *     java -jar benchmarks.jar Load -t 32 -p latency=1000-5000 -p drop=0.001
+ *
+ * @author Simon Schäffner (simon.schaeffner@googlemail.com)
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(8)
+@Fork(1)
+public class LoadBenchmark {
+
+    /* request timeout of the clients, bounds the latency of dropped requests */
+    private static final long REQUEST_TIMEOUT = 100;
+
+    @State(Scope.Benchmark)
+    public static class Simulator {
+
+        @Param({"500"})
+        private int lights;
+
+        /* latency of the simulated bridge in microseconds ("min-max") */
+        @Param({"0", "1000-5000"})
+        private String latency;
+
+        /* maximum segment size of answers (0 to not split answers) */
+        @Param({"0", "536"})
+        private int segmentSize;
+
+        @Param({"0"})
+        private double coalesce;
+
+        @Param({"0"})
+        private double drop;
+
+        private BridgeSimulator simulator;
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException {
+            simulator = new BridgeSimulator(lights, 50);
+            int dash = latency.indexOf('-');
+            long min = Long.parseLong(dash < 0 ? latency : latency.substring(0, dash));
+            long max = dash < 0 ? min : Long.parseLong(latency.substring(dash + 1));
+            simulator.setLatency(min, max);
+            simulator.setMaxSegmentSize(segmentSize);
+            simulator.setCoalesceRate(coalesce);
+            simulator.setDropRate(drop);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException {
+            simulator.close();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Client {
+
+        private LfdBridge bridge;
+        private List<LfdLight> lights;
+        private int next;
+
+        @Setup(Level.Trial)
+        public void setUp(Simulator simulator) throws IOException, LfdException {
+            bridge = new LfdBridge(simulator.simulator.getHost(), null, LfdEventLoop.getShared());
+            bridge.setRequestTimeout(REQUEST_TIMEOUT);
+            /* the first status request may be dropped as well */
+            while (bridge.getLights().isEmpty()) {
+                try {
+                    bridge.requestAllLightsStatus();
+                } catch (LfdException e) {
+                    /* retry */
+                }
+            }
+            lights = bridge.getLights();
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException {
+            bridge.shutdown();
+        }
+
+        LfdLight nextLight() {
+            LfdLight light = lights.get(next);
+            next = (next + 1) % lights.size();
+            return light;
+        }
+    }
+
+    /**
+     * Polls the status of all lights.
+     *
+     * @return whether the request has been answered
+     */
+    @Benchmark
+    public boolean pollStatus(Client client) {
+        try {
+            client.bridge.requestAllLightsStatus();
+            return true;
+        } catch (LfdException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Sends an acknowledged command to the next light.
+     *
+     * @return whether the command has been acknowledged
+     */
+    @Benchmark
+    public boolean command(Client client) {
+        try {
+            client.nextLight().sendLuminanceAsync((byte) 50, (short) 0).join();
+            return true;
+        } catch (CompletionException e) {
+            return false;
+        }
+    }
+}
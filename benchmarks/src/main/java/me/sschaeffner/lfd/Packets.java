@@ -0,0 +1,113 @@
+package me.sschaeffner.lfd;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Builds answers as sent by the bridge (without length prefix) for the benchmarks.
+ *
+ * @author Simon Schäffner (simon.schaeffner@googlemail.com)
+ */
+final class Packets {
+
+    /* the first light address used */
+    static final long FIRST_ADDRESS = 0x84182600000A0000L;
+
+    /* maximum amount of lights in a group info answer (the count is a single byte) */
+    static final int MAX_GROUP_LIGHTS = 250;
+
+    private Packets() {
+    }
+
+    /**
+     * Builds an ALL_LIGHTS_STATUS answer.
+     *
+     * @param lights    the amount of lights
+     * @param luminance the luminance of all lights
+     * @return the packet
+     */
+    static ByteBuffer allLightsStatus(int lights, int luminance) {
+        ByteBuffer packet = header(LfdOpCodes.ALL_LIGHTS_STATUS, 2 + lights * 50);
+        packet.putShort((short) lights);
+        for (int i = 0; i < lights; i++) {
+            int record = packet.position();
+            packet.putShort((short) i);
+            packet.putLong(FIRST_ADDRESS + i);
+            packet.position(record + 18);
+            packet.put((byte) 1);
+            packet.put((byte) luminance);
+            packet.putShort((short) 2700);
+            packet.put((byte) 0xFF);
+            packet.put((byte) 0xFF);
+            packet.put((byte) 0xFF);
+            packet.put((byte) 0xFF);
+            packet.position(record + 26);
+            putName(packet, "light " + i);
+            packet.position(record + 50);
+        }
+        packet.flip();
+        return packet;
+    }
+
+    /**
+     * Builds a GROUP_LIST answer.
+     *
+     * @param groups the amount of groups (ids 1 to groups)
+     * @return the packet
+     */
+    static ByteBuffer groupList(int groups) {
+        ByteBuffer packet = header(LfdOpCodes.GROUP_LIST, 2 + groups * 18);
+        packet.putShort((short) groups);
+        for (int i = 1; i <= groups; i++) {
+            packet.putShort((short) i);
+            putName(packet, "group " + i);
+        }
+        packet.flip();
+        return packet;
+    }
+
+    /**
+     * Builds a GROUP_INFO answer.
+     *
+     * @param id            the group's id
+     * @param firstLight    index of the group's first light
+     * @param lights        the amount of lights in the group (at most MAX_GROUP_LIGHTS)
+     * @return the packet
+     */
+    static ByteBuffer groupInfo(int id, int firstLight, int lights) {
+        ByteBuffer packet = header(LfdOpCodes.GROUP_INFO, 2 + 16 + 1 + lights * 18);
+        packet.putShort((short) id);
+        putName(packet, "group " + id);
+        packet.put((byte) lights);
+        for (int i = 0; i < lights; i++) {
+            packet.putLong(FIRST_ADDRESS + firstLight + i);
+            packet.position(packet.position() + 10);
+        }
+        packet.flip();
+        return packet;
+    }
+
+    /**
+     * Sets the sequence of an answer.
+     */
+    static void setSequence(ByteBuffer packet, byte sequence) {
+        packet.put(packet.position() + 5, sequence);
+    }
+
+    private static ByteBuffer header(byte opcode, int payload) {
+        ByteBuffer packet = ByteBuffer.allocate(7 + payload).order(ByteOrder.LITTLE_ENDIAN);
+        packet.put((byte) 0x03);
+        packet.put(opcode);
+        packet.put(new byte[] {0x00, 0x00, 0x07, 0x00});
+        packet.put((byte) 0x00);
+        return packet;
+    }
+
+    private static void putName(ByteBuffer packet, String name) {
+        byte[] ascii = name.getBytes(StandardCharsets.US_ASCII);
+        byte[] padded = new byte[PacketView.NAME_LENGTH];
+        System.arraycopy(ascii, 0, padded, 0, Math.min(ascii.length, padded.length));
+        packet.put(padded);
+    }
+}
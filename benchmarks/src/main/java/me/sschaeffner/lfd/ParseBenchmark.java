@@ -0,0 +1,106 @@
+package me.sschaeffner.lfd;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures dispatching and parsing status and group info answers: registering the request, matching
+ * the answer and updating lights and groups.
+ *
+ * The "unchanged" benchmarks receive the same answer again and again (the common case when polling),
+ * the "changed" benchmarks alternate between two answers so every light or group changes.
+ *
+ * @author Simon Schäffner (simon.schaeffner@googlemail.com)
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParseBenchmark {
+
+    @Param({"10", "100", "1000"})
+    private int lights;
+
+    private BenchmarkTransport transport;
+    private LfdBridge bridge;
+    private ByteBuffer status;
+    private ByteBuffer changedStatus;
+    private List<LfdGroup> groups;
+    private ByteBuffer[] groupInfos;
+    private ByteBuffer[] changedGroupInfos;
+    private boolean flip;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException, LfdException {
+        transport = new BenchmarkTransport();
+        bridge = transport.connect();
+        status = Packets.allLightsStatus(lights, 20);
+        changedStatus = Packets.allLightsStatus(lights, 80);
+
+        /* group info answers are limited to 250 lights: spread the lights over as many groups as needed */
+        int groupCount = (lights + Packets.MAX_GROUP_LIGHTS - 1) / Packets.MAX_GROUP_LIGHTS;
+        Dispatch.answer(bridge, transport, bridge.requestGroupListAsync(), Packets.groupList(groupCount));
+        groups = bridge.getGroups();
+        groupInfos = new ByteBuffer[groupCount];
+        changedGroupInfos = new ByteBuffer[groupCount];
+        for (int i = 0; i < groupCount; i++) {
+            int id = (int) groups.get(i).getTarget();
+            int first = i * Packets.MAX_GROUP_LIGHTS;
+            int size = Math.min(Packets.MAX_GROUP_LIGHTS, lights - first);
+            groupInfos[i] = Packets.groupInfo(id, first, size);
+            changedGroupInfos[i] = Packets.groupInfo(id, first + 1, size);
+        }
+
+        Dispatch.answer(bridge, transport, bridge.requestAllLightsStatusAsync(), status);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        bridge.shutdown();
+    }
+
+    @Benchmark
+    public void statusUnchanged() throws LfdException {
+        Dispatch.answer(bridge, transport, bridge.requestAllLightsStatusAsync(), status);
+    }
+
+    @Benchmark
+    public void statusChanged() throws LfdException {
+        flip = !flip;
+        Dispatch.answer(bridge, transport, bridge.requestAllLightsStatusAsync(), flip ? changedStatus : status);
+    }
+
+    @Benchmark
+    public void groupInfoUnchanged() throws LfdException {
+        for (int i = 0; i < groupInfos.length; i++) {
+            Dispatch.answer(bridge, transport, groups.get(i).requestGroupInfoAsync(), groupInfos[i]);
+        }
+    }
+
+    @Benchmark
+    public void groupInfoChanged() throws LfdException {
+        flip = !flip;
+        ByteBuffer[] answers = flip ? changedGroupInfos : groupInfos;
+        for (int i = 0; i < answers.length; i++) {
+            Dispatch.answer(bridge, transport, groups.get(i).requestGroupInfoAsync(), answers[i]);
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package me.sschaeffner.lfd;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures complete request round trips against a BridgeSimulator, using either a blocking socket
+ * (NetworkHandler) or a non-blocking connection served by an event loop (NioConnection).
+ *
+ * @author Simon Schäffner (simon.schaeffner@googlemail.com)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RoundTripBenchmark {
+
+    @Param({"socket", "nio"})
+    private String connection;
+
+    @Param({"100"})
+    private int lights;
+
+    private BridgeSimulator simulator;
+    private LfdEventLoop eventLoop;
+    private LfdBridge bridge;
+    private LfdLight light;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException, LfdException {
+        simulator = new BridgeSimulator(lights, 50);
+        if (connection.equals("nio")) {
+            eventLoop = new LfdEventLoop();
+            bridge = new LfdBridge(simulator.getHost(), null, eventLoop);
+        } else {
+            bridge = new LfdBridge(simulator.getHost(), null);
+        }
+        bridge.requestAllLightsStatus();
+        light = bridge.getLights().get(0);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        bridge.shutdown();
+        if (eventLoop != null) {
+            eventLoop.close();
+        }
+        simulator.close();
+    }
+
+    @Benchmark
+    public void requestAllLightsStatus() throws LfdException {
+        bridge.requestAllLightsStatus();
+    }
+
+    @Benchmark
+    public void acknowledgedCommand() {
+        light.sendLuminanceAsync((byte) 50, (short) 0).join();
+    }
+}
@@ -0,0 +1,249 @@
+package me.sschaeffner.lfd;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rate limits the commands sent to the bridge.
+ *
+ * Commands waiting to be sent are coalesced: for every target (light or group) and opcode only the
+ * latest command is kept, so a burst of e.g. luminance commands results in a single packet carrying
+ * the latest value. Commands are sent at most at a configurable rate per bridge and per target.
+ *
+ * @author Simon Schäffner (simon.schaeffner@googlemail.com)
+ */
+final class CommandQueue {
+
+    /* the queue's bridge */
+    private final LfdBridge lfdBridge;
+
+    /* counts coalesced and rate limited commands */
+    private final Metrics metrics;
+
+    /* targets with pending commands in the order they have been queued */
+    private final ArrayDeque<LfdObject> targets;
+
+    /* maximum commands per second sent to the bridge (0: unlimited) */
+    private int bridgeRate;
+
+    /* minimum time between two sends to the same target in nanoseconds (0: unlimited) */
+    private long targetInterval;
+
+    /* tokens available for sending commands to the bridge */
+    private double tokens;
+
+    /* time tokens have been refilled last */
+    private long lastRefill;
+
+    /* whether a flush is scheduled */
+    private boolean flushScheduled;
+
+    /**
+     * Constructs a new CommandQueue without any limits.
+     *
+     * @param lfdBridge a reference to the LfdBridge object
+     * @param metrics   counts coalesced and rate limited commands
+     */
+    CommandQueue(LfdBridge lfdBridge, Metrics metrics) {
+        this.lfdBridge = lfdBridge;
+        this.metrics = metrics;
+        this.targets = new ArrayDeque<>();
+        this.bridgeRate = 0;
+        this.targetInterval = 0;
+    }
+
+    /**
+     * Sets the rate limits. Setting both to 0 disables queueing.
+     *
+     * @param bridgeRate    maximum commands per second sent to the bridge (0: unlimited)
+     * @param targetRate    maximum commands per second sent to a single light or group (0: unlimited)
+     */
+    synchronized void setRates(int bridgeRate, int targetRate) {
+        if (bridgeRate < 0 || targetRate < 0) {
+            throw new IllegalArgumentException("rates must not be negative");
+        }
+        this.bridgeRate = bridgeRate;
+        this.targetInterval = targetRate == 0 ? 0 : TimeUnit.SECONDS.toNanos(1) / targetRate;
+        this.tokens = burst();
+        this.lastRefill = System.nanoTime();
+        flush();
+    }
+
+    /**
+     * Queues a command. When there are no rate limits it is sent right away.
+     *
+     * @param target    the light or group to send the command to
+     * @param command     the command's opcode
+     * @param data        the command's data (little endian)
+     * @param dataLength  length of the command's data
+     */
+    synchronized void submit(LfdObject target, byte command, long data, int dataLength) {
+        if (bridgeRate == 0 && targetInterval == 0 && targets.isEmpty()) {
+            target.sendCommand(command, lfdBridge.getNextSequence(), data, dataLength);
+            return;
+        }
+
+        PendingCommands pending = target.pendingCommands;
+        if (pending.put(command, data, dataLength)) {
+            metrics.commandCoalesced();
+        }
+        if (!pending.queued) {
+            pending.queued = true;
+            targets.add(target);
+        }
+        flush();
+        if (pending.contains(command)) {
+            /* held back by the limits */
+            metrics.commandRateLimited();
+        }
+    }
+
+    /**
+     * Sends as many queued commands as the rate limits allow and schedules the next flush. Called with
+     * the lock held.
+     */
+    private void flush() {
+        long now = System.nanoTime();
+        refill(now);
+
+        long nextTargetTime = Long.MAX_VALUE;
+        int amount = targets.size();
+        /* all commands sent by a single flush are written at once */
+        lfdBridge.beginBatch();
+        try {
+            for (int i = 0; i < amount; i++) {
+                LfdObject target = targets.poll();
+                PendingCommands pending = target.pendingCommands;
+
+                if (pending.nextSendTime - now > 0) {
+                    nextTargetTime = Math.min(nextTargetTime, pending.nextSendTime);
+                    targets.add(target);
+                    continue;
+                }
+
+                boolean sent = false;
+                while (pending.size > 0 && hasToken()) {
+                    target.sendCommand(pending.opcodes[0], lfdBridge.getNextSequence(), pending.data[0], pending.dataLengths[0]);
+                    pending.removeFirst();
+                    tokens--;
+                    sent = true;
+                    if (targetInterval > 0) {
+                        /* a single command per target interval, the others wait for the next one */
+                        break;
+                    }
+                }
+                if (sent) {
+                    pending.nextSendTime = now + targetInterval;
+                }
+
+                if (pending.size == 0) {
+                    pending.queued = false;
+                } else if (!hasToken()) {
+                    targets.addFirst(target);
+                    break;
+                } else {
+                    nextTargetTime = Math.min(nextTargetTime, pending.nextSendTime);
+                    targets.add(target);
+                }
+            }
+        } finally {
+            lfdBridge.endBatch();
+        }
+
+        if (targets.isEmpty() || flushScheduled) {
+            return;
+        }
+
+        long delay;
+        if (!hasToken()) {
+            delay = (long) ((1 - tokens) * TimeUnit.SECONDS.toNanos(1) / bridgeRate);
+        } else {
+            delay = nextTargetTime - now;
+        }
+        flushScheduled = true;
+        Scheduler.get().schedule(new Runnable() {
+            @Override
+            public void run() {
+                /* sending blocks while the bridge does not read, which must not hold up the scheduler */
+                lfdBridge.getSender().execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        synchronized (CommandQueue.this) {
+                            flushScheduled = false;
+                            flush();
+                        }
+                    }
+                });
+            }
+        }, Math.max(delay, 0), TimeUnit.NANOSECONDS);
+    }
+
+    private boolean hasToken() {
+        return bridgeRate == 0 || tokens >= 1;
+    }
+
+    private void refill(long now) {
+        if (bridgeRate == 0) {
+            return;
+        }
+        tokens = Math.min(burst(), tokens + (now - lastRefill) * bridgeRate / (double) TimeUnit.SECONDS.toNanos(1));
+        lastRefill = now;
+    }
+
+    /* at most a tenth of a second worth of commands is sent at once */
+    private double burst() {
+        return Math.max(1, bridgeRate / 10);
+    }
+
+    /**
+     * The commands waiting to be sent to a single target, at most one per opcode, in the order they
+     * have first been queued. Guarded by the CommandQueue's lock.
+     */
+    static final class PendingCommands {
+        private final byte[] opcodes = new byte[4];
+        private final long[] data = new long[4];
+        private final int[] dataLengths = new int[4];
+        private int size;
+        private boolean queued;
+        private long nextSendTime = System.nanoTime();
+
+        /**
+         * Adds a command, replacing a pending command with the same opcode.
+         *
+         * @return whether a pending command has been replaced
+         */
+        private boolean put(byte opcode, long commandData, int commandDataLength) {
+            for (int i = 0; i < size; i++) {
+                if (opcodes[i] == opcode) {
+                    data[i] = commandData;
+                    dataLengths[i] = commandDataLength;
+                    return true;
+                }
+            }
+            if (size == opcodes.length) {
+                throw new IllegalStateException("too many different commands pending");
+            }
+            opcodes[size] = opcode;
+            data[size] = commandData;
+            dataLengths[size] = commandDataLength;
+            size++;
+            return false;
+        }
+
+        private boolean contains(byte opcode) {
+            for (int i = 0; i < size; i++) {
+                if (opcodes[i] == opcode) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private void removeFirst() {
+            size--;
+            System.arraycopy(opcodes, 1, opcodes, 0, size);
+            System.arraycopy(data, 1, data, 0, size);
+            System.arraycopy(dataLengths, 1, dataLengths, 0, size);
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package me.sschaeffner.lfd;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Splits the byte stream received from the bridge into packets.
+ *
+ * Every packet is prefixed by its length (two bytes, little endian). Partial packets are kept until
+ * the rest arrives and multiple packets received at once are split up. The buffer grows to the size
+ * of the largest packet seen and is reused for all following packets.
+ *
+ * @author Simon Schäffner (simon.schaeffner@googlemail.com)
+ */
+final class FrameDecoder {
+
+    /* initial size of the receive buffer */
+    private static final int INITIAL_CAPACITY = 1024;
+
+    /* length of the length prefix */
+    private static final int PREFIX_LENGTH = 2;
+
+    /* PacketReceiver instance that all decoded packets are passed on to */
+    private final PacketReceiver packetReceiver;
+
+    /* whether the receive buffer is allocated outside of the heap (for channel reads) */
+    private final boolean direct;
+
+    /* receive buffer (write mode: position marks the end of the received data) */
+    private ByteBuffer buffer;
+
+    /**
+     * Constructs a new FrameDecoder.
+     *
+     * @param packetReceiver    an instance of a PacketReceiver
+     * @param direct            whether to use a direct buffer (when reading from a channel)
+     */
+    FrameDecoder(PacketReceiver packetReceiver, boolean direct) {
+        this.packetReceiver = packetReceiver;
+        this.direct = direct;
+        this.buffer = allocate(INITIAL_CAPACITY);
+    }
+
+    /**
+     * Returns the buffer to read received bytes into. Its position marks where new data has to be
+     * written to and it always has space left.
+     *
+     * @return the receive buffer
+     */
+    ByteBuffer buffer() {
+        if (!buffer.hasRemaining()) {
+            grow(buffer.capacity() * 2);
+        }
+        return buffer;
+    }
+
+    /**
+     * Passes all complete packets in the buffer on to the PacketReceiver.
+     *
+     * The packet is passed on as the receive buffer itself with position and limit set to the packet's
+     * bounds (without length prefix). It is only valid during the call.
+     */
+    void decode() {
+        buffer.flip();
+        while (buffer.remaining() >= PREFIX_LENGTH) {
+            int start = buffer.position();
+            int length = buffer.getShort(start) & 0xFFFF;
+            if (buffer.remaining() < PREFIX_LENGTH + length) {
+                break;
+            }
+
+            int limit = buffer.limit();
+            int end = start + PREFIX_LENGTH + length;
+            buffer.limit(end);
+            buffer.position(start + PREFIX_LENGTH);
+            packetReceiver.onPacketReceive(buffer);
+            buffer.limit(limit);
+            buffer.position(end);
+        }
+
+        /* make room for the rest of a partial packet */
+        if (buffer.remaining() >= PREFIX_LENGTH) {
+            int needed = PREFIX_LENGTH + (buffer.getShort(buffer.position()) & 0xFFFF);
+            if (needed > buffer.capacity()) {
+                buffer.compact();
+                grow(needed);
+                return;
+            }
+        }
+        buffer.compact();
+    }
+
+    private void grow(int capacity) {
+        ByteBuffer grown = allocate(capacity);
+        buffer.flip();
+        grown.put(buffer);
+        buffer = grown;
+    }
+
+    private ByteBuffer allocate(int capacity) {
+        ByteBuffer allocated = direct ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+        return allocated.order(ByteOrder.LITTLE_ENDIAN);
+    }
+}
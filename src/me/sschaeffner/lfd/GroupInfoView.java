@@ -0,0 +1,65 @@
+package me.sschaeffner.lfd;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A view of a GROUP_INFO answer: the group's id and name followed by a list of 18 byte records
+ * starting with the address of a light belonging to the group.
+ *
+ * @author Simon Schäffner (simon.schaeffner@googlemail.com)
+ */
+final class GroupInfoView extends PacketView {
+
+    /* length of a light's record */
+    private static final int RECORD_LENGTH = 18;
+
+    /* offset of the first light's record */
+    private static final int LIGHTS_OFFSET = HEADER_LENGTH + 2 + NAME_LENGTH + 1;
+
+    /* amount of lights in the packet */
+    private int count;
+
+    /**
+     * Points this view to a packet and checks its length.
+     *
+     * @param packet a buffer holding the packet between its position and limit
+     * @throws LfdException when the packet is too short
+     */
+    void wrapChecked(ByteBuffer packet) throws LfdException {
+        wrap(packet);
+        if (packet.remaining() < LIGHTS_OFFSET) {
+            throw new LfdException("received packet but too short for a group info packet");
+        }
+
+        count = packet.get(base + LIGHTS_OFFSET - 1) & 0xFF;
+
+        if (packet.remaining() < LIGHTS_OFFSET + (RECORD_LENGTH * count)) {
+            throw new LfdException("corrupt group info packet: too short");
+        }
+    }
+
+    short id() {
+        return packet.getShort(base + HEADER_LENGTH);
+    }
+
+    boolean nameEquals(byte[] name) {
+        return nameEquals(base + HEADER_LENGTH + 2, name);
+    }
+
+    void copyName(byte[] name) {
+        copyName(base + HEADER_LENGTH + 2, name);
+    }
+
+    int count() {
+        return count;
+    }
+
+    /**
+     * Returns the address of the light with the given index.
+     * @param index the index of the light (0 to count() - 1)
+     * @return the light's address
+     */
+    long address(int index) {
+        return packet.getLong(base + LIGHTS_OFFSET + (RECORD_LENGTH * index));
+    }
+}
@@ -0,0 +1,63 @@
+package me.sschaeffner.lfd;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A view of a GROUP_LIST answer: a list of 18 byte records (id and name), one per group.
+ *
+ * @author Simon Schäffner (simon.schaeffner@googlemail.com)
+ */
+final class GroupListView extends PacketView {
+
+    /* length of a group's record */
+    private static final int RECORD_LENGTH = 18;
+
+    /* amount of groups in the packet */
+    private int count;
+
+    /* absolute offset of the selected record */
+    private int pos;
+
+    /**
+     * Points this view to a packet and checks its length.
+     *
+     * @param packet a buffer holding the packet between its position and limit
+     * @throws LfdException when the packet is too short
+     */
+    void wrapChecked(ByteBuffer packet) throws LfdException {
+        wrap(packet);
+        if (packet.remaining() < HEADER_LENGTH + 2) {
+            throw new LfdException("received packet but too short for a group list packet");
+        }
+
+        count = packet.getShort(base + HEADER_LENGTH) & 0xFFFF;
+
+        if (packet.remaining() < HEADER_LENGTH + 2 + (RECORD_LENGTH * count)) {
+            throw new LfdException("corrupt group list packet: too short");
+        }
+    }
+
+    int count() {
+        return count;
+    }
+
+    /**
+     * Selects the record of the group with the given index.
+     * @param index the index of the group (0 to count() - 1)
+     */
+    void select(int index) {
+        pos = base + HEADER_LENGTH + 2 + (RECORD_LENGTH * index);
+    }
+
+    short id() {
+        return packet.getShort(pos);
+    }
+
+    boolean nameEquals(byte[] name) {
+        return nameEquals(pos + 2, name);
+    }
+
+    void copyName(byte[] name) {
+        copyName(pos + 2, name);
+    }
+}
@@ -0,0 +1,98 @@
+package me.sschaeffner.lfd;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Records the distribution of durations (in nanoseconds) without locking or allocating.
+ *
+ * Values are counted in log-linear buckets like an HDR histogram: every power of two is split into
+ * SUB_BUCKETS buckets of equal width, so every value is recorded with a relative error of at most
+ * 1/SUB_BUCKETS (about 3%). Values below SUB_BUCKETS are recorded exactly and values above MAX_VALUE
+ * count as MAX_VALUE.
+ *
+ * @author Simon Schäffner (simon.schaeffner@googlemail.com)
+ */
+final class Histogram {
+
+    /* bits of a value kept below its highest bit */
+    private static final int SUB_BUCKET_BITS = 5;
+
+    /* buckets per power of two */
+    static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    /* the biggest value recorded as it is (about 18 minutes) */
+    static final long MAX_VALUE = (1L << 40) - 1;
+
+    /* amount of buckets needed to cover MAX_VALUE */
+    static final int BUCKETS = index(MAX_VALUE) + 1;
+
+    /* amount of values recorded per bucket */
+    private final AtomicLongArray counts;
+
+    /* sum of all values recorded */
+    private final LongAdder sum;
+
+    /* the biggest value recorded */
+    private final AtomicLong max;
+
+    Histogram() {
+        this.counts = new AtomicLongArray(BUCKETS);
+        this.sum = new LongAdder();
+        this.max = new AtomicLong();
+    }
+
+    /**
+     * Records a value.
+     *
+     * @param value the value in nanoseconds (negative values count as 0)
+     */
+    void record(long value) {
+        long v = Math.min(Math.max(value, 0), MAX_VALUE);
+        counts.incrementAndGet(index(v));
+        sum.add(v);
+        /* the maximum rarely changes: only write when it does */
+        long m;
+        while (v > (m = max.get()) && !max.compareAndSet(m, v)) {
+        }
+    }
+
+    /**
+     * Returns the values recorded so far. Values recorded while taking the snapshot may or may not be
+     * included.
+     *
+     * @return an immutable snapshot
+     */
+    LfdHistogram snapshot() {
+        long[] snapshot = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = counts.get(i);
+        }
+        return new LfdHistogram(snapshot, sum.sum(), max.get());
+    }
+
+    /**
+     * Returns the bucket a value is counted in.
+     */
+    static int index(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        int sub = (int) (value >>> shift) & (SUB_BUCKETS - 1);
+        return (shift + 1) * SUB_BUCKETS + sub;
+    }
+
+    /**
+     * Returns the biggest value counted in a bucket.
+     */
+    static long highestValue(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int shift = index / SUB_BUCKETS - 1;
+        long lowest = (long) (SUB_BUCKETS + index % SUB_BUCKETS) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+}
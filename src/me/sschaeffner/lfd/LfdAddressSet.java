@@ -0,0 +1,126 @@
+package me.sschaeffner.lfd;
+
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * An immutable set of light addresses (e.g. the lights belonging to a group).
+ *
+ * The addresses are stored as a sorted array of primitive longs. Use contains(long), size() and
+ * get(int) to access them without boxing; the Set&lt;Long&gt; methods are provided for convenience.
+ *
+ * @author Simon Schäffner (simon.schaeffner@googlemail.com)
+ */
+public final class LfdAddressSet extends AbstractSet<Long> {
+
+    /* the empty set */
+    static final LfdAddressSet EMPTY = new LfdAddressSet(new long[0]);
+
+    /* the sorted addresses */
+    private final long[] addresses;
+
+    /**
+     * Constructs a new LfdAddressSet.
+     *
+     * @param addresses sorted addresses without duplicates (not copied)
+     */
+    private LfdAddressSet(long[] addresses) {
+        this.addresses = addresses;
+    }
+
+    /**
+     * Constructs a new LfdAddressSet from an array of addresses.
+     *
+     * @param addresses the addresses (sorted in place, duplicates are removed)
+     * @param length    the amount of addresses in the array to use
+     * @return a set holding the addresses
+     */
+    static LfdAddressSet of(long[] addresses, int length) {
+        if (length == 0) {
+            return EMPTY;
+        }
+        Arrays.sort(addresses, 0, length);
+        int unique = 1;
+        for (int i = 1; i < length; i++) {
+            if (addresses[i] != addresses[unique - 1]) {
+                addresses[unique++] = addresses[i];
+            }
+        }
+        return new LfdAddressSet(Arrays.copyOf(addresses, unique));
+    }
+
+    /**
+     * Returns whether the set contains the given address.
+     * @param address a light's address
+     * @return whether the set contains the address
+     */
+    public boolean contains(long address) {
+        return Arrays.binarySearch(addresses, address) >= 0;
+    }
+
+    /**
+     * Returns the address with the given index (addresses are sorted).
+     * @param index the index (0 to size() - 1)
+     * @return the address
+     */
+    public long get(int index) {
+        return addresses[index];
+    }
+
+    /**
+     * Returns a copy of the addresses.
+     * @return the sorted addresses
+     */
+    public long[] toLongArray() {
+        return addresses.clone();
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        return o instanceof Long && contains(((Long) o).longValue());
+    }
+
+    @Override
+    public int size() {
+        return addresses.length;
+    }
+
+    @Override
+    public Iterator<Long> iterator() {
+        return new Iterator<Long>() {
+            private int index = 0;
+
+            @Override
+            public boolean hasNext() {
+                return index < addresses.length;
+            }
+
+            @Override
+            public Long next() {
+                if (index >= addresses.length) {
+                    throw new NoSuchElementException();
+                }
+                return addresses[index++];
+            }
+        };
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (o instanceof LfdAddressSet) {
+            return Arrays.equals(addresses, ((LfdAddressSet) o).addresses);
+        }
+        return super.equals(o);
+    }
+
+    @Override
+    public int hashCode() {
+        int hash = 0;
+        for (long address : addresses) {
+            hash += (int) (address ^ (address >>> 32));
+        }
+        return hash;
+    }
+}
@@ -0,0 +1,347 @@
+package me.sschaeffner.lfd;
+
+import java.io.Closeable;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A logger handing messages to another logger on a background thread.
+ *
+ * Messages are put into a ring buffer of fixed size and written by the "lfd-logger" thread, so the
+ * threads handling the connection never wait for the console or a file. Formats with {} placeholders
+ * are formatted on the background thread as well as long as their arguments are immutable (strings,
+ * boxed primitives and enums); any other argument is turned into a string when the message is
+ * offered, as it may have changed by the time the background thread gets to it. Throwables are
+ * handed to the delegate as they are. When the buffer is full, messages are dropped rather than
+ * waiting for space (see getDroppedCount()).
+ *
+ * Messages of levels the delegate does not log are neither queued nor formatted.
+ *
+ * @author Simon Schäffner (simon.schaeffner@googlemail.com)
+ */
+public final class LfdAsyncLogger implements LfdLogger, Closeable {
+
+    /* default capacity of the ring buffer */
+    private static final int DEFAULT_CAPACITY = 1024;
+
+    /* time the background thread sleeps at most when there is nothing to write in nanoseconds */
+    private static final long IDLE_WAIT = 10000000;
+
+    private static final byte DEBUG = 0;
+    private static final byte INFO = 1;
+    private static final byte ERROR = 2;
+
+    /* logger the messages are handed to */
+    private final LfdLogger delegate;
+
+    /* the ring buffer's entries, reused for all messages */
+    private final Entry[] entries;
+
+    /*
+     * sequence of every entry: equals the position to write it at when the entry is free and that
+     * position + 1 once the message has been written
+     */
+    private final AtomicLongArray sequences;
+
+    /* capacity - 1 (the capacity is a power of two) */
+    private final int mask;
+
+    /* the next position to write a message to */
+    private final AtomicLong tail;
+
+    /* the next position to read a message from (background thread only) */
+    private long head;
+
+    /* messages dropped because the buffer was full */
+    private final LongAdder dropped;
+
+    /* the background thread */
+    private final Thread thread;
+
+    /* whether the background thread is sleeping */
+    private volatile boolean idle;
+
+    /* whether the logger has been closed */
+    private volatile boolean closed;
+
+    /**
+     * Constructs a new LfdAsyncLogger with room for 1024 messages.
+     *
+     * @param delegate  the logger to hand the messages to
+     */
+    public LfdAsyncLogger(LfdLogger delegate) {
+        this(delegate, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Constructs a new LfdAsyncLogger.
+     *
+     * @param delegate  the logger to hand the messages to
+     * @param capacity  the amount of messages waiting to be written at most (rounded up to a power of two)
+     */
+    public LfdAsyncLogger(LfdLogger delegate, int capacity) {
+        if (capacity < 1 || capacity > 1 << 20) {
+            throw new IllegalArgumentException("capacity must be between 1 and " + (1 << 20));
+        }
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        this.delegate = delegate;
+        this.entries = new Entry[size];
+        this.sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            entries[i] = new Entry();
+            sequences.set(i, i);
+        }
+        this.mask = size - 1;
+        this.tail = new AtomicLong();
+        this.dropped = new LongAdder();
+        this.thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                drain();
+            }
+        }, "lfd-logger");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    @Override
+    public boolean isDebugEnabled() {
+        return delegate.isDebugEnabled();
+    }
+
+    @Override
+    public boolean isInfoEnabled() {
+        return delegate.isInfoEnabled();
+    }
+
+    @Override
+    public boolean isErrorEnabled() {
+        return delegate.isErrorEnabled();
+    }
+
+    @Override
+    public void debug(String msg) {
+        if (isDebugEnabled()) {
+            offer(DEBUG, msg, null, null, 0, null);
+        }
+    }
+
+    @Override
+    public void info(String msg) {
+        if (isInfoEnabled()) {
+            offer(INFO, msg, null, null, 0, null);
+        }
+    }
+
+    @Override
+    public void error(String msg) {
+        if (isErrorEnabled()) {
+            offer(ERROR, msg, null, null, 0, null);
+        }
+    }
+
+    @Override
+    public void debug(String format, Object arg) {
+        if (isDebugEnabled()) {
+            offer(DEBUG, format, immutable(arg), null, 1, null);
+        }
+    }
+
+    @Override
+    public void debug(String format, Object arg1, Object arg2) {
+        if (isDebugEnabled()) {
+            offer(DEBUG, format, immutable(arg1), immutable(arg2), 2, null);
+        }
+    }
+
+    @Override
+    public void info(String format, Object arg) {
+        if (isInfoEnabled()) {
+            offer(INFO, format, immutable(arg), null, 1, null);
+        }
+    }
+
+    @Override
+    public void info(String format, Object arg1, Object arg2) {
+        if (isInfoEnabled()) {
+            offer(INFO, format, immutable(arg1), immutable(arg2), 2, null);
+        }
+    }
+
+    @Override
+    public void error(String format, Object arg) {
+        if (isErrorEnabled()) {
+            offer(ERROR, format, immutable(arg), null, 1, null);
+        }
+    }
+
+    @Override
+    public void error(String format, Object arg1, Object arg2) {
+        if (isErrorEnabled()) {
+            offer(ERROR, format, immutable(arg1), immutable(arg2), 2, null);
+        }
+    }
+
+    @Override
+    public void error(String msg, Throwable throwable) {
+        if (isErrorEnabled()) {
+            offer(ERROR, msg, null, null, 0, throwable);
+        }
+    }
+
+    /**
+     * Returns the amount of messages dropped because the buffer was full.
+     * @return the amount of dropped messages
+     */
+    public long getDroppedCount() {
+        return dropped.sum();
+    }
+
+    /**
+     * Writes the messages still in the buffer and stops the background thread.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        LockSupport.unpark(thread);
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Puts a message into the buffer unless it is full. Any amount of threads may call this at the
+     * same time.
+     */
+    private void offer(byte level, String format, Object arg1, Object arg2, int args, Throwable throwable) {
+        long position = tail.get();
+        int index;
+        while (true) {
+            index = (int) position & mask;
+            long difference = sequences.get(index) - position;
+            if (difference == 0) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    break;
+                }
+                position = tail.get();
+            } else if (difference < 0) {
+                /* the entry has not been written by the background thread yet: the buffer is full */
+                dropped.increment();
+                return;
+            } else {
+                position = tail.get();
+            }
+        }
+
+        Entry entry = entries[index];
+        entry.level = level;
+        entry.format = format;
+        entry.arg1 = arg1;
+        entry.arg2 = arg2;
+        entry.args = args;
+        entry.throwable = throwable;
+        sequences.lazySet(index, position + 1);
+
+        if (idle) {
+            idle = false;
+            LockSupport.unpark(thread);
+        }
+    }
+
+    /**
+     * Returns the argument if it cannot change until the background thread formats it, otherwise
+     * the argument as a string.
+     */
+    private static Object immutable(Object arg) {
+        if (arg == null || arg instanceof String || arg instanceof Integer || arg instanceof Long
+                || arg instanceof Short || arg instanceof Byte || arg instanceof Double || arg instanceof Float
+                || arg instanceof Boolean || arg instanceof Character || arg instanceof Enum) {
+            return arg;
+        }
+        return String.valueOf(arg);
+    }
+
+    /**
+     * Hands all messages to the delegate until the logger is closed. Runs on the background thread.
+     */
+    private void drain() {
+        while (true) {
+            if (poll()) {
+                continue;
+            }
+            if (closed) {
+                return;
+            }
+            idle = true;
+            /* a message may have been offered before idle was set */
+            if (!poll()) {
+                LockSupport.parkNanos(this, IDLE_WAIT);
+            }
+            idle = false;
+        }
+    }
+
+    /**
+     * Hands the next message to the delegate.
+     *
+     * @return whether there was a message
+     */
+    private boolean poll() {
+        int index = (int) head & mask;
+        if (sequences.get(index) != head + 1) {
+            return false;
+        }
+        Entry entry = entries[index];
+        byte level = entry.level;
+        String message = entry.args == 0 ? entry.format
+                : entry.args == 1 ? LogFormat.format(entry.format, entry.arg1)
+                : LogFormat.format(entry.format, entry.arg1, entry.arg2);
+        entry.format = null;
+        entry.arg1 = null;
+        entry.arg2 = null;
+        Throwable throwable = entry.throwable;
+        entry.throwable = null;
+        sequences.lazySet(index, head + entries.length);
+        head++;
+
+        try {
+            switch (level) {
+                case DEBUG:
+                    delegate.debug(message);
+                    break;
+                case INFO:
+                    delegate.info(message);
+                    break;
+                default:
+                    if (throwable != null) {
+                        delegate.error(message, throwable);
+                    } else {
+                        delegate.error(message);
+                    }
+                    break;
+            }
+        } catch (RuntimeException e) {
+            /* a failing delegate must not stop the background thread */
+        }
+        return true;
+    }
+
+    /**
+     * A message waiting to be written.
+     */
+    private static final class Entry {
+        private byte level;
+        private String format;
+        private Object arg1;
+        private Object arg2;
+        private int args;
+        private Throwable throwable;
+    }
+}
@@ -0,0 +1,14 @@
+package me.sschaeffner.lfd;
+
+/**
+ * A block of commands sent to the bridge together (see LfdBridge.batch()).
+ *
+ * @author Simon Schäffner (simon.schaeffner@googlemail.com)
+ */
+public interface LfdBatch {
+    /**
+     * Sends the commands of this batch.
+     * @param bridge the bridge the batch is sent to
+     */
+    void apply(LfdBridge bridge);
+}
@@ -1,36 +1,99 @@
 package me.sschaeffner.lfd;
 
 import java.io.IOException;
-import java.nio.charset.Charset;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
 
 /**
  * The base class to use this API.
  *
  * @author Simon Schäffner (simon.schaeffner@googlemail.com)
  */
-public final class LfdBridge implements PacketReceiver {
+public final class LfdBridge {
 
-    /* logger */
+    /* default maximum amount of requests in flight */
+    private static final int DEFAULT_REQUEST_WINDOW = 16;
+
+    /* default request timeout in milliseconds */
+    private static final long DEFAULT_REQUEST_TIMEOUT = 5000;
+
+    /* default maximum age of states served from memory in milliseconds */
+    private static final long DEFAULT_STATE_TTL = 1000;
+
+    /* logger (LfdLogger.NONE when logging is disabled) */
     private final LfdLogger logger;
 
-    /* network handler */
-    private final NetworkHandler networkHandler;
+    /* receives the packets and connection events of both connections */
+    private final Connections connections;
+
+    /* connection to the bridge */
+    private final Transport transport;
+
+    /* connection used for commands (the query connection unless openCommandConnection() is called) */
+    private volatile Transport commandTransport;
+
+    /* establishes connections to the bridge */
+    private final SupervisedTransport.Connector connector;
+
+    /* runs this bridge's writes started by the scheduler, one at a time */
+    private final Executor sender;
+
+    /* requests waiting for an answer, correlated by their sequence */
+    private final RequestTable requests;
+
+    /* request timeout in milliseconds */
+    private volatile long requestTimeout;
+
+    /* rate limits and coalesces commands */
+    private final CommandQueue commandQueue;
 
-    /* packet sequence: each packet sent has to have a sequence increased by one */
-    private byte sequence;
+    /* latencies, traffic and other metrics */
+    private final Metrics metrics;
 
-    /* the type of request that was sent last and is still waiting for an answer */
-    private LfdRequest lastRequest;
+    /* the current thread's batch depth: while in a batch, packets are not flushed */
+    private final ThreadLocal<Batch> batch;
 
-    /* map of all groups available on the bridge */
-    private HashMap<Short, LfdGroup> groups;
+    /* views of received packets, only used by the thread receiving packets */
+    private final LightStatusView lightStatusView;
+    private final GroupListView groupListView;
+    private final GroupInfoView groupInfoView;
 
-    /* map of all lights available to the bridge */
-    private HashMap<Long, LfdLight> lights;
+    /* serves the lights' states from memory */
+    private final StateCache stateCache;
+
+    /* listeners notified about changes */
+    private final CopyOnWriteArrayList<LfdChangeListener> changeListeners;
+
+    /* polls the lights' status in the background */
+    private final Poller poller;
+
+    /* counts status answers, used to detect lights missing from an answer (receiving thread only) */
+    private int statusGeneration;
+
+    /* amount of changes detected in the last status answer */
+    private volatile int statusChanges;
+
+    /* lights added and removed by the status answer being handled (receiving thread only) */
+    private final ArrayList<LfdLight> addedLights;
+    private final ArrayList<LfdLight> removedLights;
+
+    /* the topology loaded last */
+    private volatile LfdTopology topology;
+
+    /* map of all groups available on the bridge (by id); copy-on-write, never modified once published */
+    private volatile LongObjectMap<LfdGroup> groups;
+
+    /* map of all lights available to the bridge (by address); copy-on-write, never modified once published */
+    private volatile LongObjectMap<LfdLight> lights;
 
     /**
      * Constructs a new LfdBridge object.
@@ -39,13 +102,55 @@ public final class LfdBridge implements PacketReceiver {
      * @param logger        a LfdLogger instance (can be null to disable logging)
      * @throws IOException  when the connection to the bridge cannot be established
      */
-    public LfdBridge(String host, LfdLogger logger) throws IOException {
-        this.logger = logger;
-        this.networkHandler = new NetworkHandler(this, host);
-        this.sequence = 0;
-        this.lastRequest = LfdRequest.NONE;
-        this.groups = new HashMap<>();
-        this.lights = new HashMap<>();
+    public LfdBridge(final String host, LfdLogger logger) throws IOException {
+        this(logger, receiver -> new NetworkHandler(receiver, host));
+    }
+
+    /**
+     * Constructs a new LfdBridge object using a non-blocking connection served by an event loop.
+     *
+     * Use this constructor when connecting to many bridges: all bridges sharing an event loop are
+     * served by its single thread.
+     *
+     * @param host          the IP address of the bridge
+     * @param logger        a LfdLogger instance (can be null to disable logging)
+     * @param eventLoop     the event loop serving the connection (e.g. LfdEventLoop.getShared())
+     * @throws IOException  when the connection to the bridge cannot be established
+     */
+    public LfdBridge(final String host, LfdLogger logger, final LfdEventLoop eventLoop) throws IOException {
+        this(logger, receiver -> new NioConnection(receiver, host, eventLoop));
+    }
+
+    /**
+     * Constructs a new LfdBridge object using connections established by the given connector.
+     *
+     * @param logger        a LfdLogger instance (can be null to disable logging)
+     * @param connector     establishes the connections to the bridge
+     * @throws IOException  when the connection to the bridge cannot be established
+     */
+    LfdBridge(LfdLogger logger, SupervisedTransport.Connector connector) throws IOException {
+        this.logger = logger != null ? logger : LfdLogger.NONE;
+        this.metrics = new Metrics();
+        this.sender = Scheduler.newSender();
+        this.requests = new RequestTable(DEFAULT_REQUEST_WINDOW, sender);
+        this.requestTimeout = DEFAULT_REQUEST_TIMEOUT;
+        this.commandQueue = new CommandQueue(this, metrics);
+        this.batch = ThreadLocal.withInitial(Batch::new);
+        this.lightStatusView = new LightStatusView();
+        this.groupListView = new GroupListView();
+        this.groupInfoView = new GroupInfoView();
+        this.changeListeners = new CopyOnWriteArrayList<>();
+        this.poller = new Poller(this);
+        this.stateCache = new StateCache(this, DEFAULT_STATE_TTL);
+        this.addedLights = new ArrayList<>();
+        this.removedLights = new ArrayList<>();
+        this.topology = LfdTopology.EMPTY;
+        this.groups = new LongObjectMap<>();
+        this.lights = new LongObjectMap<>();
+        this.connector = connector;
+        this.connections = new Connections();
+        this.transport = new SupervisedTransport(connections, connector, metrics);
+        this.commandTransport = transport;
     }
 
     /**
@@ -61,76 +166,557 @@ public final class LfdBridge implements PacketReceiver {
     /**
      * Requests the bridge to return the current status of all lights.
      */
-    public synchronized void requestAllLightsStatus() throws LfdException {
-        if (this.lastRequest != LfdRequest.NONE) {
-            throw new LfdException("cannot send new request while old request is still handled");
-        }
-        lastRequest = LfdRequest.ALL_LIGHTS_STATUS;
-        sendGlobalCommand(LfdOpCodes.ALL_LIGHTS_STATUS, new byte[]{(byte)0x01});
-        waitForAnswer();
+    public void requestAllLightsStatus() throws LfdException {
+        waitForAnswer(requestAllLightsStatusAsync());
+    }
+
+    /**
+     * Requests the bridge to return the current status of all lights.
+     *
+     * @param timeout time in milliseconds until the answer has to arrive
+     */
+    public void requestAllLightsStatus(long timeout) throws LfdException {
+        waitForAnswer(requestAllLightsStatusAsync(timeout));
+    }
+
+    /**
+     * Requests the bridge to return the current status of all lights without blocking.
+     *
+     * @return a future completing with the list of lights once the answer has been handled
+     */
+    public CompletableFuture<List<LfdLight>> requestAllLightsStatusAsync() {
+        return requestAllLightsStatusAsync(requestTimeout);
+    }
+
+    /**
+     * Requests the bridge to return the current status of all lights without blocking.
+     *
+     * @param timeout time in milliseconds until the answer has to arrive
+     * @return a future completing with the list of lights once the answer has been handled
+     */
+    public CompletableFuture<List<LfdLight>> requestAllLightsStatusAsync(long timeout) {
+        CompletableFuture<Void> answer = submitRequest(LfdRequest.ALL_LIGHTS_STATUS, LfdOpCodes.ALL_LIGHTS_STATUS, timeout,
+                sequence -> sendGlobalCommand(LfdOpCodes.ALL_LIGHTS_STATUS, sequence, 0x01, 1));
+        return cancelling(answer.thenApply(v -> getLights()), answer);
+    }
+
+    /**
+     * Returns a light's state, served from memory unless it is older than the state ttl (see
+     * setStateTtl). Expired states are requested from the bridge.
+     *
+     * @param address   the light's address
+     * @return the light's state
+     * @throws LfdException when the state cannot be requested or the light is unknown
+     */
+    public LfdLightState readLightState(long address) throws LfdException {
+        CompletableFuture<LfdLightState> state = readLightStateAsync(address, -1);
+        waitForAnswer(state);
+        return state.join();
+    }
+
+    /**
+     * Returns a light's state without blocking, served from memory unless it is older than maxAge.
+     *
+     * The state includes commands sent by this client which the bridge has not reported yet.
+     *
+     * @param address   the light's address
+     * @param maxAge    the maximum age of the state in milliseconds (negative: the state ttl)
+     * @return a future completing with the light's state
+     */
+    public CompletableFuture<LfdLightState> readLightStateAsync(long address, long maxAge) {
+        return stateCache.read(address, maxAge);
+    }
+
+    /**
+     * Sets the maximum age of the states returned by readLightState() before they are requested from
+     * the bridge again. The default is 1 second.
+     *
+     * @param ttl the maximum age in milliseconds
+     */
+    public void setStateTtl(long ttl) {
+        stateCache.setTtl(ttl);
+    }
+
+    /**
+     * Requests the bridge to return a list of all groups.
+     */
+    public void requestGroupList() throws LfdException {
+        waitForAnswer(requestGroupListAsync());
     }
 
     /**
      * Requests the bridge to return a list of all groups.
+     *
+     * @param timeout time in milliseconds until the answer has to arrive
+     */
+    public void requestGroupList(long timeout) throws LfdException {
+        waitForAnswer(requestGroupListAsync(timeout));
+    }
+
+    /**
+     * Requests the bridge to return a list of all groups without blocking.
+     *
+     * @return a future completing with the list of groups once the answer has been handled
+     */
+    public CompletableFuture<List<LfdGroup>> requestGroupListAsync() {
+        return requestGroupListAsync(requestTimeout);
+    }
+
+    /**
+     * Requests the bridge to return a list of all groups without blocking.
+     *
+     * @param timeout time in milliseconds until the answer has to arrive
+     * @return a future completing with the list of groups once the answer has been handled
+     */
+    public CompletableFuture<List<LfdGroup>> requestGroupListAsync(long timeout) {
+        CompletableFuture<Void> answer = submitRequest(LfdRequest.GROUP_LIST, LfdOpCodes.GROUP_LIST, timeout,
+                sequence -> sendGlobalCommand(LfdOpCodes.GROUP_LIST, sequence, 0, 0));
+        return cancelling(answer.thenApply(v -> getGroups()), answer);
+    }
+
+    /**
+     * Loads all groups and the lights belonging to them.
+     *
+     * The group list is requested first, followed by the information of all groups with at most
+     * parallelism requests in flight at the same time.
+     *
+     * @param parallelism maximum amount of group information requests in flight
+     * @return the loaded topology
+     */
+    public LfdTopology refreshTopology(int parallelism) throws LfdException {
+        CompletableFuture<LfdTopology> topology = refreshTopologyAsync(parallelism);
+        waitForAnswer(topology);
+        return topology.join();
+    }
+
+    /**
+     * Loads all groups and the lights belonging to them without blocking.
+     *
+     * @param parallelism maximum amount of group information requests in flight
+     * @return a future completing with the loaded topology
+     */
+    public CompletableFuture<LfdTopology> refreshTopologyAsync(int parallelism) {
+        return TopologyLoader.load(this, parallelism).thenApply(loaded -> {
+            topology = loaded;
+            return loaded;
+        });
+    }
+
+    /**
+     * Loads the lights, groups and group memberships stored in a file by saveTopologyCache(), so they
+     * can be used right away without asking the bridge.
+     *
+     * The lights' states are served as stored until the bridge reports them, but readLightState()
+     * requests them from the bridge. Only loads into a bridge that does not know any lights or groups
+     * yet, so call this right after constructing the bridge.
+     *
+     * The change listeners are notified about every loaded light and group membership as if the
+     * bridge had reported them, on the calling thread.
+     *
+     * @param file  the file
+     * @return whether the cache has been loaded (false when the file does not exist or lights or
+     *         groups are known already)
+     * @throws IOException when the file cannot be read or is not a valid cache file
+     */
+    public boolean loadTopologyCache(Path file) throws IOException {
+        TopologyCache.Content content = TopologyCache.read(this, file);
+        if (content == null) {
+            return false;
+        }
+        synchronized (this) {
+            if (lights.size() > 0 || groups.size() > 0) {
+                return false;
+            }
+            lights = content.lights;
+            groups = content.groups;
+            topology = content.topology;
+        }
+        logger.info("loaded {} lights from topology cache {}", content.lights.size(), file);
+        for (int i = 0; i < content.lights.capacity(); i++) {
+            LfdLight light = content.lights.valueAt(i);
+            if (light != null) {
+                fireLightAdded(light);
+            }
+        }
+        for (int i = 0; i < content.groups.capacity(); i++) {
+            LfdGroup group = content.groups.valueAt(i);
+            if (group != null) {
+                fireGroupMembershipChanged(group, LfdAddressSet.EMPTY, group.getLights());
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Stores the known lights, groups and group memberships in a file to be loaded by
+     * loadTopologyCache() on the next start.
+     *
+     * @param file  the file (replaced atomically when it exists)
+     * @throws IOException when the file cannot be written
+     */
+    public void saveTopologyCache(Path file) throws IOException {
+        TopologyCache.write(this, file);
+    }
+
+    /**
+     * Starts serving from a topology cache and reconciles it with the bridge in the background.
+     *
+     * The cache is loaded (see loadTopologyCache()) so lights and groups can be used right away. Then
+     * the status of all lights and the topology are requested from the bridge, changes are reported
+     * to the change listeners as usual, and the cache file is updated.
+     *
+     * When the file cannot be read, is corrupt or has been written in an older format, it is ignored
+     * and replaced once the topology has been loaded from the bridge.
+     *
+     * @param file          the cache file (does not need to exist)
+     * @param parallelism   maximum amount of group information requests in flight
+     * @return a future completing with the bridge's topology once the cache has been reconciled
      */
-    public synchronized void requestGroupList() throws LfdException {
-        if (this.lastRequest != LfdRequest.NONE) {
-            throw new LfdException("cannot send new request while old request is still handled");
+    public CompletableFuture<LfdTopology> startFromTopologyCache(final Path file, final int parallelism) {
+        try {
+            loadTopologyCache(file);
+        } catch (IOException e) {
+            logger.error("ignoring topology cache, loading the topology from the bridge", e);
+        }
+        return requestAllLightsStatusAsync()
+                .thenCompose(lights -> refreshTopologyAsync(parallelism))
+                .thenApply(loaded -> {
+                    try {
+                        saveTopologyCache(file);
+                    } catch (IOException e) {
+                        throw new CompletionException(e);
+                    }
+                    return loaded;
+                });
+    }
+
+    /**
+     * Returns the topology loaded last by refreshTopology() or loadTopologyCache().
+     * @return the latest topology (empty when none has been loaded yet)
+     */
+    public LfdTopology getTopology() {
+        return topology;
+    }
+
+    /**
+     * Sets the maximum amount of requests waiting for an answer at the same time (1-255).
+     *
+     * Further requests wait until an answer arrives or a request times out.
+     *
+     * @param window the maximum amount of requests in flight
+     */
+    public void setRequestWindow(int window) {
+        requests.setWindow(window);
+    }
+
+    /**
+     * Sets the time after which a request without answer fails, unless a request is given its own
+     * timeout. The default is 5 seconds.
+     *
+     * @param timeout the request timeout in milliseconds
+     */
+    public void setRequestTimeout(long timeout) {
+        if (timeout <= 0) {
+            throw new IllegalArgumentException("timeout must be positive");
+        }
+        this.requestTimeout = timeout;
+    }
+
+    /**
+     * Limits the rate at which commands (on/off, luminance, temperature, colour) are sent.
+     *
+     * While a command waits to be sent, a newer command of the same kind to the same light or group
+     * replaces it, so e.g. dragging a slider only sends the latest value. Commands sent using the
+     * ...Async methods are not limited. By default there are no limits.
+     *
+     * @param commandsPerSecond             maximum commands per second sent to the bridge (0: unlimited)
+     * @param commandsPerSecondPerTarget    maximum commands per second sent to a light or group (0: unlimited)
+     */
+    public void setCommandRate(int commandsPerSecond, int commandsPerSecondPerTarget) {
+        commandQueue.setRates(commandsPerSecond, commandsPerSecondPerTarget);
+    }
+
+    /**
+     * Sends the commands issued by the given block with as few writes as possible.
+     *
+     * Use this when changing many lights at once (e.g. applying a scene): instead of one write per
+     * light, the commands are collected in the connection's send buffer and written together. Batches
+     * may be nested; the commands are sent when the outermost batch ends at the latest.
+     *
+     * Only commands are held back. Requests waiting for an answer (e.g. requestAllLightsStatus() or the
+     * ...Async commands) are sent right away, and so is everything collected before them. The send
+     * buffer is shared by all threads, so a packet sent by another thread outside of a batch sends the
+     * collected commands as well. A batch therefore saves writes, but does not guarantee that its
+     * commands are sent in a single write.
+     *
+     * @param block the commands to send, e.g. b -> { light1.sendOnOff(true); light2.sendOnOff(true); }
+     */
+    public void batch(LfdBatch block) {
+        beginBatch();
+        try {
+            block.apply(this);
+        } finally {
+            endBatch();
         }
-        lastRequest = LfdRequest.GROUP_LIST;
-        sendGlobalCommand(LfdOpCodes.GROUP_LIST, new byte[0]);
-        waitForAnswer();
     }
 
-    void sendPacket(byte[] packet) {
-        networkHandler.send(packet);
+    void beginBatch() {
+        batch.get().depth++;
     }
 
-    void setLastRequest(LfdRequest lastRequest) {
-        this.lastRequest = lastRequest;
+    void endBatch() {
+        if (--batch.get().depth == 0) {
+            transport.flush();
+            Transport commandTransport = this.commandTransport;
+            if (commandTransport != transport) {
+                commandTransport.flush();
+            }
+        }
+    }
+
+    /**
+     * Opens a second connection to the bridge used for commands only.
+     *
+     * Commands then never wait behind large answers (e.g. the status of all lights) on the same
+     * connection, so polling does not delay interactive commands. Both connections reconnect on
+     * their own.
+     *
+     * @throws IOException when the connection cannot be established
+     */
+    public synchronized void openCommandConnection() throws IOException {
+        if (commandTransport == transport) {
+            commandTransport = new SupervisedTransport(connections, connector, metrics);
+        }
+    }
+
+    /**
+     * Returns whether the bridge is connected at the moment.
+     *
+     * A lost connection is established again automatically; in the meantime requests fail right
+     * away and commands are dropped.
+     *
+     * @return whether the bridge is connected
+     */
+    public boolean isConnected() {
+        return transport.isConnected() && commandTransport.isConnected();
+    }
+
+    /**
+     * Encodes a packet into the connection's send buffer and sends it unless the current thread is in
+     * a batch (requests are sent by submitRequest() regardless).
+     *
+     * @param flag          PacketEncoder.FLAG_LIGHT or PacketEncoder.FLAG_GROUP
+     * @param command       the command's opcode
+     * @param sequence      the packet's sequence
+     * @param target        the light's address or the group's id
+     * @param targetLength  length of the target (0 or PacketEncoder.TARGET_LENGTH)
+     * @param data          the command's data (little endian)
+     * @param dataLength    length of the command's data (0-8)
+     */
+    void sendPacket(byte flag, byte command, byte sequence, long target, int targetLength, long data, int dataLength) {
+        Transport transport = transportFor(command);
+        transport.write(flag, command, sequence, target, targetLength, data, dataLength);
+        if (batch.get().depth == 0) {
+            transport.flush();
+        }
+    }
+
+    /**
+     * Returns the connection used for packets with the given opcode.
+     */
+    private Transport transportFor(byte command) {
+        switch (command) {
+            case LfdOpCodes.ALL_LIGHTS_STATUS:
+            case LfdOpCodes.GROUP_LIST:
+            case LfdOpCodes.GROUP_INFO:
+                return transport;
+            default:
+                return commandTransport;
+        }
+    }
+
+    CommandQueue getCommandQueue() {
+        return commandQueue;
     }
 
     byte getNextSequence() {
-        return sequence++;
+        return requests.nextSequence();
     }
 
-    private void sendGlobalCommand(byte command, byte[] data) {
-        byte[] packet = new byte[8 + data.length];
+    /**
+     * Registers a request with the default timeout and sends it as soon as it has been admitted to the
+     * request window.
+     *
+     * @param type      the type of request
+     * @param opcode    the request's opcode
+     * @param sender    sends the request with the sequence it has been assigned
+     * @return a future completing when the answer has been handled
+     */
+    CompletableFuture<Void> submitRequest(LfdRequest type, byte opcode, RequestSender sender) {
+        return submitRequest(type, opcode, requestTimeout, sender);
+    }
 
-        int length = 6 + data.length;
-        byte lengthHi = (byte)((length >> 8) & 0xFF);
-        byte lengthLo = (byte)(length & 0xFF);
+    /**
+     * Registers a request and sends it as soon as it has been admitted to the request window.
+     *
+     * The request fails when its answer has not arrived within the timeout, no matter how long it
+     * waited for a slot. Cancelling the returned future frees the request's slot right away.
+     *
+     * @param type      the type of request
+     * @param opcode    the request's opcode
+     * @param timeout   time in milliseconds until the answer has to arrive
+     * @param sender    sends the request with the sequence it has been assigned
+     * @return a future completing when the answer has been handled
+     */
+    CompletableFuture<Void> submitRequest(LfdRequest type, final byte opcode, long timeout, final RequestSender sender) {
+        if (timeout <= 0) {
+            throw new IllegalArgumentException("timeout must be positive");
+        }
+        final CompletableFuture<PendingRequest> registered = requests.register(type, opcode, timeout);
+        final CompletableFuture<Void> answer = new CompletableFuture<>();
+        registered.whenComplete((request, e) -> {
+            if (e != null) {
+                answer.completeExceptionally(e);
+                return;
+            }
+            if (answer.isDone()) {
+                /* cancelled while waiting for a slot, the slot is freed by cancel() */
+                return;
+            }
+            Transport requestTransport = transportFor(opcode);
+            if (!requestTransport.isConnected()) {
+                /* fail right away instead of waiting for the timeout */
+                if (requests.remove(request)) {
+                    request.fail(new LfdException("not connected to bridge"));
+                }
+            } else {
+                /* set before sending: the connection may be lost before send() returns */
+                request.transport = requestTransport;
+                sender.send(request.sequence);
+                /* never held back by a batch: the caller may be waiting for the answer */
+                requestTransport.flush();
+            }
+            request.future.whenComplete((v, e2) -> {
+                if (e2 != null) {
+                    answer.completeExceptionally(e2);
+                } else {
+                    answer.complete(null);
+                }
+            });
+        });
+        answer.whenComplete((v, e) -> {
+            if (answer.isCancelled()) {
+                requests.cancel(registered);
+            }
+        });
+        return answer;
+    }
 
-        byte flag = 0x02;
+    /**
+     * Makes cancelling a future derived from a request's future cancel the request as well.
+     *
+     * @param derived   the derived future
+     * @param answer    the request's future
+     * @return the derived future
+     */
+    static <T> CompletableFuture<T> cancelling(CompletableFuture<T> derived, final CompletableFuture<?> answer) {
+        derived.whenComplete((v, e) -> {
+            if (derived.isCancelled()) {
+                answer.cancel(false);
+            }
+        });
+        return derived;
+    }
 
-        byte sequence = getNextSequence();
+    /**
+     * Returns the amount of requests that failed because their answer did not arrive in time.
+     * @return the amount of timed out requests since the bridge has been constructed
+     */
+    public long getTimeoutCount() {
+        return requests.getTimeouts();
+    }
 
-        packet[0] = lengthLo;
-        packet[1] = lengthHi;
-        packet[2] = flag;
-        packet[3] = command;
-        packet[4] = (byte) 0x00;
-        packet[5] = (byte) 0x00;
-        packet[6] = (byte) 0x07;
-        packet[7] = sequence;
-        System.arraycopy(data, 0, packet, 8, data.length);
+    /**
+     * Returns a snapshot of the bridge's metrics: round trip times by request type, traffic, dropped
+     * frames, coalesced and rate limited commands, reconnects, timeouts, requests in flight and the
+     * time it takes to handle status answers.
+     *
+     * Recording the metrics is cheap enough to be always on; taking a snapshot copies all histograms,
+     * so scrape them periodically rather than on every request.
+     *
+     * @return a new snapshot
+     */
+    public LfdMetricsSnapshot getMetrics() {
+        return metrics.snapshot(requests);
+    }
 
-        sendPacket(packet);
+    private void sendGlobalCommand(byte command, byte sequence, long data, int dataLength) {
+        sendPacket(PacketEncoder.FLAG_GROUP, command, sequence, 0, 0, data, dataLength);
     }
 
-    synchronized void waitForAnswer() {
+    /**
+     * Waits until the answer to a request has been handled.
+     *
+     * @param answer        the future of the request to wait for
+     * @throws LfdException when the request fails, times out or the thread is interrupted
+     */
+    static void waitForAnswer(Future<?> answer) throws LfdException {
         try {
-            this.wait();
-            lastRequest = LfdRequest.NONE;
+            answer.get();
         } catch (InterruptedException e) {
-            e.printStackTrace();
+            /* nobody waits for the answer anymore: free the request's slot */
+            answer.cancel(false);
+            Thread.currentThread().interrupt();
+            throw new LfdException("interrupted while waiting for answer");
+        } catch (CancellationException e) {
+            throw new LfdException("request cancelled");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof LfdException) {
+                throw (LfdException) e.getCause();
+            }
+            throw new LfdException("request failed: " + e.getCause());
         }
     }
 
-    @Override
-    public void onPacketReceive(byte[] packet) {
+    /**
+     * Handles a packet received on any of the connections.
+     *
+     * @param packet a buffer holding the packet (without length prefix)
+     */
+    void onPacketReceive(ByteBuffer packet) {
+        int base = packet.position();
+        if (packet.remaining() < 6) {
+            metrics.frameTooShort();
+            return;
+        }
+
+        /* the answer echoes the request's opcode and sequence */
+        byte sequence = packet.get(base + 5);
+        PendingRequest request = requests.take(sequence, packet.get(base + 1));
+        if (request == null) {
+            if (requests.isUntracked(sequence)) {
+                /* acknowledgement of a command nobody waits for */
+                return;
+            }
+            metrics.frameUnmatched();
+            if (logger.isDebugEnabled()) {
+                logger.debug("dropped unexpected packet {}", PacketView.toHex(packet));
+            }
+            return;
+        }
+        long now = System.nanoTime();
+        metrics.recordRoundTrip(request.type, now - request.sentTime);
+        if (logger.isDebugEnabled()) {
+            logger.debug("answer to {}: {}", request, PacketView.toHex(packet));
+        }
+
+        if (packet.remaining() > 6 && packet.get(base + 6) != 0x00) {
+            request.fail(new LfdException("bridge answered " + request + " with error code 0x" + String.format("%02x", packet.get(base + 6))));
+            return;
+        }
+
         try {
-            switch (lastRequest) {
+            switch (request.type) {
                 case GROUP_LIST:
                     onGroupListPacket(packet);
                     break;
@@ -139,142 +725,260 @@ public final class LfdBridge implements PacketReceiver {
                     break;
                 case ALL_LIGHTS_STATUS:
                     onAllLightsStatusPacket(packet);
+                    metrics.recordStatusParseTime(System.nanoTime() - now);
+                    break;
+                case COMMAND:
+                    /* acknowledgement without further data */
                     break;
-                case NONE : default:
-                    return;
             }
+            request.complete();
         } catch (LfdException e) {
-            logger.error(e.getMessage() + " " + e.getCause());
+            metrics.frameUnparsable();
+            logger.error(e.getMessage(), e);
+            request.fail(e);
         }
     }
 
-    @Override
-    public boolean toBeNotifiedOnPacketReceived() {
-        return lastRequest != LfdRequest.NONE;
+    private void onGroupListPacket(ByteBuffer packet) throws LfdException {
+        GroupListView view = groupListView;
+        view.wrapChecked(packet);
+
+        LongObjectMap<LfdGroup> newGroups = new LongObjectMap<>(view.count());
+
+        for (int i = 0; i < view.count(); i++) {
+            view.select(i);
+            short id = view.id();
+
+            LfdGroup group = groups.get(id);
+            if (group == null) {
+                group = new LfdGroup(this, id);
+            }
+            if (!view.nameEquals(group.getNameAscii())) {
+                view.copyName(group.getNameAscii());
+                group.setName(PacketView.decodeName(group.getNameAscii()));
+            }
+            newGroups.put(id, group);
+        }
+        groups = newGroups;
     }
 
-    private void onGroupListPacket(byte[] packet) throws LfdException {
-        if (packet.length < 9) {
-            throw new LfdException("received packet but too short for a group list packet");
+    private void onGroupInfoPacket(ByteBuffer packet) throws LfdException {
+        GroupInfoView view = groupInfoView;
+        view.wrapChecked(packet);
+        short id = view.id();
+
+        LfdGroup group = groups.get(id);
+        if (group == null) {
+            group = new LfdGroup(this, id);
+        }
+        if (!view.nameEquals(group.getNameAscii())) {
+            view.copyName(group.getNameAscii());
+            group.setName(PacketView.decodeName(group.getNameAscii()));
         }
 
-        int groupAmount = (packet[8] << 8) + packet[7];
+        LfdAddressSet oldLights = group.getLights();
+        if (!sameLights(view, oldLights)) {
+            long[] addresses = new long[view.count()];
+            for (int i = 0; i < addresses.length; i++) {
+                addresses[i] = view.address(i);
+            }
+            LfdAddressSet newLights = LfdAddressSet.of(addresses, addresses.length);
+            group.setLights(newLights);
+            fireGroupMembershipChanged(group, oldLights, newLights);
+        }
+    }
 
-        if (packet.length < 9 + (18 * groupAmount)) {
-            throw new LfdException("corrupt group list packet: too short");
+    private static boolean sameLights(GroupInfoView view, LfdAddressSet lights) {
+        if (view.count() != lights.size()) {
+            return false;
+        }
+        for (int i = 0; i < view.count(); i++) {
+            if (!lights.contains(view.address(i))) {
+                return false;
+            }
         }
+        return true;
+    }
 
-        HashMap<Short, LfdGroup> newGroups = new HashMap<>();
+    private void onAllLightsStatusPacket(ByteBuffer packet) throws LfdException {
+        LightStatusView view = lightStatusView;
+        view.wrapChecked(packet);
 
-        for (int i = 0; i < groupAmount; i++) {
-            int pos = 9 + (18 * i);
+        int generation = ++statusGeneration;
+        long now = System.nanoTime();
+        int changes = 0;
+        int seen = 0;
+        LongObjectMap<LfdLight> currentLights = lights;
+        LongObjectMap<LfdLight> newLights = null;
+        ArrayList<LfdLight> added = addedLights;
 
-            short id = (short) ((packet[pos + 1] << 8) + packet[pos]);
+        for (int i = 0; i < view.count(); i++) {
+            view.select(i);
+            long address = view.address();
 
-            byte[] nameAscii = new byte[16];
-            System.arraycopy(packet, pos + 2, nameAscii, 0, 16);
-            String name = new String(nameAscii, Charset.forName("ASCII")).trim();
+            LfdLight light = currentLights.get(address);
+            if (light == null && newLights != null) {
+                light = newLights.get(address);
+            }
+            if (light == null) {
+                if (newLights == null) {
+                    newLights = currentLights.copy(view.count());
+                }
+                light = new LfdLight(this, address);
+                newLights.put(address, light);
+                added.add(light);
+            }
+            if (light.statusGeneration != generation) {
+                light.statusGeneration = generation;
+                seen++;
+            }
 
-            if (groups.containsKey(id)) {
-                LfdGroup existingGroup = groups.get(id);
-                existingGroup.setName(name);
-                newGroups.put(id, existingGroup);
+            /* only publish a new state when it actually changed */
+            boolean on = view.on();
+            byte luminance = view.luminance();
+            short temperature = view.temperature();
+            byte r = view.r();
+            byte g = view.g();
+            byte b = view.b();
+            LfdLightState oldState = light.getConfirmedState();
+            if (!oldState.matches(on, luminance, temperature, r, g, b)) {
+                LfdLightState newState = new LfdLightState(on, luminance, temperature, r, g, b);
+                light.setConfirmedState(newState, now);
+                changes++;
+                if (oldState != LfdLightState.UNKNOWN) {
+                    fireLightChanged(light, oldState, newState);
+                }
             } else {
-                newGroups.put(id, new LfdGroup(this, id, name));
+                light.confirmState(now);
             }
-            groups = newGroups;
-        }
-    }
 
-    private void onGroupInfoPacket(byte[] packet) throws LfdException {
-        if (packet.length < 26) {
-            throw new LfdException("received packet but too short for a group info packet");
+            /* names rarely change: only decode them when they do */
+            if (!view.nameEquals(light.getNameAscii())) {
+                view.copyName(light.getNameAscii());
+                light.setName(PacketView.decodeName(light.getNameAscii()));
+            }
         }
-        short id = (short) ((packet[8] << 8) + packet[7]);
-
-        byte[] nameAscii = new byte[16];
-        System.arraycopy(packet, 9, nameAscii, 0, 16);
-        String name = new String(nameAscii, Charset.forName("ASCII")).trim();
-
-        byte amountOfLights = packet[25];
 
-        if (packet.length < 26 + (18*amountOfLights)) {
-            throw new LfdException("corrupt group info packet: too short");
+        /* lights missing from the answer have been removed from the bridge */
+        LongObjectMap<LfdLight> published = newLights != null ? newLights : currentLights;
+        ArrayList<LfdLight> removed = removedLights;
+        if (published.size() > seen) {
+            for (int i = 0; i < published.capacity(); i++) {
+                LfdLight light = published.valueAt(i);
+                if (light != null && light.statusGeneration != generation) {
+                    removed.add(light);
+                }
+            }
+            if (newLights == null) {
+                newLights = currentLights.copy(0);
+            }
+            for (LfdLight light : removed) {
+                newLights.remove(light.getAddress());
+            }
         }
 
-        HashSet<Long> lights = new HashSet<>();
-        for (int i = 0; i < amountOfLights; i++) {
-            int pos = 26 + (18 * i);
-            long address =  ((((long) (packet[pos    ] & 0xff)))      ) +
-                            ((((long) (packet[pos + 1] & 0xff))) <<  8) +
-                            ((((long) (packet[pos + 2] & 0xff))) << 16) +
-                            ((((long) (packet[pos + 3] & 0xff))) << 24) +
-                            ((((long) (packet[pos + 4] & 0xff))) << 32) +
-                            ((((long) (packet[pos + 5] & 0xff))) << 40) +
-                            ((((long) (packet[pos + 6] & 0xff))) << 48) +
-                            ((((long) (packet[pos + 7] & 0xff))) << 56);
-            lights.add(address);
+        if (newLights != null) {
+            lights = newLights;
         }
 
-        LfdGroup group;
-        if (groups.containsKey(id)) {
-            group = groups.get(id);
-        } else {
-            group = new LfdGroup(this, id, name);
+        changes += added.size() + removed.size();
+        for (LfdLight light : added) {
+            fireLightAdded(light);
+        }
+        for (LfdLight light : removed) {
+            fireLightRemoved(light);
         }
-        group.setName(name);
-        group.setLights(lights);
+        added.clear();
+        removed.clear();
+        statusChanges = changes;
     }
 
-    private void onAllLightsStatusPacket(byte[] packet) throws LfdException {
-        if (packet.length < 9) {
-            throw new LfdException("received packet but too short for all lights status packet");
-        }
 
-        int numberOfLights = (packet[8] << 8) + packet[7];
+    /**
+     * Registers a listener to be notified about changes detected in the bridge's answers.
+     *
+     * @param listener the listener
+     */
+    public void addChangeListener(LfdChangeListener listener) {
+        changeListeners.add(listener);
+    }
 
-        if (packet.length < 9 + (50*numberOfLights)) {
-            throw new LfdException("corrupt all lights status packet: too short");
-        }
+    /**
+     * Removes a listener registered with addChangeListener().
+     *
+     * @param listener the listener
+     */
+    public void removeChangeListener(LfdChangeListener listener) {
+        changeListeners.remove(listener);
+    }
 
-        for (int i = 0; i < numberOfLights; i++) {
-            int pos = 9 + (50 * i);
+    /**
+     * Starts polling the status of all lights in the background.
+     *
+     * The interval adapts to the amount of changes: after a poll detected changes the next poll
+     * follows after minInterval, otherwise the interval doubles up to maxInterval. Changes are
+     * reported to the registered LfdChangeListeners.
+     *
+     * @param minInterval   the shortest interval between two polls in milliseconds
+     * @param maxInterval   the longest interval between two polls in milliseconds
+     * @param groupInterval the interval between polls of all groups' lights in milliseconds (0: never)
+     */
+    public void startPolling(long minInterval, long maxInterval, long groupInterval) {
+        poller.start(minInterval, maxInterval, groupInterval);
+    }
 
-            long address =  ((((long) (packet[pos + 2] & 0xff)))      ) +
-                            ((((long) (packet[pos + 3] & 0xff))) <<  8) +
-                            ((((long) (packet[pos + 4] & 0xff))) << 16) +
-                            ((((long) (packet[pos + 5] & 0xff))) << 24) +
-                            ((((long) (packet[pos + 6] & 0xff))) << 32) +
-                            ((((long) (packet[pos + 7] & 0xff))) << 40) +
-                            ((((long) (packet[pos + 8] & 0xff))) << 48) +
-                            ((((long) (packet[pos + 9] & 0xff))) << 56);
+    /**
+     * Stops polling started with startPolling().
+     */
+    public void stopPolling() {
+        poller.stop();
+    }
 
-            boolean on = packet[pos + 18] == (byte)0x01;
-            byte luminance = packet[pos + 19];
-            short temperature = (short)((packet[pos + 21] << 8) + packet[pos + 20]);
-            byte r = packet[pos + 22];
-            byte g = packet[pos + 23];
-            byte b = packet[pos + 24];
-            byte h = packet[pos + 25];
-            byte[] nameAscii = new byte[16];
-            System.arraycopy(packet, pos + 26, nameAscii, 0, 16);
-            String name = new String(nameAscii, Charset.forName("ASCII")).trim();
+    /**
+     * Returns the amount of changes detected in the last status answer.
+     * @return amount of lights added, changed or removed
+     */
+    int getStatusChanges() {
+        return statusChanges;
+    }
 
-            LfdLight light;
-            if (lights.containsKey(address)) {
-                light = lights.get(address);
-            } else {
-                light = new LfdLight(this, address);
-                lights.put(address, light);
+    private void fireLightAdded(LfdLight light) {
+        for (LfdChangeListener listener : changeListeners) {
+            try {
+                listener.onLightAdded(light);
+            } catch (RuntimeException e) {
+                logger.error("change listener failed", e);
             }
+        }
+    }
 
-            light.setOn(on);
-            light.setLuminance(luminance);
-            light.setTemperature(temperature);
-            light.setR(r);
-            light.setG(g);
-            light.setB(b);
-            light.setName(name);
+    private void fireLightChanged(LfdLight light, LfdLightState oldState, LfdLightState newState) {
+        for (LfdChangeListener listener : changeListeners) {
+            try {
+                listener.onLightChanged(light, oldState, newState);
+            } catch (RuntimeException e) {
+                logger.error("change listener failed", e);
+            }
+        }
+    }
+
+    private void fireLightRemoved(LfdLight light) {
+        for (LfdChangeListener listener : changeListeners) {
+            try {
+                listener.onLightRemoved(light);
+            } catch (RuntimeException e) {
+                logger.error("change listener failed", e);
+            }
+        }
+    }
+
+    private void fireGroupMembershipChanged(LfdGroup group, LfdAddressSet oldLights, LfdAddressSet newLights) {
+        for (LfdChangeListener listener : changeListeners) {
+            try {
+                listener.onGroupMembershipChanged(group, oldLights, newLights);
+            } catch (RuntimeException e) {
+                logger.error("change listener failed", e);
+            }
         }
     }
 
@@ -286,7 +990,19 @@ public final class LfdBridge implements PacketReceiver {
      * @return a list of groups known to the bridge
      */
     public List<LfdGroup> getGroups() {
-        return new ArrayList<>(groups.values());
+        return groups.values();
+    }
+
+    /**
+     * Returns the group with the given id.
+     *
+     * Make sure to request the list before (requestGroupList()).
+     *
+     * @param id    the group's id
+     * @return the group or null when it is not known
+     */
+    public LfdGroup getGroup(short id) {
+        return groups.get(id);
     }
 
     /**
@@ -297,19 +1013,76 @@ public final class LfdBridge implements PacketReceiver {
      * @return a list of lights known registered with the bridge
      */
     public List<LfdLight> getLights() {
-        return new ArrayList<>(lights.values());
+        return lights.values();
     }
 
-    LfdRequest getLastRequest() {
-        return lastRequest;
+    /**
+     * Returns the light with the given address.
+     *
+     * Make sure to request the list before (requestAllLightsStatus()).
+     *
+     * @param address   the light's address
+     * @return the light or null when it is not known
+     */
+    public LfdLight getLight(long address) {
+        return lights.get(address);
     }
 
     LfdLogger getLogger() {
         return logger;
     }
 
+    Executor getSender() {
+        return sender;
+    }
+
     public void shutdown() throws IOException {
-        networkHandler.shutdown();
+        poller.stop();
+        transport.shutdown();
+        if (commandTransport != transport) {
+            commandTransport.shutdown();
+        }
+        requests.failAll(new LfdException("bridge shut down"));
+    }
+
+    /**
+     * A thread's batch state.
+     */
+    private static final class Batch {
+        private int depth;
+    }
+
+    /**
+     * Receives the packets and connection events of the query and the command connection. Losing one
+     * connection only fails the requests sent over it.
+     */
+    private final class Connections implements SupervisedTransport.Listener {
+
+        @Override
+        public void onPacketReceive(ByteBuffer packet) {
+            LfdBridge.this.onPacketReceive(packet);
+        }
+
+        @Override
+        public void onConnectionLost(SupervisedTransport lost, IOException cause) {
+            logger.error(name(lost) + " to bridge lost", cause);
+            requests.failSentOver(lost, new LfdException(name(lost) + " to bridge lost", cause));
+        }
+
+        @Override
+        public void onConnectionRestored(SupervisedTransport restored) {
+            logger.info("{} to bridge restored", name(restored));
+        }
+
+        @Override
+        public void onConnectionFailed(SupervisedTransport failed, IOException cause) {
+            logger.error(name(failed) + " to bridge failed for good, not reconnecting", cause);
+            requests.failSentOver(failed, new LfdException(name(failed) + " to bridge failed", cause));
+        }
+
+        private String name(SupervisedTransport connection) {
+            return connection == transport ? "connection" : "command connection";
+        }
     }
 
     /* convenience methods */
@@ -0,0 +1,189 @@
+package me.sschaeffner.lfd;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Sets values on many lights at once using as few commands as possible.
+ *
+ * Every value is planned separately (on/off, luminance, temperature, colour): when all lights of a
+ * group are to be set to the same value, a single group command replaces the commands to the single
+ * lights. Lights not covered by a group get their own command. Group membership is taken from the
+ * groups known to the lights' bridges (see LfdBridge.refreshTopology()).
+ *
+ * @author Simon Schäffner (simon.schaeffner@googlemail.com)
+ */
+public final class LfdBulkUpdate {
+
+    /* the channels in the order they are sent */
+    private static final int[] CHANNELS = {LfdFrame.ON, LfdFrame.LUMINANCE, LfdFrame.TEMPERATURE, LfdFrame.COLOUR};
+
+    /* the lights to update */
+    private final List<LfdLight> lights;
+
+    /* the values to set, indexed like the lights */
+    private final List<LfdFrame> frames;
+
+    /* index of every light (by address) */
+    private final LongObjectMap<Integer> indices;
+
+    /**
+     * Constructs a new, empty LfdBulkUpdate.
+     */
+    public LfdBulkUpdate() {
+        this.lights = new ArrayList<>();
+        this.frames = new ArrayList<>();
+        this.indices = new LongObjectMap<>();
+    }
+
+    /**
+     * Returns the values to set on a light, e.g. update.set(light).setColour(255, 0, 0).
+     *
+     * @param light the light
+     * @return the light's values
+     */
+    public LfdFrame set(LfdLight light) {
+        Integer index = indices.get(light.getAddress());
+        if (index != null) {
+            return frames.get(index);
+        }
+        LfdFrame frame = new LfdFrame();
+        indices.put(light.getAddress(), lights.size());
+        lights.add(light);
+        frames.add(frame);
+        return frame;
+    }
+
+    /**
+     * Sends the update in a single batch per bridge.
+     *
+     * @param time          the fade time in 1/10s
+     * @param onlyChanges   whether to skip lights whose known state already has the value
+     * @return the amount of commands sent
+     */
+    public int send(short time, boolean onlyChanges) {
+        List<LfdBridge> bridges = new ArrayList<>();
+        for (LfdLight light : lights) {
+            if (!bridges.contains(light.lfdBridge)) {
+                bridges.add(light.lfdBridge);
+            }
+        }
+        for (LfdBridge bridge : bridges) {
+            bridge.beginBatch();
+        }
+        try {
+            List<LfdGroup> groups = candidateGroups(bridges);
+            boolean[] pending = new boolean[lights.size()];
+            int sent = 0;
+            for (int channel : CHANNELS) {
+                sent += send(channel, groups, pending, time, onlyChanges);
+            }
+            return sent;
+        } finally {
+            for (LfdBridge bridge : bridges) {
+                bridge.endBatch();
+            }
+        }
+    }
+
+    /**
+     * Sends a single channel.
+     *
+     * @param channel       the channel
+     * @param groups        groups that may be used, largest first
+     * @param pending       scratch array for the lights still to be sent the channel's value
+     * @param time          the fade time in 1/10s
+     * @param onlyChanges   whether to skip lights whose known state already has the value
+     * @return the amount of commands sent
+     */
+    private int send(int channel, List<LfdGroup> groups, boolean[] pending, short time, boolean onlyChanges) {
+        int remaining = 0;
+        for (int i = 0; i < pending.length; i++) {
+            LfdFrame frame = frames.get(i);
+            pending[i] = frame.has(channel)
+                    && (!onlyChanges || LfdFrame.value(channel, lights.get(i).getState()) != frame.value(channel));
+            if (pending[i]) {
+                remaining++;
+            }
+        }
+
+        int sent = 0;
+        for (LfdGroup group : groups) {
+            if (remaining < 2) {
+                break;
+            }
+            int covered = coveredBy(group, channel, pending);
+            if (covered < 2) {
+                continue;
+            }
+            LfdAddressSet members = group.getLights();
+            frames.get(indices.get(members.get(0))).send(group, channel, time);
+            sent++;
+            for (int m = 0; m < members.size(); m++) {
+                pending[indices.get(members.get(m))] = false;
+            }
+            remaining -= covered;
+        }
+
+        for (int i = 0; i < pending.length; i++) {
+            if (pending[i]) {
+                frames.get(i).send(lights.get(i), channel, time);
+                sent++;
+            }
+        }
+        return sent;
+    }
+
+    /**
+     * Returns how many pending lights a group command would cover, or 0 when the group cannot be used:
+     * every member has to be part of this update with the same value. Members already having the
+     * value do not prevent using the group.
+     */
+    private int coveredBy(LfdGroup group, int channel, boolean[] pending) {
+        LfdAddressSet members = group.getLights();
+        long value = 0;
+        int covered = 0;
+        for (int m = 0; m < members.size(); m++) {
+            Integer index = indices.get(members.get(m));
+            if (index == null || lights.get(index).lfdBridge != group.lfdBridge) {
+                return 0;
+            }
+            LfdFrame frame = frames.get(index);
+            if (!frame.has(channel)) {
+                return 0;
+            }
+            if (m == 0) {
+                value = frame.value(channel);
+            } else if (frame.value(channel) != value) {
+                return 0;
+            }
+            if (pending[index]) {
+                covered++;
+            }
+        }
+        return covered;
+    }
+
+    /**
+     * Returns the groups of the given bridges with at least two lights, largest first.
+     */
+    private static List<LfdGroup> candidateGroups(List<LfdBridge> bridges) {
+        List<LfdGroup> groups = new ArrayList<>();
+        for (LfdBridge bridge : bridges) {
+            for (LfdGroup group : bridge.getGroups()) {
+                if (group.getLights().size() >= 2) {
+                    groups.add(group);
+                }
+            }
+        }
+        Collections.sort(groups, new Comparator<LfdGroup>() {
+            @Override
+            public int compare(LfdGroup g1, LfdGroup g2) {
+                return Integer.compare(g2.getLights().size(), g1.getLights().size());
+            }
+        });
+        return groups;
+    }
+}
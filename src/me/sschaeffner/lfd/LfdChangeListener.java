@@ -0,0 +1,45 @@
+package me.sschaeffner.lfd;
+
+/**
+ * Listener notified about changes detected in the bridge's answers.
+ *
+ * Only actual changes are reported: an answer that does not change anything does not cause any
+ * calls. All methods are called on the thread receiving the bridge's answers and have to return
+ * quickly; hand longer work off to another thread.
+ *
+ * @author Simon Schäffner (simon.schaeffner@googlemail.com)
+ */
+public interface LfdChangeListener {
+
+    /**
+     * Called when a light appears in a status answer for the first time.
+     * @param light the new light
+     */
+    default void onLightAdded(LfdLight light) {
+    }
+
+    /**
+     * Called when the state of a light changed.
+     * @param light     the light
+     * @param oldState  the light's previous state
+     * @param newState  the light's new state
+     */
+    default void onLightChanged(LfdLight light, LfdLightState oldState, LfdLightState newState) {
+    }
+
+    /**
+     * Called when a light is missing from a status answer.
+     * @param light the removed light
+     */
+    default void onLightRemoved(LfdLight light) {
+    }
+
+    /**
+     * Called when the lights belonging to a group changed.
+     * @param group     the group
+     * @param oldLights the lights previously belonging to the group
+     * @param newLights the lights now belonging to the group
+     */
+    default void onGroupMembershipChanged(LfdGroup group, LfdAddressSet oldLights, LfdAddressSet newLights) {
+    }
+}
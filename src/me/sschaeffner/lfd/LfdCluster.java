@@ -0,0 +1,253 @@
+package me.sschaeffner.lfd;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Multiple bridges used as one.
+ *
+ * The cluster routes every light address to the bridge reporting it, so lights can be looked up and
+ * controlled without knowing which bridge they are connected to. Requests to all bridges are sent
+ * concurrently.
+ *
+ * @author Simon Schäffner (simon.schaeffner@googlemail.com)
+ */
+public final class LfdCluster {
+
+    /* logger passed to bridges connected by the cluster */
+    private final LfdLogger logger;
+
+    /* the cluster's bridges */
+    private final CopyOnWriteArrayList<LfdBridge> bridges;
+
+    /* the bridge of every known light (by address); copy-on-write, never modified once published */
+    private volatile LongObjectMap<LfdBridge> routes;
+
+    /* whether lights have been added or removed since the routes have been built */
+    private volatile boolean routesStale;
+
+    /* marks the routes stale when a bridge reports new or removed lights */
+    private final LfdChangeListener routeListener;
+
+    /**
+     * Constructs a new, empty LfdCluster.
+     *
+     * @param logger logger passed to the bridges connected by connect() (may be null)
+     */
+    public LfdCluster(LfdLogger logger) {
+        this.logger = logger;
+        this.bridges = new CopyOnWriteArrayList<>();
+        this.routes = new LongObjectMap<>();
+        this.routeListener = new LfdChangeListener() {
+            @Override
+            public void onLightAdded(LfdLight light) {
+                routesStale = true;
+            }
+
+            @Override
+            public void onLightRemoved(LfdLight light) {
+                routesStale = true;
+            }
+        };
+    }
+
+    /**
+     * Constructs a new, empty LfdCluster without a logger.
+     */
+    public LfdCluster() {
+        this(null);
+    }
+
+    /**
+     * Connects to a bridge and adds it to the cluster. All bridges connected this way share the
+     * JVM's LfdEventLoop.
+     *
+     * @param host  IP address of the bridge
+     * @return the connected bridge
+     * @throws IOException when the connection cannot be established
+     */
+    public LfdBridge connect(String host) throws IOException {
+        LfdBridge bridge = new LfdBridge(host, logger, LfdEventLoop.getShared());
+        addBridge(bridge);
+        return bridge;
+    }
+
+    /**
+     * Adds a connected bridge to the cluster.
+     *
+     * @param bridge the bridge
+     */
+    public void addBridge(LfdBridge bridge) {
+        bridge.addChangeListener(routeListener);
+        bridges.add(bridge);
+        routesStale = true;
+    }
+
+    /**
+     * Removes a bridge from the cluster without shutting it down.
+     *
+     * @param bridge the bridge
+     */
+    public void removeBridge(LfdBridge bridge) {
+        if (bridges.remove(bridge)) {
+            bridge.removeChangeListener(routeListener);
+            routesStale = true;
+        }
+    }
+
+    /**
+     * Returns the cluster's bridges.
+     * @return an unmodifiable list of all bridges
+     */
+    public List<LfdBridge> getBridges() {
+        return Collections.unmodifiableList(bridges);
+    }
+
+    /**
+     * Requests the status of all lights from all bridges at the same time.
+     */
+    public void requestAllLightsStatus() throws LfdException {
+        LfdBridge.waitForAnswer(requestAllLightsStatusAsync());
+    }
+
+    /**
+     * Requests the status of all lights from all bridges at the same time without blocking.
+     *
+     * @return a future completing once all bridges have answered
+     */
+    public CompletableFuture<Void> requestAllLightsStatusAsync() {
+        List<LfdBridge> bridges = this.bridges;
+        CompletableFuture<?>[] answers = new CompletableFuture<?>[bridges.size()];
+        for (int i = 0; i < answers.length; i++) {
+            answers[i] = bridges.get(i).requestAllLightsStatusAsync();
+        }
+        return CompletableFuture.allOf(answers);
+    }
+
+    /**
+     * Loads the topology of all bridges at the same time.
+     *
+     * @param parallelism maximum amount of group information requests in flight per bridge
+     */
+    public void refreshTopology(int parallelism) throws LfdException {
+        LfdBridge.waitForAnswer(refreshTopologyAsync(parallelism));
+    }
+
+    /**
+     * Loads the topology of all bridges at the same time without blocking.
+     *
+     * @param parallelism maximum amount of group information requests in flight per bridge
+     * @return a future completing once all topologies have been loaded
+     */
+    public CompletableFuture<Void> refreshTopologyAsync(int parallelism) {
+        List<LfdBridge> bridges = this.bridges;
+        CompletableFuture<?>[] answers = new CompletableFuture<?>[bridges.size()];
+        for (int i = 0; i < answers.length; i++) {
+            answers[i] = bridges.get(i).refreshTopologyAsync(parallelism);
+        }
+        return CompletableFuture.allOf(answers);
+    }
+
+    /**
+     * Sends commands to many lights of any bridges at once.
+     *
+     * Every bridge collects the packets issued by the block and writes them together when the block
+     * completes, so e.g. a scene spanning the whole cluster needs a single write per bridge.
+     *
+     * @param block the commands to send
+     */
+    public void batch(Runnable block) {
+        List<LfdBridge> bridges = new ArrayList<>(this.bridges);
+        int begun = 0;
+        try {
+            for (LfdBridge bridge : bridges) {
+                bridge.beginBatch();
+                begun++;
+            }
+            block.run();
+        } finally {
+            for (int i = 0; i < begun; i++) {
+                bridges.get(i).endBatch();
+            }
+        }
+    }
+
+    /**
+     * Returns the bridge a light is connected to.
+     *
+     * @param address the light's address
+     * @return the light's bridge or null when no bridge reported the light
+     */
+    public LfdBridge getBridgeOf(long address) {
+        LfdLight light = getLight(address);
+        return light != null ? light.lfdBridge : null;
+    }
+
+    /**
+     * Returns a light connected to any of the cluster's bridges.
+     *
+     * @param address the light's address
+     * @return the light or null when no bridge reported the light
+     */
+    public LfdLight getLight(long address) {
+        LfdBridge bridge = routes.get(address);
+        LfdLight light = bridge != null ? bridge.getLight(address) : null;
+        if (light == null && routesStale) {
+            bridge = rebuildRoutes().get(address);
+            light = bridge != null ? bridge.getLight(address) : null;
+        }
+        return light;
+    }
+
+    /**
+     * Returns all lights of all bridges.
+     * @return a list of all lights
+     */
+    public List<LfdLight> getLights() {
+        List<LfdLight> lights = new ArrayList<>();
+        for (LfdBridge bridge : bridges) {
+            lights.addAll(bridge.getLights());
+        }
+        return lights;
+    }
+
+    /**
+     * Shuts down all bridges.
+     * @throws IOException when closing a connection fails
+     */
+    public void shutdown() throws IOException {
+        IOException failure = null;
+        for (LfdBridge bridge : bridges) {
+            try {
+                bridge.shutdown();
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Builds the routes from the lights currently known to the bridges in a single pass.
+     */
+    private synchronized LongObjectMap<LfdBridge> rebuildRoutes() {
+        if (!routesStale) {
+            return routes;
+        }
+        routesStale = false;
+        LongObjectMap<LfdBridge> newRoutes = new LongObjectMap<>();
+        for (LfdBridge bridge : bridges) {
+            for (LfdLight light : bridge.getLights()) {
+                newRoutes.put(light.getAddress(), bridge);
+            }
+        }
+        routes = newRoutes;
+        return newRoutes;
+    }
+}
@@ -0,0 +1,22 @@
+package me.sschaeffner.lfd;
+
+/**
+ * An effect (animation) played by an LfdEffectEngine.
+ *
+ * The engine asks the effect for the values of every target once per frame, using the same point in
+ * time for all targets so they stay in sync.
+ *
+ * @author Simon Schäffner (simon.schaeffner@googlemail.com)
+ */
+public interface LfdEffect {
+    /**
+     * Computes a target's values at a point in time.
+     *
+     * @param time      milliseconds since the effect has been started
+     * @param index     the target's index in the list of targets the effect has been started with
+     * @param count     the amount of targets
+     * @param frame     receives the target's values
+     * @return false once the effect has finished (the frame is not sent then)
+     */
+    boolean compute(long time, int index, int count, LfdFrame frame);
+}
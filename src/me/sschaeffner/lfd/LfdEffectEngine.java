@@ -0,0 +1,217 @@
+package me.sschaeffner.lfd;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Plays effects on lights and groups at a fixed frame rate.
+ *
+ * A single thread computes the frames of all running effects. All targets of a frame are computed
+ * for the same point in time and sent together (one write per bridge), so lights stay in sync.
+ * Only values that changed since the previous frame are sent, using the frame interval as fade time
+ * so the bridge interpolates smoothly between two frames.
+ *
+ * @author Simon Schäffner (simon.schaeffner@googlemail.com)
+ */
+public final class LfdEffectEngine implements Closeable {
+
+    /* the thread computing and sending the frames */
+    private final ScheduledExecutorService executor;
+
+    /* time between two frames in milliseconds */
+    private final long frameInterval;
+
+    /* fade time of every command in 1/10s */
+    private final short fadeTime;
+
+    /* effects being played */
+    private final CopyOnWriteArrayList<Playback> playbacks;
+
+    /* the values of the frame being computed (only used by the engine's thread) */
+    private final LfdFrame frame;
+
+    /* bridges of the frame being sent (only used by the engine's thread) */
+    private final List<LfdBridge> frameBridges;
+
+    /**
+     * Constructs and starts a new LfdEffectEngine.
+     *
+     * The bridge accepts about 10 commands per second and light; higher frame rates only make sense
+     * for few targets.
+     *
+     * @param framesPerSecond the frame rate (1-50)
+     */
+    public LfdEffectEngine(int framesPerSecond) {
+        if (framesPerSecond < 1 || framesPerSecond > 50) {
+            throw new IllegalArgumentException("frame rate must be between 1 and 50");
+        }
+        this.frameInterval = 1000 / framesPerSecond;
+        this.fadeTime = (short) Math.max(1, Math.round(frameInterval / 100.0));
+        this.playbacks = new CopyOnWriteArrayList<>();
+        this.frame = new LfdFrame();
+        this.frameBridges = new ArrayList<>();
+        this.executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "lfd-effects");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        this.executor.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                tick();
+            }
+        }, 0, frameInterval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Starts playing an effect on the given lights and groups, beginning with the next frame.
+     *
+     * @param effect    the effect
+     * @param targets   the lights and groups
+     * @return a future completing when the effect has finished; cancel it to stop the effect
+     */
+    public CompletableFuture<Void> play(LfdEffect effect, List<? extends LfdObject> targets) {
+        Playback playback = new Playback(effect, targets.toArray(new LfdObject[targets.size()]));
+        playbacks.add(playback);
+        return playback.future;
+    }
+
+    /**
+     * Stops all effects.
+     */
+    public void stopAll() {
+        for (Playback playback : playbacks) {
+            playback.future.cancel(false);
+        }
+    }
+
+    /**
+     * Stops all effects and the engine's thread.
+     */
+    @Override
+    public void close() {
+        stopAll();
+        executor.shutdown();
+    }
+
+    private void tick() {
+        if (playbacks.isEmpty()) {
+            return;
+        }
+        long now = System.nanoTime();
+
+        /* all commands of a frame are sent with one write per bridge */
+        List<LfdBridge> bridges = frameBridges;
+        for (Playback playback : playbacks) {
+            for (LfdObject target : playback.targets) {
+                if (!bridges.contains(target.lfdBridge)) {
+                    bridges.add(target.lfdBridge);
+                }
+            }
+        }
+        for (LfdBridge bridge : bridges) {
+            bridge.beginBatch();
+        }
+        try {
+            for (Playback playback : playbacks) {
+                boolean running;
+                try {
+                    running = !playback.future.isDone() && playback.play(now);
+                } catch (RuntimeException e) {
+                    /* a failing effect or bridge only stops this playback, not the engine's ticks */
+                    stop(playback, e);
+                    continue;
+                }
+                if (!running) {
+                    playbacks.remove(playback);
+                    playback.future.complete(null);
+                }
+            }
+        } finally {
+            for (LfdBridge bridge : bridges) {
+                try {
+                    bridge.endBatch();
+                } catch (RuntimeException e) {
+                    stopAll(bridge, e);
+                }
+            }
+            bridges.clear();
+        }
+    }
+
+    /**
+     * Stops a playback that failed.
+     */
+    private void stop(Playback playback, RuntimeException e) {
+        playbacks.remove(playback);
+        playback.future.completeExceptionally(e);
+    }
+
+    /**
+     * Stops all playbacks with targets on a bridge that failed to send a frame.
+     */
+    private void stopAll(LfdBridge bridge, RuntimeException e) {
+        for (Playback playback : playbacks) {
+            for (LfdObject target : playback.targets) {
+                if (target.lfdBridge == bridge) {
+                    stop(playback, e);
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * An effect being played on its targets.
+     */
+    private final class Playback {
+        private final LfdEffect effect;
+        private final LfdObject[] targets;
+        private final LfdFrame[] sent;
+        private final CompletableFuture<Void> future;
+        private long start;
+        private boolean started;
+
+        private Playback(LfdEffect effect, LfdObject[] targets) {
+            this.effect = effect;
+            this.targets = targets;
+            this.sent = new LfdFrame[targets.length];
+            for (int i = 0; i < sent.length; i++) {
+                sent[i] = new LfdFrame();
+            }
+            this.future = new CompletableFuture<>();
+        }
+
+        /**
+         * Computes and sends a frame. Targets the effect has finished for are not sent their frame.
+         * @return whether the effect continues
+         */
+        private boolean play(long now) {
+            if (!started) {
+                start = now;
+                started = true;
+            }
+            long time = TimeUnit.NANOSECONDS.toMillis(now - start);
+            boolean running = true;
+            for (int i = 0; i < targets.length; i++) {
+                frame.clear();
+                if (effect.compute(time, i, targets.length, frame)) {
+                    frame.sendChanges(targets[i], sent[i], fadeTime);
+                } else {
+                    running = false;
+                }
+            }
+            return running;
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package me.sschaeffner.lfd;
+
+/**
+ * Commonly used effects.
+ *
+ * @author Simon Schäffner (simon.schaeffner@googlemail.com)
+ */
+public final class LfdEffects {
+
+    private LfdEffects() {
+    }
+
+    /**
+     * Cycles through all hues endlessly. The targets are spread evenly over the colour wheel, so e.g.
+     * a row of lights shows a moving rainbow.
+     *
+     * @param period    the time for a full cycle in milliseconds
+     * @param spread    whether the targets' hues are offset against each other
+     * @return the effect
+     */
+    public static LfdEffect colourLoop(final long period, final boolean spread) {
+        if (period <= 0) {
+            throw new IllegalArgumentException("period must be positive");
+        }
+        return (time, index, count, frame) -> {
+            double hue = (double) (time % period) / period;
+            if (spread) {
+                hue += (double) index / count;
+            }
+            hue = (hue - Math.floor(hue)) * 6;
+            int sector = (int) hue;
+            int rising = (int) Math.round((hue - sector) * 255);
+            int falling = 255 - rising;
+            switch (sector) {
+                case 0: frame.setColour(255, rising, 0); break;
+                case 1: frame.setColour(falling, 255, 0); break;
+                case 2: frame.setColour(0, 255, rising); break;
+                case 3: frame.setColour(0, falling, 255); break;
+                case 4: frame.setColour(rising, 0, 255); break;
+                default: frame.setColour(255, 0, falling); break;
+            }
+            return true;
+        };
+    }
+
+    /**
+     * Simulates a sunrise: the targets are switched on and slowly brighten from 1% to 100% while the
+     * colour temperature rises from 2000K to 6500K. The effect finishes once the sun has risen, after
+     * the frame with 100% and 6500K has been sent.
+     *
+     * The returned effect remembers when it sent its final frame, so play it on one set of targets at
+     * a time (start a new sunrise for every set of targets playing at the same time).
+     *
+     * @param duration  the duration of the sunrise in milliseconds
+     * @return the effect
+     */
+    public static LfdEffect sunrise(final long duration) {
+        if (duration <= 0) {
+            throw new IllegalArgumentException("duration must be positive");
+        }
+        return new LfdEffect() {
+            /* time of the frame the risen sun has been sent with (-1: not yet) */
+            private long risenTime = -1;
+
+            @Override
+            public boolean compute(long time, int index, int count, LfdFrame frame) {
+                if (time < risenTime) {
+                    /* played again */
+                    risenTime = -1;
+                }
+                if (time >= duration) {
+                    if (risenTime >= 0 && time > risenTime) {
+                        return false;
+                    }
+                    /* all targets of the frame get the final values */
+                    risenTime = time;
+                }
+                double progress = Math.min(1.0, (double) time / duration);
+                frame.setOn(true);
+                frame.setLuminance(1 + (int) Math.round(progress * progress * 99));
+                frame.setTemperature(2000 + (int) Math.round(progress * 4500));
+                return true;
+            }
+        };
+    }
+}
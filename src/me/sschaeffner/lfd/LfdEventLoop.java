@@ -0,0 +1,212 @@
+package me.sschaeffner.lfd;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * A single thread serving the connections of any number of bridges.
+ *
+ * Bridges constructed with an event loop use a non-blocking connection instead of a socket with its
+ * own listener thread, so the amount of threads stays the same no matter how many bridges are used.
+ *
+ * Errors of a single connection only close that connection. When the selector itself fails, the event
+ * loop closes along with all its connections. Errors are reported to the logger, never to the console.
+ *
+ * @author Simon Schäffner (simon.schaeffner@googlemail.com)
+ */
+public final class LfdEventLoop implements Closeable {
+
+    /* the event loop shared by all bridges not given an explicit one */
+    private static LfdEventLoop shared;
+
+    /* selector multiplexing all connections */
+    private final Selector selector;
+
+    /* tasks to be run on the event loop's thread */
+    private final ConcurrentLinkedQueue<Runnable> tasks;
+
+    /* the event loop's thread */
+    private final Thread thread;
+
+    /* whether the event loop is still running */
+    private volatile boolean running;
+
+    /* reports errors not belonging to a connection */
+    private final LfdLogger logger;
+
+    /**
+     * Constructs and starts a new LfdEventLoop without logging.
+     *
+     * @throws IOException when the selector cannot be opened
+     */
+    public LfdEventLoop() throws IOException {
+        this(null);
+    }
+
+    /**
+     * Constructs and starts a new LfdEventLoop.
+     *
+     * @param logger    reports errors not belonging to a connection (can be null to disable logging)
+     * @throws IOException when the selector cannot be opened
+     */
+    public LfdEventLoop(LfdLogger logger) throws IOException {
+        this.logger = logger != null ? logger : LfdLogger.NONE;
+        this.selector = Selector.open();
+        this.tasks = new ConcurrentLinkedQueue<>();
+        this.running = true;
+        this.thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                loop();
+            }
+        }, "lfd-event-loop");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * Returns the event loop shared by the whole JVM, starting it on first use.
+     *
+     * @return the shared event loop
+     * @throws IOException when the selector cannot be opened
+     */
+    public static synchronized LfdEventLoop getShared() throws IOException {
+        if (shared == null || !shared.running) {
+            shared = new LfdEventLoop();
+        }
+        return shared;
+    }
+
+    /**
+     * Runs a task on the event loop's thread.
+     *
+     * @param task the task to run
+     */
+    void execute(Runnable task) {
+        tasks.add(task);
+        selector.wakeup();
+    }
+
+    /**
+     * Registers a connection to be served by this event loop.
+     *
+     * @param connection the connection
+     * @throws ClosedException when the event loop has been closed
+     */
+    void register(final NioConnection connection) throws ClosedException {
+        synchronized (this) {
+            if (!running) {
+                throw new ClosedException(null);
+            }
+            execute(new Runnable() {
+                @Override
+                public void run() {
+                    if (!running) {
+                        /* closed after the connection has been registered */
+                        connection.onError(new ClosedException(null));
+                        return;
+                    }
+                    try {
+                        connection.onRegistered(connection.getChannel().register(selector, SelectionKey.OP_READ, connection));
+                    } catch (IOException | RuntimeException e) {
+                        connection.onError(e);
+                    }
+                }
+            });
+        }
+    }
+
+    boolean isRunning() {
+        return running;
+    }
+
+    boolean inEventLoop() {
+        return Thread.currentThread() == thread;
+    }
+
+    private void loop() {
+        ClosedException closedBy = new ClosedException(null);
+        while (running) {
+            runTasks();
+
+            try {
+                selector.select();
+            } catch (IOException e) {
+                /* a broken selector fails again right away: give up rather than spin */
+                logger.error("selector failed, closing event loop", e);
+                closedBy = new ClosedException(e);
+                close();
+                break;
+            }
+
+            Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+            while (keys.hasNext()) {
+                SelectionKey key = keys.next();
+                keys.remove();
+                NioConnection connection = (NioConnection) key.attachment();
+                try {
+                    if (key.isValid() && key.isReadable()) {
+                        connection.onReadable();
+                    }
+                    if (key.isValid() && key.isWritable()) {
+                        connection.onWritable();
+                    }
+                } catch (IOException | RuntimeException e) {
+                    /* e.g. a receiver failing to handle a packet: only this connection is affected */
+                    connection.onError(e);
+                }
+            }
+        }
+
+        /* connections registered right before closing */
+        runTasks();
+        for (SelectionKey key : selector.keys()) {
+            ((NioConnection) key.attachment()).onError(closedBy);
+        }
+        try {
+            selector.close();
+        } catch (IOException e) {
+            logger.error("closing selector failed", e);
+        }
+    }
+
+    /**
+     * Runs all queued tasks. A failing task must not stop the event loop, as all connections served by
+     * it would stop reading.
+     */
+    private void runTasks() {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                logger.error("event loop task failed", e);
+            }
+        }
+    }
+
+    /**
+     * Stops the event loop and closes all connections served by it.
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            running = false;
+        }
+        selector.wakeup();
+    }
+
+    /**
+     * Thrown for connections to a closed event loop. Unlike other connection errors it is permanent:
+     * connecting again through the same event loop fails as well.
+     */
+    static final class ClosedException extends IOException {
+        ClosedException(Throwable cause) {
+            super("event loop closed", cause);
+        }
+    }
+}
@@ -9,4 +9,8 @@ public class LfdException extends Exception {
     LfdException(String message) {
         super(message);
     }
+
+    LfdException(String message, Throwable cause) {
+        super(message, cause);
+    }
 }
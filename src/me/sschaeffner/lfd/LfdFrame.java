@@ -0,0 +1,184 @@
+package me.sschaeffner.lfd;
+
+/**
+ * The values to set on a light or group, e.g. by an effect in a single frame or as part of an
+ * LfdBulkUpdate.
+ *
+ * Only the values that have been set are sent; values not set are left unchanged. The frame passed to
+ * an effect is reused for every target and tick, so effects must not keep references to it.
+ *
+ * @author Simon Schäffner (simon.schaeffner@googlemail.com)
+ */
+public final class LfdFrame {
+
+    /* flags of the values that have been set, in the order they are sent by LfdBulkUpdate */
+    static final int ON = 1;
+    static final int LUMINANCE = 1 << 1;
+    static final int TEMPERATURE = 1 << 2;
+    static final int COLOUR = 1 << 3;
+
+    /* the values that have been set */
+    int set;
+
+    boolean on;
+    byte luminance;
+    short temperature;
+    byte r;
+    byte g;
+    byte b;
+
+    LfdFrame() {
+    }
+
+    /**
+     * Switches the target on or off.
+     * @param on    whether the target should be on
+     */
+    public void setOn(boolean on) {
+        this.on = on;
+        set |= ON;
+    }
+
+    /**
+     * Sets the target's luminance (0-100).
+     * @param luminance the luminance in percent
+     */
+    public void setLuminance(int luminance) {
+        this.luminance = (byte) Math.max(0, Math.min(100, luminance));
+        set |= LUMINANCE;
+    }
+
+    /**
+     * Sets the target's colour temperature in kelvin (2000-6500).
+     * @param temperature   the colour temperature in kelvin
+     */
+    public void setTemperature(int temperature) {
+        this.temperature = (short) Math.max(2000, Math.min(6500, temperature));
+        set |= TEMPERATURE;
+    }
+
+    /**
+     * Sets the target's colour.
+     * @param r     red (0-255)
+     * @param g     green (0-255)
+     * @param b     blue (0-255)
+     */
+    public void setColour(int r, int g, int b) {
+        this.r = (byte) r;
+        this.g = (byte) g;
+        this.b = (byte) b;
+        set |= COLOUR;
+    }
+
+    /**
+     * Sets all values to those of a light's state.
+     */
+    void setState(LfdLightState state) {
+        on = state.isOn();
+        luminance = state.getLuminance();
+        temperature = state.getTemperature();
+        r = state.getR();
+        g = state.getG();
+        b = state.getB();
+        set = ON | LUMINANCE | TEMPERATURE | COLOUR;
+    }
+
+    void clear() {
+        set = 0;
+    }
+
+    /**
+     * Returns whether a value has been set.
+     * @param channel ON, LUMINANCE, TEMPERATURE or COLOUR
+     */
+    boolean has(int channel) {
+        return (set & channel) != 0;
+    }
+
+    /**
+     * Returns a value packed into a long, so values can be compared without knowing the channel.
+     * @param channel ON, LUMINANCE, TEMPERATURE or COLOUR
+     */
+    long value(int channel) {
+        switch (channel) {
+            case ON:
+                return on ? 1 : 0;
+            case LUMINANCE:
+                return luminance & 0xFF;
+            case TEMPERATURE:
+                return temperature & 0xFFFF;
+            default:
+                return (r & 0xFF) | (g & 0xFF) << 8 | (b & 0xFF) << 16;
+        }
+    }
+
+    /**
+     * Returns a value of a light's state packed like value().
+     * @param channel ON, LUMINANCE, TEMPERATURE or COLOUR
+     */
+    static long value(int channel, LfdLightState state) {
+        switch (channel) {
+            case ON:
+                return state.isOn() ? 1 : 0;
+            case LUMINANCE:
+                return state.getLuminance() & 0xFF;
+            case TEMPERATURE:
+                return state.getTemperature() & 0xFFFF;
+            default:
+                return (state.getR() & 0xFF) | (state.getG() & 0xFF) << 8 | (state.getB() & 0xFF) << 16;
+        }
+    }
+
+    /**
+     * Sends a single value of this frame.
+     *
+     * @param target    the light or group
+     * @param channel   ON, LUMINANCE, TEMPERATURE or COLOUR
+     * @param time      the fade time in 1/10s
+     */
+    void send(LfdObject target, int channel, short time) {
+        switch (channel) {
+            case ON:
+                target.sendOnOff(on);
+                break;
+            case LUMINANCE:
+                target.sendLuminance(luminance, time);
+                break;
+            case TEMPERATURE:
+                target.sendTemperature(temperature, time);
+                break;
+            case COLOUR:
+                target.sendColour(r, g, b, time);
+                break;
+        }
+    }
+
+    /**
+     * Sends the values of this frame differing from the values sent last and records them in last.
+     *
+     * @param target    the light or group
+     * @param last      the values sent to the target last
+     * @param time      the fade time in 1/10s
+     */
+    void sendChanges(LfdObject target, LfdFrame last, short time) {
+        if ((set & ON) != 0 && ((last.set & ON) == 0 || last.on != on)) {
+            target.sendOnOff(on);
+            last.on = on;
+        }
+        if ((set & LUMINANCE) != 0 && ((last.set & LUMINANCE) == 0 || last.luminance != luminance)) {
+            target.sendLuminance(luminance, time);
+            last.luminance = luminance;
+        }
+        if ((set & TEMPERATURE) != 0 && ((last.set & TEMPERATURE) == 0 || last.temperature != temperature)) {
+            target.sendTemperature(temperature, time);
+            last.temperature = temperature;
+        }
+        if ((set & COLOUR) != 0 && ((last.set & COLOUR) == 0 || last.r != r || last.g != g || last.b != b)) {
+            target.sendColour(r, g, b, time);
+            last.r = r;
+            last.g = g;
+            last.b = b;
+        }
+        last.set |= set;
+    }
+}
@@ -1,6 +1,6 @@
 package me.sschaeffner.lfd;
 
-import java.util.HashSet;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * A group of lights.
@@ -10,68 +10,68 @@ import java.util.HashSet;
 public class LfdGroup extends LfdObject {
 
     /* group's unique identifier */
-    private short id;
+    private final short id;
 
     /* group's human-readable name */
-    private String name;
+    private volatile String name;
 
-    /* set of lights belonging to the group */
-    private HashSet<Long> lights;
+    /* group's name as received from the bridge (to detect changes without decoding) */
+    private final byte[] nameAscii;
+
+    /* set of lights belonging to the group (immutable, replaced as a whole) */
+    private volatile LfdAddressSet lights;
 
     /**
      * Constructs a new LfdGroup object.
      *
      * @param lfdBridge a reference to the LfdBridge object
      * @param id        the group's unique id
-     * @param name      the group's name
      */
-    LfdGroup(LfdBridge lfdBridge, short id, String name) {
+    LfdGroup(LfdBridge lfdBridge, short id) {
         super(lfdBridge);
         this.id = id;
-        this.name = name;
-        this.lights = new HashSet<>();
+        this.name = "";
+        this.nameAscii = new byte[PacketView.NAME_LENGTH];
+        this.lights = LfdAddressSet.EMPTY;
     }
 
     @Override
-    protected void sendCommand(byte command, byte[] data) {
-        byte[] packet = new byte[16 + data.length];
-
-        int length = 14 + data.length;
-        byte lengthHi = (byte)((length >> 8) & 0xFF);
-        byte lengthLo = (byte)(length & 0xFF);
-
-        byte flag = 0x02;
-
-        byte sequence = lfdBridge.getNextSequence();
-
-        byte[] id = getIdLittleEndian();
+    byte getFlag() {
+        return PacketEncoder.FLAG_GROUP;
+    }
 
-        packet[0] = lengthLo;
-        packet[1] = lengthHi;
-        packet[2] = flag;
-        packet[3] = command;
-        packet[4] = (byte) 0x00;
-        packet[5] = (byte) 0x00;
-        packet[6] = (byte) 0x07;
-        packet[7] = sequence;
-        System.arraycopy(id, 0, packet, 8, 2);
-        System.arraycopy(data, 0, packet, 16, data.length);
+    @Override
+    long getTarget() {
+        return id & 0xFFFF;
+    }
 
-        lfdBridge.sendPacket(packet);
+    @Override
+    void applyCommand(byte command, long data) {
+        LfdAddressSet lights = this.lights;
+        for (int i = 0; i < lights.size(); i++) {
+            LfdLight light = lfdBridge.getLight(lights.get(i));
+            if (light != null) {
+                light.applyCommand(command, data);
+            }
+        }
     }
 
     /**
      * Sends a request to the bridge to return all information about this group.
      */
     public void requestGroupInfo() throws LfdException {
-        synchronized (lfdBridge) {
-            if (lfdBridge.getLastRequest() != LfdRequest.NONE) {
-                throw new LfdException("cannot send new request while old request is still handled");
-            }
-            lfdBridge.setLastRequest(LfdRequest.GROUP_INFO);
-            sendCommand(LfdOpCodes.GROUP_INFO, new byte[0]);
-            lfdBridge.waitForAnswer();
-        }
+        LfdBridge.waitForAnswer(requestGroupInfoAsync());
+    }
+
+    /**
+     * Sends a request to the bridge to return all information about this group without blocking.
+     *
+     * @return a future completing with this group once the answer has been handled
+     */
+    public CompletableFuture<LfdGroup> requestGroupInfoAsync() {
+        CompletableFuture<Void> answer = lfdBridge.submitRequest(LfdRequest.GROUP_INFO, LfdOpCodes.GROUP_INFO,
+                sequence -> sendCommand(LfdOpCodes.GROUP_INFO, sequence, 0, 0));
+        return LfdBridge.cancelling(answer.thenApply(v -> this), answer);
     }
 
     @Override
@@ -87,14 +87,12 @@ public class LfdGroup extends LfdObject {
         this.name = name;
     }
 
-    void setLights(HashSet<Long> lights) {
-        this.lights = lights;
+    byte[] getNameAscii() {
+        return nameAscii;
     }
 
-    private byte[] getIdLittleEndian() {
-        byte idHi = (byte)((id << 8) & 0xFF);
-        byte idLo = (byte)(id & 0xFF);
-        return new byte[]{idLo, idHi};
+    void setLights(LfdAddressSet lights) {
+        this.lights = lights;
     }
 
     /**
@@ -114,10 +112,10 @@ public class LfdGroup extends LfdObject {
     }
 
     /**
-     * Returns a set of lights belonging to this group
+     * Returns the addresses of the lights belonging to this group (read-only)
      * @return a set of lights belonging to this group
      */
-    public HashSet<Long> getLights() {
+    public LfdAddressSet getLights() {
         return lights;
     }
 }
@@ -0,0 +1,114 @@
+package me.sschaeffner.lfd;
+
+/**
+ * An immutable snapshot of a distribution of durations.
+ *
+ * Durations are recorded with a relative error of about 3%, so percentiles are accurate to about 3%
+ * as well.
+ *
+ * @author Simon Schäffner (simon.schaeffner@googlemail.com)
+ */
+public final class LfdHistogram {
+
+    /* amount of values per bucket (see Histogram) */
+    private final long[] counts;
+
+    /* amount of values */
+    private final long count;
+
+    /* sum of all values in nanoseconds */
+    private final long sum;
+
+    /* the biggest value in nanoseconds */
+    private final long max;
+
+    LfdHistogram(long[] counts, long sum, long max) {
+        long count = 0;
+        for (long c : counts) {
+            count += c;
+        }
+        this.counts = counts;
+        this.count = count;
+        this.sum = sum;
+        this.max = max;
+    }
+
+    /**
+     * Returns the amount of recorded durations.
+     * @return the amount of durations
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * Returns the mean duration.
+     * @return the mean in nanoseconds (0 when nothing has been recorded)
+     */
+    public double getMean() {
+        return count == 0 ? 0 : sum / (double) count;
+    }
+
+    /**
+     * Returns the longest duration.
+     * @return the maximum in nanoseconds (0 when nothing has been recorded)
+     */
+    public long getMax() {
+        return max;
+    }
+
+    /**
+     * Returns the duration the given share of all durations does not exceed.
+     *
+     * @param percentile    the percentile (0 to 100, e.g. 99.9)
+     * @return the percentile in nanoseconds (0 when nothing has been recorded)
+     */
+    public long getPercentile(double percentile) {
+        if (percentile < 0 || percentile > 100) {
+            throw new IllegalArgumentException("percentile must be between 0 and 100");
+        }
+        if (count == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(Histogram.highestValue(i), max);
+            }
+        }
+        return max;
+    }
+
+    /**
+     * Returns the difference to an earlier snapshot of the same histogram, e.g. to get the
+     * distribution of the last scrape interval. The maximum is the maximum of all time.
+     *
+     * @param earlier   the earlier snapshot
+     * @return the durations recorded after the earlier snapshot
+     */
+    public LfdHistogram since(LfdHistogram earlier) {
+        long[] difference = new long[counts.length];
+        for (int i = 0; i < counts.length; i++) {
+            difference[i] = counts[i] - earlier.counts[i];
+        }
+        return new LfdHistogram(difference, sum - earlier.sum, max);
+    }
+
+    @Override
+    public String toString() {
+        return "LfdHistogram{" +
+                "count=" + count +
+                ", mean=" + micros(getMean()) + "us" +
+                ", p50=" + micros(getPercentile(50)) + "us" +
+                ", p99=" + micros(getPercentile(99)) + "us" +
+                ", p99.9=" + micros(getPercentile(99.9)) + "us" +
+                ", max=" + micros(max) + "us" +
+                '}';
+    }
+
+    private static String micros(double nanos) {
+        return String.format("%.1f", nanos / 1000);
+    }
+}
@@ -0,0 +1,329 @@
+package me.sschaeffner.lfd;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * An append-only history of the lights' states.
+ *
+ * Register the journal as change listener of one or more bridges (addChangeListener()) and every
+ * light added, changed or removed is appended as a fixed-size record to memory-mapped segment files
+ * in a directory. Appending neither allocates nor blocks on disk I/O (apart from creating a new
+ * segment). When a segment is full, the next one is started and the oldest segments beyond the
+ * retention limit are deleted.
+ *
+ * Every segment (journal-SEQUENCE.lfdj, named after its first record's sequence) consists of a header
+ *
+ * - magic "LFDJ" and format version (4 bytes each)
+ * - the sequence of its first record and its capacity in records (8 bytes each)
+ *
+ * followed by 32 byte records (little endian): time (System.currentTimeMillis(), 8 bytes), the
+ * light's address (8 bytes), the sequence (8 bytes), the event, on, luminance, r, g, b (1 byte each)
+ * and the temperature (2 bytes). Unwritten records are zero.
+ *
+ * Records are read with a cursor (see cursor()).
+ *
+ * @author Simon Schäffner (simon.schaeffner@googlemail.com)
+ */
+public final class LfdJournal implements LfdChangeListener, Closeable {
+
+    /* "LFDJ" */
+    static final int MAGIC = 0x4A44464C;
+
+    /* version of the file format */
+    static final int VERSION = 1;
+
+    /* length of a segment's header */
+    static final int HEADER_LENGTH = 24;
+
+    /* length of a record */
+    static final int RECORD_LENGTH = 32;
+
+    /* default amount of records per segment (2 MB) */
+    private static final int DEFAULT_SEGMENT_RECORDS = 65536;
+
+    /* default amount of segments kept */
+    private static final int DEFAULT_MAX_SEGMENTS = 64;
+
+    /* prefix and suffix of segment file names */
+    private static final String PREFIX = "journal-";
+    private static final String SUFFIX = ".lfdj";
+
+    /**
+     * The kind of change a record describes.
+     */
+    public enum Event {
+        ADDED,
+        CHANGED,
+        REMOVED,
+        /* a light loaded from a topology cache: its state has not been reported by the bridge yet */
+        LOADED
+    }
+
+    /* the directory holding the segments */
+    private final Path directory;
+
+    /* amount of records per segment */
+    private final int segmentRecords;
+
+    /* maximum amount of segments kept */
+    private final int maxSegments;
+
+    /* the segment being written (guarded by this) */
+    private MappedByteBuffer segment;
+
+    /* sequence of the segment's first record (guarded by this) */
+    private long segmentStart;
+
+    /* amount of records the segment can hold (guarded by this) */
+    private int segmentCapacity;
+
+    /* sequence of the next record (guarded by this) */
+    private long nextSequence;
+
+    /* whether the journal has been closed (guarded by this) */
+    private boolean closed;
+
+    /**
+     * Opens a journal with segments of 65536 records (2 MB), keeping at most 64 segments.
+     *
+     * @param directory the directory holding the segments (created when it does not exist)
+     * @throws IOException when the journal cannot be opened
+     */
+    public LfdJournal(Path directory) throws IOException {
+        this(directory, DEFAULT_SEGMENT_RECORDS, DEFAULT_MAX_SEGMENTS);
+    }
+
+    /**
+     * Opens a journal. Appending continues after the last record of an existing journal.
+     *
+     * @param directory         the directory holding the segments (created when it does not exist)
+     * @param segmentRecords    amount of records per segment (only used for new segments)
+     * @param maxSegments       maximum amount of segments kept; the oldest segments are deleted
+     * @throws IOException when the journal cannot be opened
+     */
+    public LfdJournal(Path directory, int segmentRecords, int maxSegments) throws IOException {
+        if (segmentRecords < 1 || segmentRecords > (Integer.MAX_VALUE - HEADER_LENGTH) / RECORD_LENGTH) {
+            throw new IllegalArgumentException("segmentRecords out of range");
+        }
+        if (maxSegments < 1) {
+            throw new IllegalArgumentException("maxSegments must be at least 1");
+        }
+        this.directory = directory;
+        this.segmentRecords = segmentRecords;
+        this.maxSegments = maxSegments;
+        Files.createDirectories(directory);
+
+        List<Path> segments = segments(directory);
+        if (segments.isEmpty()) {
+            startSegment(0);
+        } else {
+            reopen(segments.get(segments.size() - 1));
+        }
+    }
+
+    @Override
+    public void onLightAdded(LfdLight light) {
+        /* lights loaded from a topology cache have never been confirmed by the bridge */
+        Event event = light.getConfirmedTime() == 0 ? Event.LOADED : Event.ADDED;
+        append(event, light.getAddress(), light.getState());
+    }
+
+    @Override
+    public void onLightChanged(LfdLight light, LfdLightState oldState, LfdLightState newState) {
+        append(Event.CHANGED, light.getAddress(), newState);
+    }
+
+    @Override
+    public void onLightRemoved(LfdLight light) {
+        append(Event.REMOVED, light.getAddress(), light.getState());
+    }
+
+    /**
+     * Appends a record with the current time.
+     *
+     * @param event     the kind of change
+     * @param address   the light's address
+     * @param state     the light's state
+     * @throws UncheckedIOException when a new segment cannot be created
+     */
+    public synchronized void append(Event event, long address, LfdLightState state) {
+        if (closed) {
+            throw new IllegalStateException("journal closed");
+        }
+        if (nextSequence - segmentStart == segmentCapacity) {
+            try {
+                startSegment(nextSequence);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        int position = HEADER_LENGTH + (int) (nextSequence - segmentStart) * RECORD_LENGTH;
+        MappedByteBuffer out = segment;
+        out.putLong(position + 8, address);
+        out.putLong(position + 16, nextSequence);
+        out.put(position + 24, (byte) (event.ordinal() + 1));
+        out.put(position + 25, (byte) (state.isOn() ? 1 : 0));
+        out.put(position + 26, state.getLuminance());
+        out.put(position + 27, state.getR());
+        out.put(position + 28, state.getG());
+        out.put(position + 29, state.getB());
+        out.putShort(position + 30, state.getTemperature());
+        /* the time is written last: a record with a time is complete */
+        out.putLong(position, System.currentTimeMillis());
+        nextSequence++;
+    }
+
+    /**
+     * Returns the sequence the next record will be appended with.
+     * @return the amount of records appended since the journal has been created
+     */
+    public synchronized long getNextSequence() {
+        return nextSequence;
+    }
+
+    /**
+     * Opens a cursor over all records appended so far, starting with the oldest one kept.
+     *
+     * @return the cursor
+     * @throws IOException when the segments cannot be listed
+     */
+    public LfdJournalCursor cursor() throws IOException {
+        return cursor(0);
+    }
+
+    /**
+     * Opens a cursor over the records appended so far, starting with the first record at or after
+     * the given time. Segments ending before that time are skipped without reading their records.
+     *
+     * Records are found by their time, assuming System.currentTimeMillis() never goes backwards while
+     * the journal is written. When the clock has been set back, records appended afterwards may be
+     * skipped or records before the given time returned; use getSequence() for a reliable order.
+     *
+     * @param fromTime  the time (milliseconds since the epoch)
+     * @return the cursor
+     * @throws IOException when the segments cannot be listed
+     */
+    public LfdJournalCursor cursor(long fromTime) throws IOException {
+        long end;
+        synchronized (this) {
+            end = nextSequence;
+        }
+        return new LfdJournalCursor(segments(directory), end, fromTime);
+    }
+
+    /**
+     * Writes all records of the current segment to disk. Records are not lost when the process
+     * crashes without calling this, only when the machine does.
+     */
+    public synchronized void flush() {
+        segment.force();
+    }
+
+    /**
+     * Writes all records to disk and stops appending.
+     */
+    @Override
+    public synchronized void close() {
+        if (!closed) {
+            closed = true;
+            segment.force();
+        }
+    }
+
+    /**
+     * Continues appending to an existing segment after its last record.
+     */
+    private void reopen(Path file) throws IOException {
+        MappedByteBuffer mapped = map(file, 0);
+        if (mapped.getInt(0) != MAGIC || mapped.getInt(4) != VERSION) {
+            throw new IOException(file + " is not a journal segment");
+        }
+        long start = mapped.getLong(8);
+        int capacity = (mapped.capacity() - HEADER_LENGTH) / RECORD_LENGTH;
+
+        /* records are written in order: find the first unwritten one */
+        int low = 0;
+        int high = capacity;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (mapped.getLong(HEADER_LENGTH + middle * RECORD_LENGTH) != 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        this.segment = mapped;
+        this.segmentStart = start;
+        this.segmentCapacity = capacity;
+        this.nextSequence = start + low;
+        if (low == capacity) {
+            startSegment(nextSequence);
+        }
+    }
+
+    /**
+     * Creates a new segment starting with the given sequence and deletes the oldest segments beyond
+     * the retention limit.
+     */
+    private void startSegment(long start) throws IOException {
+        Path file = directory.resolve(String.format("%s%020d%s", PREFIX, start, SUFFIX));
+        MappedByteBuffer mapped = map(file, HEADER_LENGTH + (long) segmentRecords * RECORD_LENGTH);
+        mapped.putInt(0, MAGIC);
+        mapped.putInt(4, VERSION);
+        mapped.putLong(8, start);
+        mapped.putLong(16, segmentRecords);
+
+        /* the previous segment is written to disk by the operating system (or by flush()) */
+        this.segment = mapped;
+        this.segmentStart = start;
+        this.segmentCapacity = segmentRecords;
+        this.nextSequence = start;
+
+        List<Path> segments = segments(directory);
+        for (int i = 0; i < segments.size() - maxSegments; i++) {
+            Files.deleteIfExists(segments.get(i));
+        }
+    }
+
+    /**
+     * Maps a segment for writing.
+     *
+     * @param size  the size to create the file with (0 to map an existing file as it is)
+     */
+    private static MappedByteBuffer map(Path file, long size) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            long length = size == 0 ? channel.size() : size;
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0, length);
+            mapped.order(ByteOrder.LITTLE_ENDIAN);
+            return mapped;
+        }
+    }
+
+    /**
+     * Returns the segment files in a directory, oldest first.
+     */
+    static List<Path> segments(Path directory) throws IOException {
+        List<Path> segments = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, PREFIX + "*" + SUFFIX)) {
+            for (Path file : stream) {
+                segments.add(file);
+            }
+        }
+        /* the sequences are zero-padded, so names sort in order */
+        Collections.sort(segments);
+        return segments;
+    }
+}
@@ -0,0 +1,242 @@
+package me.sschaeffner.lfd;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+/**
+ * Reads the records of an LfdJournal in the order they have been appended.
+ *
+ * The cursor points to one record at a time and reads its fields right from the memory-mapped
+ * segment, so reading does not allocate anything per record:
+ *
+ *     LfdJournalCursor cursor = journal.cursor();
+ *     while (cursor.next()) {
+ *         ... cursor.getTime(), cursor.getAddress(), cursor.getLuminance() ...
+ *     }
+ *
+ * The getters may only be called after next() returned true. Every record holds a full state, but
+ * what it means depends on the record's event: the state the light has been reported with for ADDED,
+ * the new state for CHANGED, the state stored in the topology cache for LOADED (a light known from
+ * LfdBridge.loadTopologyCache() rather than reported by the bridge) and the last state known before
+ * the light disappeared for REMOVED.
+ *
+ * A cursor covers the records appended before it has been opened. Segments deleted by the journal's
+ * retention before the cursor reaches them are skipped.
+ *
+ * @author Simon Schäffner (simon.schaeffner@googlemail.com)
+ */
+public final class LfdJournalCursor {
+
+    /* the events by their value in a record (0: unwritten) */
+    private static final LfdJournal.Event[] EVENTS = LfdJournal.Event.values();
+
+    /* the segment files, oldest first */
+    private final List<Path> segments;
+
+    /* sequence of the first record not covered by this cursor */
+    private final long end;
+
+    /* records before this time are skipped */
+    private final long fromTime;
+
+    /* index of the next segment to open */
+    private int nextSegment;
+
+    /* the segment being read (null before the first and after the last) */
+    private MappedByteBuffer segment;
+
+    /* amount of records the segment can hold */
+    private int capacity;
+
+    /* index of the current record in the segment (-1 before the first) */
+    private int index;
+
+    /* absolute position of the current record in the segment */
+    private int position;
+
+    /* whether records before fromTime may still follow */
+    private boolean skipping;
+
+    LfdJournalCursor(List<Path> segments, long end, long fromTime) {
+        this.segments = segments;
+        this.end = end;
+        this.fromTime = fromTime;
+        this.skipping = fromTime > 0;
+    }
+
+    /**
+     * Moves to the next record.
+     *
+     * @return whether there is a next record
+     * @throws IOException when a segment cannot be read
+     */
+    public boolean next() throws IOException {
+        while (true) {
+            if (segment != null && ++index < capacity) {
+                position = LfdJournal.HEADER_LENGTH + index * LfdJournal.RECORD_LENGTH;
+                long time = segment.getLong(position);
+                if (time == 0 || getSequence() >= end) {
+                    /* the rest of the segment has not been written (when the cursor was opened) */
+                    segment = null;
+                    nextSegment = segments.size();
+                    return false;
+                }
+                if (skipping) {
+                    if (time < fromTime) {
+                        continue;
+                    }
+                    skipping = false;
+                }
+                return true;
+            }
+            if (!openNextSegment()) {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Returns the time the record has been appended (valid for all events).
+     * @return the time in milliseconds since the epoch (System.currentTimeMillis())
+     */
+    public long getTime() {
+        return segment.getLong(position);
+    }
+
+    /**
+     * Returns the address of the light the record belongs to (valid for all events).
+     * @return the light's 64 bit address
+     */
+    public long getAddress() {
+        return segment.getLong(position + 8);
+    }
+
+    /**
+     * Returns the record's sequence, counting all records ever appended to the journal (valid for all
+     * events). Sequences increase by one per record and keep counting across segments.
+     * @return the sequence, starting at 0
+     */
+    public long getSequence() {
+        return segment.getLong(position + 16);
+    }
+
+    /**
+     * Returns the kind of change the record describes, which tells how to read its state (see above).
+     * @return the event
+     */
+    public LfdJournal.Event getEvent() {
+        return EVENTS[segment.get(position + 24) - 1];
+    }
+
+    /**
+     * Returns whether the light was on: after the change for ADDED, CHANGED and LOADED, before the light
+     * disappeared for REMOVED.
+     * @return whether the light was on
+     */
+    public boolean isOn() {
+        return segment.get(position + 25) != 0;
+    }
+
+    /**
+     * Returns the light's luminance (0-100, 0 also for lights not yet reported by the bridge). Valid
+     * for all events like isOn().
+     * @return the luminance in percent
+     */
+    public byte getLuminance() {
+        return segment.get(position + 26);
+    }
+
+    /**
+     * Returns the red part of the light's colour (0-255, read it with & 0xFF). Valid for all events
+     * like isOn().
+     * @return the red part
+     */
+    public byte getR() {
+        return segment.get(position + 27);
+    }
+
+    /**
+     * Returns the green part of the light's colour (0-255, read it with & 0xFF). Valid for all events
+     * like isOn().
+     * @return the green part
+     */
+    public byte getG() {
+        return segment.get(position + 28);
+    }
+
+    /**
+     * Returns the blue part of the light's colour (0-255, read it with & 0xFF). Valid for all events
+     * like isOn().
+     * @return the blue part
+     */
+    public byte getB() {
+        return segment.get(position + 29);
+    }
+
+    /**
+     * Returns the light's colour temperature (2000-6500, 0 for lights not yet reported by the
+     * bridge). Valid for all events like isOn().
+     * @return the colour temperature in kelvin
+     */
+    public short getTemperature() {
+        return segment.getShort(position + 30);
+    }
+
+    /**
+     * Returns the record's state as a new LfdLightState.
+     * @return the state
+     */
+    public LfdLightState getState() {
+        return new LfdLightState(isOn(), getLuminance(), getTemperature(), getR(), getG(), getB());
+    }
+
+    /**
+     * Maps the next segment that still exists and may hold records at or after fromTime. A segment's
+     * last record is taken as its latest, which only holds while the clock does not go backwards.
+     *
+     * @return whether there is a next segment
+     */
+    private boolean openNextSegment() throws IOException {
+        while (nextSegment < segments.size()) {
+            Path file = segments.get(nextSegment++);
+            MappedByteBuffer mapped;
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            } catch (NoSuchFileException e) {
+                /* deleted by the retention */
+                continue;
+            }
+            mapped.order(ByteOrder.LITTLE_ENDIAN);
+            if (mapped.capacity() < LfdJournal.HEADER_LENGTH || mapped.getInt(0) != LfdJournal.MAGIC
+                    || mapped.getInt(4) != LfdJournal.VERSION) {
+                throw new IOException(file + " is not a journal segment");
+            }
+            if (mapped.getLong(8) >= end) {
+                break;
+            }
+            int capacity = (mapped.capacity() - LfdJournal.HEADER_LENGTH) / LfdJournal.RECORD_LENGTH;
+
+            /* skip full segments ending before fromTime */
+            if (skipping && nextSegment < segments.size()) {
+                long lastTime = mapped.getLong(LfdJournal.HEADER_LENGTH + (capacity - 1) * LfdJournal.RECORD_LENGTH);
+                if (lastTime != 0 && lastTime < fromTime) {
+                    continue;
+                }
+            }
+
+            this.segment = mapped;
+            this.capacity = capacity;
+            this.index = -1;
+            return true;
+        }
+        segment = null;
+        nextSegment = segments.size();
+        return false;
+    }
+}
@@ -1,5 +1,7 @@
 package me.sschaeffner.lfd;
 
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
 /**
  * A single light.
  *
@@ -7,29 +9,29 @@ package me.sschaeffner.lfd;
  */
 public class LfdLight extends LfdObject {
 
+    private static final AtomicReferenceFieldUpdater<LfdLight, LfdLightState> STATE =
+            AtomicReferenceFieldUpdater.newUpdater(LfdLight.class, LfdLightState.class, "state");
+
     /* light's unique address */
-    private long address;
+    private final long address;
 
     /* light's human-readable name */
-    private String name;
+    private volatile String name;
 
-    /* whether the light is on at the moment */
-    private boolean on;
+    /* light's name as received from the bridge (to detect changes without decoding) */
+    private final byte[] nameAscii;
 
-    /* the current luminance of the light (off=0x00, full=0x64)*/
-    private byte luminance;
+    /* the light's current state, replaced as a whole on every change (may include commands not yet confirmed) */
+    private volatile LfdLightState state;
 
-    /* the current temperature of the light in Kelvin */
-    private short temperature;
+    /* the state last reported by the bridge (only written by the thread receiving packets) */
+    private volatile LfdLightState confirmedState;
 
-    /* the current red value of the light (off=0x00, full=0x64)*/
-    private byte r;
+    /* time the bridge reported this light's state last (System.nanoTime(), 0: never) */
+    private volatile long confirmedTime;
 
-    /* the current green value of the light (off=0x00, full=0x64)*/
-    private byte g;
-
-    /* the current blue value of the light (off=0x00, full=0x64)*/
-    private byte b;
+    /* the last status answer this light appeared in (only used by the thread receiving packets) */
+    int statusGeneration;
 
     /**
      * Constructs a new LfdLight object.
@@ -42,92 +44,79 @@ public class LfdLight extends LfdObject {
     LfdLight(LfdBridge lfdBridge, long address) {
         super(lfdBridge);
         this.address = address;
+        this.name = "";
+        this.nameAscii = new byte[PacketView.NAME_LENGTH];
+        this.state = LfdLightState.UNKNOWN;
+        this.confirmedState = LfdLightState.UNKNOWN;
     }
 
     @Override
-    protected void sendCommand(byte command, byte[] data) {
-        byte[] packet = new byte[16 + data.length];
-
-        int length = 14 + data.length;
-        byte lengthHi = (byte)((length >> 8) & 0xFF);
-        byte lengthLo = (byte)(length & 0xFF);
-
-        byte flag = 0x00;
-
-        byte sequence = lfdBridge.getNextSequence();
-
-        byte[] address = getAddressLittleEndian();
-
-        packet[0] = lengthLo;
-        packet[1] = lengthHi;
-        packet[2] = flag;
-        packet[3] = command;
-        packet[4] = (byte) 0x00;
-        packet[5] = (byte) 0x00;
-        packet[6] = (byte) 0x07;
-        packet[7] = sequence;
-        System.arraycopy(address, 0, packet, 8, 8);
-        System.arraycopy(data, 0, packet, 16, data.length);
+    byte getFlag() {
+        return PacketEncoder.FLAG_LIGHT;
+    }
 
-        lfdBridge.sendPacket(packet);
+    @Override
+    long getTarget() {
+        return address;
     }
 
     void setName(String name) {
         this.name = name;
     }
 
-    void setOn(boolean on) {
-        this.on = on;
+    byte[] getNameAscii() {
+        return nameAscii;
     }
 
-    void setLuminance(byte luminance) {
-        this.luminance = luminance;
+    LfdLightState getConfirmedState() {
+        return confirmedState;
     }
 
-    void setTemperature(short temperature) {
-        this.temperature = temperature;
-    }
-
-    void setR(byte r) {
-        this.r = r;
+    /**
+     * Sets the state reported by the bridge, replacing any state not yet confirmed.
+     */
+    void setConfirmedState(LfdLightState state, long time) {
+        this.confirmedState = state;
+        this.state = state;
+        this.confirmedTime = time;
     }
 
-    void setG(byte g) {
-        this.g = g;
+    /**
+     * Notes that the bridge reported an unchanged state. Discards any command not confirmed by it.
+     */
+    void confirmState(long time) {
+        if (state != confirmedState) {
+            state = confirmedState;
+        }
+        confirmedTime = time;
     }
 
-    void setB(byte b) {
-        this.b = b;
+    long getConfirmedTime() {
+        return confirmedTime;
     }
 
-    /**
-     * Returns this light's unique address as little endian.
-     * @return this light's address as little endian
-     */
-    private byte[] getAddressLittleEndian() {
-        byte lAdd1 = (byte) ((address >> 56) & 0xff);//MSB
-        byte lAdd2 = (byte) ((address >> 48) & 0xff);
-        byte lAdd3 = (byte) ((address >> 40) & 0xff);
-        byte lAdd4 = (byte) ((address >> 32) & 0xff);
-        byte lAdd5 = (byte) ((address >> 24) & 0xff);
-        byte lAdd6 = (byte) ((address >> 16) & 0xff);
-        byte lAdd7 = (byte) ((address >>  8) & 0xff);
-        byte lAdd8 = (byte) ((address      ) & 0xff);//LSB
-
-        return new byte[]{lAdd8, lAdd7, lAdd6, lAdd5, lAdd4, lAdd3, lAdd2, lAdd1};
+    @Override
+    void applyCommand(byte command, long data) {
+        LfdLightState current;
+        LfdLightState updated;
+        do {
+            current = state;
+            updated = current.apply(command, data);
+        } while (updated != current && !STATE.compareAndSet(this, current, updated));
     }
 
     @Override
     public String toString() {
+        LfdLightState state = this.state;
         return "LfdLight{" +
                 "address=0x" + Long.toHexString(address) +
                 ", name='" + name + '\'' +
-                ", on=" + on +
-                ", luminance=" + (luminance & 0xFF) +
-                ", temperature=" + temperature +
-                ", r=" + (r & 0xFF) +
-                ", g=" + (g & 0xFF) +
-                ", b=" + (b & 0xFF) +
+                ", on=" + state.isOn() +
+                ", luminance=" + (state.getLuminance() & 0xFF) +
+                ", temperature=" + state.getTemperature() +
+                ", r=" + (state.getR() & 0xFF) +
+                ", g=" + (state.getG() & 0xFF) +
+                ", b=" + (state.getB() & 0xFF) +
                 '}';
     }
 
@@ -147,12 +136,27 @@ public class LfdLight extends LfdObject {
         return name;
     }
 
+    /**
+     * Returns a consistent snapshot of this light's current state.
+     *
+     * Use this instead of the single getters when reading multiple values: the getters each read the
+     * latest state, which may change in between.
+     *
+     * Commands sent to the light (or one of its groups) are reflected right away; the next status
+     * answer replaces them with the state reported by the bridge.
+     *
+     * @return this light's current state
+     */
+    public LfdLightState getState() {
+        return state;
+    }
+
     /**
      * Returns true when the light is on, false when it is off.
      * @return whether the light is on at the moment
      */
     public boolean isOn() {
-        return on;
+        return state.isOn();
     }
 
     /**
@@ -160,7 +164,7 @@ public class LfdLight extends LfdObject {
      * @return this light's current luminance
      */
     public byte getLuminance() {
-        return luminance;
+        return state.getLuminance();
     }
 
     /**
@@ -168,7 +172,7 @@ public class LfdLight extends LfdObject {
      * @return this light's current colour temperature
      */
     public short getTemperature() {
-        return temperature;
+        return state.getTemperature();
     }
 
     /**
@@ -176,7 +180,7 @@ public class LfdLight extends LfdObject {
      * @return the red part of the light's current colour
      */
     public byte getR() {
-        return r;
+        return state.getR();
     }
 
     /**
@@ -184,7 +188,7 @@ public class LfdLight extends LfdObject {
      * @return the green part of the light's current colour
      */
     public byte getG() {
-        return g;
+        return state.getG();
     }
 
     /**
@@ -192,6 +196,6 @@ public class LfdLight extends LfdObject {
      * @return the blue part of the light's current colour
      */
     public byte getB() {
-        return b;
+        return state.getB();
     }
 }
@@ -0,0 +1,167 @@
+package me.sschaeffner.lfd;
+
+/**
+ * An immutable snapshot of a light's state.
+ *
+ * A light's state is replaced as a whole whenever it changes, so all values of a snapshot always
+ * belong together (e.g. a luminance is never seen together with the colour of an older state).
+ *
+ * @author Simon Schäffner (simon.schaeffner@googlemail.com)
+ */
+public final class LfdLightState {
+
+    /* the state of a light nothing is known about yet */
+    static final LfdLightState UNKNOWN = new LfdLightState(false, (byte) 0, (short) 0, (byte) 0, (byte) 0, (byte) 0);
+
+    /* whether the light is on */
+    private final boolean on;
+
+    /* the luminance of the light (off=0x00, full=0x64)*/
+    private final byte luminance;
+
+    /* the temperature of the light in Kelvin */
+    private final short temperature;
+
+    /* the red value of the light */
+    private final byte r;
+
+    /* the green value of the light */
+    private final byte g;
+
+    /* the blue value of the light */
+    private final byte b;
+
+    LfdLightState(boolean on, byte luminance, short temperature, byte r, byte g, byte b) {
+        this.on = on;
+        this.luminance = luminance;
+        this.temperature = temperature;
+        this.r = r;
+        this.g = g;
+        this.b = b;
+    }
+
+    /**
+     * Returns whether this state has the given values.
+     */
+    boolean matches(boolean on, byte luminance, short temperature, byte r, byte g, byte b) {
+        return this.on == on && this.luminance == luminance && this.temperature == temperature
+                && this.r == r && this.g == g && this.b == b;
+    }
+
+    /**
+     * Returns the state resulting from a command sent to the light.
+     *
+     * @param command   the command's opcode
+     * @param data      the command's data (little endian, as sent to the bridge)
+     * @return the new state, or this state when the command does not change it
+     */
+    LfdLightState apply(byte command, long data) {
+        boolean on = this.on;
+        byte luminance = this.luminance;
+        short temperature = this.temperature;
+        byte r = this.r;
+        byte g = this.g;
+        byte b = this.b;
+        switch (command) {
+            case LfdOpCodes.ONOFF:
+                on = (data & 0x01) != 0;
+                break;
+            case LfdOpCodes.LUMINANCE:
+                luminance = (byte) data;
+                break;
+            case LfdOpCodes.TEMPERATURE:
+                temperature = (short) data;
+                break;
+            case LfdOpCodes.COLOUR:
+                r = (byte) data;
+                g = (byte) (data >>> 8);
+                b = (byte) (data >>> 16);
+                break;
+            default:
+                return this;
+        }
+        if (matches(on, luminance, temperature, r, g, b)) {
+            return this;
+        }
+        return new LfdLightState(on, luminance, temperature, r, g, b);
+    }
+
+    /**
+     * Returns true when the light is on, false when it is off.
+     * @return whether the light is on
+     */
+    public boolean isOn() {
+        return on;
+    }
+
+    /**
+     * Returns the light's luminance (0-100).
+     * @return the light's luminance
+     */
+    public byte getLuminance() {
+        return luminance;
+    }
+
+    /**
+     * Returns the light's colour temperature in kelvin (2000-6500).
+     * @return the light's colour temperature
+     */
+    public short getTemperature() {
+        return temperature;
+    }
+
+    /**
+     * Returns the red part of the light's colour.
+     * @return the red part of the light's colour
+     */
+    public byte getR() {
+        return r;
+    }
+
+    /**
+     * Returns the green part of the light's colour.
+     * @return the green part of the light's colour
+     */
+    public byte getG() {
+        return g;
+    }
+
+    /**
+     * Returns the blue part of the light's colour.
+     * @return the blue part of the light's colour
+     */
+    public byte getB() {
+        return b;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof LfdLightState)) return false;
+        LfdLightState that = (LfdLightState) o;
+        return matches(that.on, that.luminance, that.temperature, that.r, that.g, that.b);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = on ? 1 : 0;
+        result = 31 * result + luminance;
+        result = 31 * result + temperature;
+        result = 31 * result + r;
+        result = 31 * result + g;
+        result = 31 * result + b;
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "LfdLightState{" +
+                "on=" + on +
+                ", luminance=" + (luminance & 0xFF) +
+                ", temperature=" + temperature +
+                ", r=" + (r & 0xFF) +
+                ", g=" + (g & 0xFF) +
+                ", b=" + (b & 0xFF) +
+                '}';
+    }
+}
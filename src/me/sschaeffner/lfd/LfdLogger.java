@@ -3,10 +3,106 @@ package me.sschaeffner.lfd;
 /**
  * Interface to a logger.
  *
+ * Besides plain messages, messages can be given as a format with {} placeholders and arguments, e.g.
+ * logger.debug("received {} lights", count). These are only formatted when the level is enabled, so
+ * disabled levels cost nothing but the check. Errors caused by an exception are logged with
+ * error(msg, throwable) so the stack trace is kept.
+ *
  * @author Simon Schäffner (simon.schaeffner@googlemail.com)
  */
 public interface LfdLogger {
+
+    /* a logger dropping all messages */
+    LfdLogger NONE = new LfdLogger() {
+        @Override
+        public void debug(String msg) {
+        }
+
+        @Override
+        public void info(String msg) {
+        }
+
+        @Override
+        public void error(String msg) {
+        }
+
+        @Override
+        public boolean isDebugEnabled() {
+            return false;
+        }
+
+        @Override
+        public boolean isInfoEnabled() {
+            return false;
+        }
+
+        @Override
+        public boolean isErrorEnabled() {
+            return false;
+        }
+    };
+
     void debug(String msg);
     void info(String msg);
     void error(String msg);
+
+    default boolean isDebugEnabled() {
+        return true;
+    }
+
+    default boolean isInfoEnabled() {
+        return true;
+    }
+
+    default boolean isErrorEnabled() {
+        return true;
+    }
+
+    default void debug(String format, Object arg) {
+        if (isDebugEnabled()) {
+            debug(LogFormat.format(format, arg));
+        }
+    }
+
+    default void debug(String format, Object arg1, Object arg2) {
+        if (isDebugEnabled()) {
+            debug(LogFormat.format(format, arg1, arg2));
+        }
+    }
+
+    default void info(String format, Object arg) {
+        if (isInfoEnabled()) {
+            info(LogFormat.format(format, arg));
+        }
+    }
+
+    default void info(String format, Object arg1, Object arg2) {
+        if (isInfoEnabled()) {
+            info(LogFormat.format(format, arg1, arg2));
+        }
+    }
+
+    default void error(String format, Object arg) {
+        if (isErrorEnabled()) {
+            error(LogFormat.format(format, arg));
+        }
+    }
+
+    default void error(String format, Object arg1, Object arg2) {
+        if (isErrorEnabled()) {
+            error(LogFormat.format(format, arg1, arg2));
+        }
+    }
+
+    /**
+     * Logs an error together with the stack trace of the throwable that caused it.
+     *
+     * @param msg       the message (not a format)
+     * @param throwable the cause of the error
+     */
+    default void error(String msg, Throwable throwable) {
+        if (isErrorEnabled()) {
+            error(msg + System.lineSeparator() + LogFormat.stackTrace(throwable));
+        }
+    }
 }
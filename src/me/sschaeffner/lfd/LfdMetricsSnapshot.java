@@ -0,0 +1,218 @@
+package me.sschaeffner.lfd;
+
+/**
+ * An immutable snapshot of a bridge's metrics (see LfdBridge.getMetrics()).
+ *
+ * Counters count from the construction of the bridge; use the difference of two snapshots to get
+ * rates. Gauges (requests in flight and waiting) hold the value at the time of the snapshot.
+ *
+ * @author Simon Schäffner (simon.schaeffner@googlemail.com)
+ */
+public final class LfdMetricsSnapshot {
+
+    /* the time the snapshot has been taken (System.currentTimeMillis()) */
+    private final long time;
+
+    private final LfdHistogram[] roundTrips;
+    private final LfdHistogram statusParseTime;
+    private final long bytesSent;
+    private final long bytesReceived;
+    private final long framesSent;
+    private final long framesReceived;
+    private final long framesTooShort;
+    private final long framesUnmatched;
+    private final long framesUnparsable;
+    private final long commandsCoalesced;
+    private final long commandsRateLimited;
+    private final long reconnects;
+    private final long timeouts;
+    private final int inFlight;
+    private final int waiting;
+
+    LfdMetricsSnapshot(long time, LfdHistogram[] roundTrips, LfdHistogram statusParseTime,
+                       long bytesSent, long bytesReceived, long framesSent, long framesReceived,
+                       long framesTooShort, long framesUnmatched, long framesUnparsable,
+                       long commandsCoalesced, long commandsRateLimited, long reconnects, long timeouts,
+                       int inFlight, int waiting) {
+        this.time = time;
+        this.roundTrips = roundTrips;
+        this.statusParseTime = statusParseTime;
+        this.bytesSent = bytesSent;
+        this.bytesReceived = bytesReceived;
+        this.framesSent = framesSent;
+        this.framesReceived = framesReceived;
+        this.framesTooShort = framesTooShort;
+        this.framesUnmatched = framesUnmatched;
+        this.framesUnparsable = framesUnparsable;
+        this.commandsCoalesced = commandsCoalesced;
+        this.commandsRateLimited = commandsRateLimited;
+        this.reconnects = reconnects;
+        this.timeouts = timeouts;
+        this.inFlight = inFlight;
+        this.waiting = waiting;
+    }
+
+    /**
+     * Returns the time the snapshot has been taken.
+     * @return the time in milliseconds since the epoch
+     */
+    public long getTime() {
+        return time;
+    }
+
+    /**
+     * Returns the round trip times of answered requests of the given type, from sending the request
+     * until its answer arrived.
+     *
+     * @param type  the type of request
+     * @return the round trip times
+     */
+    public LfdHistogram getRoundTrip(LfdRequest type) {
+        return roundTrips[type.ordinal()];
+    }
+
+    /**
+     * Returns the time it took to handle status answers (ALL_LIGHTS_STATUS), including notifying the
+     * change listeners.
+     *
+     * @return the parse times
+     */
+    public LfdHistogram getStatusParseTime() {
+        return statusParseTime;
+    }
+
+    /**
+     * Returns the amount of bytes sent to the bridge.
+     * @return the amount of bytes
+     */
+    public long getBytesSent() {
+        return bytesSent;
+    }
+
+    /**
+     * Returns the amount of bytes received from the bridge.
+     * @return the amount of bytes
+     */
+    public long getBytesReceived() {
+        return bytesReceived;
+    }
+
+    public long getFramesSent() {
+        return framesSent;
+    }
+
+    public long getFramesReceived() {
+        return framesReceived;
+    }
+
+    /**
+     * Returns the amount of received frames which were dropped because they were too short, did not
+     * answer any request in flight or could not be parsed (the sum of the three counters below).
+     * Acknowledgements of commands sent without waiting for an answer are not dropped frames.
+     *
+     * @return the amount of dropped frames
+     */
+    public long getFramesDropped() {
+        return framesTooShort + framesUnmatched + framesUnparsable;
+    }
+
+    /**
+     * Returns the amount of received frames too short to carry a header.
+     * @return the amount of frames too short
+     */
+    public long getFramesTooShort() {
+        return framesTooShort;
+    }
+
+    /**
+     * Returns the amount of received frames that did not answer any request in flight (e.g. late
+     * answers to timed out requests).
+     *
+     * @return the amount of unmatched frames
+     */
+    public long getFramesUnmatched() {
+        return framesUnmatched;
+    }
+
+    /**
+     * Returns the amount of answers that could not be parsed (the request failed).
+     * @return the amount of unparsable frames
+     */
+    public long getFramesUnparsable() {
+        return framesUnparsable;
+    }
+
+    /**
+     * Returns the amount of rate limited commands replaced by a newer command before being sent.
+     * @return the amount of coalesced commands
+     */
+    public long getCommandsCoalesced() {
+        return commandsCoalesced;
+    }
+
+    /**
+     * Returns the amount of commands which had to wait for the rate limits (see setCommandRate()).
+     * Commands sent right away while limits are set are not counted.
+     * @return the amount of rate limited commands
+     */
+    public long getCommandsRateLimited() {
+        return commandsRateLimited;
+    }
+
+    /**
+     * Returns the amount of times a lost connection has been established again.
+     * @return the amount of reconnects
+     */
+    public long getReconnects() {
+        return reconnects;
+    }
+
+    /**
+     * Returns the amount of requests that failed because their answer did not arrive in time.
+     * @return the amount of timeouts
+     */
+    public long getTimeouts() {
+        return timeouts;
+    }
+
+    /**
+     * Returns the amount of requests waiting for their answer.
+     * @return the amount of requests in flight
+     */
+    public int getInFlight() {
+        return inFlight;
+    }
+
+    /**
+     * Returns the amount of requests waiting for a free slot in the request window.
+     * @return the amount of waiting requests
+     */
+    public int getWaiting() {
+        return waiting;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder roundTrips = new StringBuilder();
+        for (LfdRequest type : LfdRequest.values()) {
+            roundTrips.append(", ").append(type).append('=').append(getRoundTrip(type));
+        }
+        return "LfdMetricsSnapshot{" +
+                "bytesSent=" + bytesSent +
+                ", bytesReceived=" + bytesReceived +
+                ", framesSent=" + framesSent +
+                ", framesReceived=" + framesReceived +
+                ", framesTooShort=" + framesTooShort +
+                ", framesUnmatched=" + framesUnmatched +
+                ", framesUnparsable=" + framesUnparsable +
+                ", commandsCoalesced=" + commandsCoalesced +
+                ", commandsRateLimited=" + commandsRateLimited +
+                ", reconnects=" + reconnects +
+                ", timeouts=" + timeouts +
+                ", inFlight=" + inFlight +
+                ", waiting=" + waiting +
+                roundTrips +
+                ", statusParseTime=" + statusParseTime +
+                '}';
+    }
+}
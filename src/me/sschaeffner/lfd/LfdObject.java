@@ -1,5 +1,7 @@
 package me.sschaeffner.lfd;
 
+import java.util.concurrent.CompletableFuture;
+
 /**
  * A lfd object. Either a single light or a group of lights.
  *
@@ -7,32 +9,102 @@ package me.sschaeffner.lfd;
  */
 public abstract class LfdObject {
 
+    /* lengths of the commands' data */
+    private static final int ONOFF_LENGTH = 1;
+    private static final int TEMPERATURE_LENGTH = 4;
+    private static final int LUMINANCE_LENGTH = 3;
+    private static final int COLOUR_LENGTH = 6;
+
     /* reference to the LfdBridge object */
     protected final LfdBridge lfdBridge;
 
+    /* commands waiting to be sent when the bridge's commands are rate limited */
+    final CommandQueue.PendingCommands pendingCommands;
+
     /**
      * Abstract class.
      * @param lfdBridge  reference to the LfdBridge object
      */
     LfdObject(LfdBridge lfdBridge) {
         this.lfdBridge = lfdBridge;
+        this.pendingCommands = new CommandQueue.PendingCommands();
     }
 
     /**
      * Sends a command to the bridge.
      *
+     * When the bridge's commands are rate limited, the command may be delayed and replaced by a later
+     * command with the same opcode.
+     *
+     * @param command     the command's opcode
+     * @param data        additional data (little endian)
+     * @param dataLength  length of the additional data in bytes
+     */
+    void sendCommand(byte command, long data, int dataLength) {
+        applyCommand(command, data);
+        lfdBridge.getCommandQueue().submit(this, command, data, dataLength);
+    }
+
+    /**
+     * Sends a command to the bridge.
+     *
+     * @param command     the command's opcode
+     * @param sequence    the packet's sequence
+     * @param data        additional data (little endian)
+     * @param dataLength  length of the additional data in bytes
+     */
+    void sendCommand(byte command, byte sequence, long data, int dataLength) {
+        lfdBridge.sendPacket(getFlag(), command, sequence, getTarget(), PacketEncoder.TARGET_LENGTH, data, dataLength);
+    }
+
+    /**
+     * Sends a command to the bridge and returns a future completing when the bridge acknowledges it.
+     *
+     * @param command     the command's opcode
+     * @param data        additional data (little endian)
+     * @param dataLength  length of the additional data in bytes
+     * @return a future completing on the bridge's response
+     */
+    CompletableFuture<Void> sendCommandAsync(final byte command, final long data, final int dataLength) {
+        applyCommand(command, data);
+        return lfdBridge.submitRequest(LfdRequest.COMMAND, command, sequence -> sendCommand(command, sequence, data, dataLength));
+    }
+
+    /**
+     * Returns the flag of packets sent to this object.
+     * @return PacketEncoder.FLAG_LIGHT or PacketEncoder.FLAG_GROUP
+     */
+    abstract byte getFlag();
+
+    /**
+     * Returns the target of packets sent to this object (a light's address or a group's id).
+     * @return this object's address as sent to the bridge
+     */
+    abstract long getTarget();
+
+    /**
+     * Updates the local state of the lights affected by a command sent to the bridge.
+     *
      * @param command   the command's opcode
-     * @param data      additional data
+     * @param data      the command's data (little endian)
      */
-    protected abstract void sendCommand(byte command, byte[] data);
+    abstract void applyCommand(byte command, long data);
 
     /**
      * Sends an On/Off command to the bridge.
      * @param on    whether the light should be on
      */
     public void sendOnOff(boolean on) {
-        byte onOff = on ? (byte)0x01 : (byte)0x00;
-        sendCommand(LfdOpCodes.ONOFF, new byte[]{onOff});
+        sendCommand(LfdOpCodes.ONOFF, onOffData(on), ONOFF_LENGTH);
+    }
+
+    /**
+     * Sends an On/Off command to the bridge without blocking.
+     * @param on    whether the light should be on
+     * @return a future completing when the bridge acknowledges the command
+     */
+    public CompletableFuture<Void> sendOnOffAsync(boolean on) {
+        return sendCommandAsync(LfdOpCodes.ONOFF, onOffData(on), ONOFF_LENGTH);
     }
 
     /**
@@ -41,11 +113,17 @@ public abstract class LfdObject {
      * @param time          the fade time in 1/10s
      */
     public void sendTemperature(short temperature, short time) {
-        byte temperatureHi = (byte)((temperature >> 8) & 0xFF);
-        byte temperatureLo = (byte)(temperature & 0xFF);
-        byte timeHi = (byte)((time >> 8) & 0xFF);
-        byte timeLo = (byte)(time & 0xFF);
-        sendCommand(LfdOpCodes.TEMPERATURE, new byte[]{temperatureLo, temperatureHi, timeLo, timeHi});
+        sendCommand(LfdOpCodes.TEMPERATURE, temperatureData(temperature, time), TEMPERATURE_LENGTH);
+    }
+
+    /**
+     * Sends a colour temperature command to the bridge (2000-6500 kelvin) without blocking.
+     * @param temperature   the colour temperature in kelvin
+     * @param time          the fade time in 1/10s
+     * @return a future completing when the bridge acknowledges the command
+     */
+    public CompletableFuture<Void> sendTemperatureAsync(short temperature, short time) {
+        return sendCommandAsync(LfdOpCodes.TEMPERATURE, temperatureData(temperature, time), TEMPERATURE_LENGTH);
     }
 
     /**
@@ -54,9 +132,17 @@ public abstract class LfdObject {
      * @param time      the fade time in 1/10s
      */
     public void sendLuminance(byte luminance, short time) {
-        byte timeHi = (byte)((time >> 8) & 0xFF);
-        byte timeLo = (byte)(time & 0xFF);
-        sendCommand(LfdOpCodes.LUMINANCE, new byte[]{luminance, timeLo, timeHi});
+        sendCommand(LfdOpCodes.LUMINANCE, luminanceData(luminance, time), LUMINANCE_LENGTH);
+    }
+
+    /**
+     * Sends a luminance command to the bridge (0-100) without blocking.
+     * @param luminance the luminance in percent
+     * @param time      the fade time in 1/10s
+     * @return a future completing when the bridge acknowledges the command
+     */
+    public CompletableFuture<Void> sendLuminanceAsync(byte luminance, short time) {
+        return sendCommandAsync(LfdOpCodes.LUMINANCE, luminanceData(luminance, time), LUMINANCE_LENGTH);
     }
 
     /**
@@ -67,8 +153,34 @@ public abstract class LfdObject {
      * @param time  the fade time in 1/10s
      */
     public void sendColour(byte r, byte g, byte b, short time) {
-        byte timeHi = (byte)((time >> 8) & 0xFF);
-        byte timeLo = (byte)(time & 0xFF);
-        sendCommand(LfdOpCodes.COLOUR, new byte[]{r, g, b, (byte)0xFF, timeLo, timeHi});
+        sendCommand(LfdOpCodes.COLOUR, colourData(r, g, b, time), COLOUR_LENGTH);
+    }
+
+    /**
+     * Sends a colour command to the bridge without blocking.
+     * @param r     red (0-255)
+     * @param g     green (0-255)
+     * @param b     blue (0-255)
+     * @param time  the fade time in 1/10s
+     * @return a future completing when the bridge acknowledges the command
+     */
+    public CompletableFuture<Void> sendColourAsync(byte r, byte g, byte b, short time) {
+        return sendCommandAsync(LfdOpCodes.COLOUR, colourData(r, g, b, time), COLOUR_LENGTH);
+    }
+
+    private static long onOffData(boolean on) {
+        return on ? 0x01 : 0x00;
+    }
+
+    private static long temperatureData(short temperature, short time) {
+        return (temperature & 0xFFFFL) | (time & 0xFFFFL) << 16;
+    }
+
+    private static long luminanceData(byte luminance, short time) {
+        return (luminance & 0xFFL) | (time & 0xFFFFL) << 8;
+    }
+
+    private static long colourData(byte r, byte g, byte b, short time) {
+        return (r & 0xFFL) | (g & 0xFFL) << 8 | (b & 0xFFL) << 16 | 0xFFL << 24 | (time & 0xFFFFL) << 32;
     }
 }
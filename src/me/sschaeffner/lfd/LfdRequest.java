@@ -1,13 +1,13 @@
 package me.sschaeffner.lfd;
 
 /**
- * Which request was sent to the bridge last.
+ * The type of a request waiting for an answer from the bridge.
  *
  * @author Simon Schäffner (simon.schaeffner@googlemail.com)
  */
-enum LfdRequest {
-    NONE,
+public enum LfdRequest {
     GROUP_LIST,
     GROUP_INFO,
-    ALL_LIGHTS_STATUS
+    ALL_LIGHTS_STATUS,
+    COMMAND
 }
@@ -0,0 +1,107 @@
+package me.sschaeffner.lfd;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * An immutable snapshot of the states of a set of lights that can be restored later.
+ *
+ * Restoring a scene sends as few commands as possible: lights already in their captured state are
+ * skipped, and when all lights of a group are to be set to the same value a single group command is
+ * sent instead of one command per light (see LfdBulkUpdate).
+ *
+ * @author Simon Schäffner (simon.schaeffner@googlemail.com)
+ */
+public final class LfdScene {
+
+    /* the captured lights */
+    private final LfdLight[] lights;
+
+    /* the captured states, indexed like the lights */
+    private final LfdLightState[] states;
+
+    /* index of every captured light (by address) */
+    private final LongObjectMap<Integer> indices;
+
+    private LfdScene(LfdLight[] lights, LfdLightState[] states) {
+        this.lights = lights;
+        this.states = states;
+        this.indices = new LongObjectMap<>(lights.length);
+        for (int i = 0; i < lights.length; i++) {
+            indices.put(lights[i].getAddress(), i);
+        }
+    }
+
+    /**
+     * Captures the current states of the given lights as known locally (see LfdBridge.readLightState()
+     * to make sure they are recent). Lights the bridge has not reported yet are left out.
+     *
+     * @param lights the lights
+     * @return the scene
+     */
+    public static LfdScene capture(List<LfdLight> lights) {
+        LfdLight[] captured = new LfdLight[lights.size()];
+        LfdLightState[] states = new LfdLightState[captured.length];
+        int size = 0;
+        for (LfdLight light : lights) {
+            LfdLightState state = light.getState();
+            /* lights never reported by the bridge have no state to restore */
+            if (state != LfdLightState.UNKNOWN) {
+                captured[size] = light;
+                states[size] = state;
+                size++;
+            }
+        }
+        return new LfdScene(Arrays.copyOf(captured, size), Arrays.copyOf(states, size));
+    }
+
+    /**
+     * Captures the current states of all lights of a bridge as known locally.
+     *
+     * @param bridge the bridge
+     * @return the scene
+     */
+    public static LfdScene capture(LfdBridge bridge) {
+        return capture(bridge.getLights());
+    }
+
+    /**
+     * Returns the captured state of a light.
+     *
+     * @param address the light's address
+     * @return the light's captured state or null when the light is not part of this scene
+     */
+    public LfdLightState getState(long address) {
+        Integer index = indices.get(address);
+        return index != null ? states[index] : null;
+    }
+
+    /**
+     * Returns the amount of lights in this scene.
+     * @return the amount of lights
+     */
+    public int size() {
+        return lights.length;
+    }
+
+    /**
+     * Restores the captured states, sending only the commands needed to get from the current states
+     * there (see LfdBulkUpdate). All commands are sent in a single batch per bridge.
+     *
+     * @param time  the fade time in 1/10s
+     * @return the amount of commands sent
+     */
+    public int restore(short time) {
+        LfdBulkUpdate update = new LfdBulkUpdate();
+        for (int i = 0; i < lights.length; i++) {
+            LfdLightState state = states[i];
+            /* lights captured while off are only switched off */
+            if (state.isOn()) {
+                update.set(lights[i]).setState(state);
+            } else {
+                update.set(lights[i]).setOn(false);
+            }
+        }
+        return update.send(time, true);
+    }
+}
@@ -0,0 +1,65 @@
+package me.sschaeffner.lfd;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * An immutable snapshot of the bridge's groups and the lights belonging to them.
+ *
+ * @author Simon Schäffner (simon.schaeffner@googlemail.com)
+ */
+public final class LfdTopology {
+
+    /* the topology of a bridge nothing has been loaded from yet */
+    static final LfdTopology EMPTY = new LfdTopology(Collections.<LfdGroup>emptyList(), new LongObjectMap<List<LfdGroup>>(), 0);
+
+    /* all groups */
+    private final List<LfdGroup> groups;
+
+    /* the groups of every light belonging to at least one group (by address) */
+    private final LongObjectMap<List<LfdGroup>> lightGroups;
+
+    /* time it took to load the topology in nanoseconds */
+    private final long loadTime;
+
+    LfdTopology(List<LfdGroup> groups, LongObjectMap<List<LfdGroup>> lightGroups, long loadTime) {
+        this.groups = Collections.unmodifiableList(groups);
+        this.lightGroups = lightGroups;
+        this.loadTime = loadTime;
+    }
+
+    /**
+     * Returns all groups.
+     * @return an unmodifiable list of all groups
+     */
+    public List<LfdGroup> getGroups() {
+        return groups;
+    }
+
+    /**
+     * Returns the groups a light belongs to.
+     *
+     * @param address the light's address
+     * @return an unmodifiable list of the light's groups (empty when it does not belong to any group)
+     */
+    public List<LfdGroup> getGroupsOf(long address) {
+        List<LfdGroup> groups = lightGroups.get(address);
+        return groups != null ? Collections.unmodifiableList(groups) : Collections.<LfdGroup>emptyList();
+    }
+
+    /**
+     * Returns the time it took to load this topology from the bridge.
+     * @return the load time in milliseconds
+     */
+    public double getLoadTime() {
+        return loadTime / 1e6;
+    }
+
+    @Override
+    public String toString() {
+        return "LfdTopology{" +
+                "groups=" + groups +
+                ", loadTime=" + getLoadTime() + "ms" +
+                '}';
+    }
+}
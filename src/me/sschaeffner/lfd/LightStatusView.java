@@ -0,0 +1,87 @@
+package me.sschaeffner.lfd;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A view of an ALL_LIGHTS_STATUS answer: a list of 50 byte records, one per light.
+ *
+ * @author Simon Schäffner (simon.schaeffner@googlemail.com)
+ */
+final class LightStatusView extends PacketView {
+
+    /* length of a light's record */
+    private static final int RECORD_LENGTH = 50;
+
+    /* amount of lights in the packet */
+    private int count;
+
+    /* absolute offset of the selected record */
+    private int pos;
+
+    /**
+     * Points this view to a packet and checks its length.
+     *
+     * @param packet a buffer holding the packet between its position and limit
+     * @throws LfdException when the packet is too short
+     */
+    void wrapChecked(ByteBuffer packet) throws LfdException {
+        wrap(packet);
+        if (packet.remaining() < HEADER_LENGTH + 2) {
+            throw new LfdException("received packet but too short for all lights status packet");
+        }
+
+        count = packet.getShort(base + HEADER_LENGTH) & 0xFFFF;
+
+        if (packet.remaining() < HEADER_LENGTH + 2 + (RECORD_LENGTH * count)) {
+            throw new LfdException("corrupt all lights status packet: too short");
+        }
+    }
+
+    int count() {
+        return count;
+    }
+
+    /**
+     * Selects the record of the light with the given index.
+     * @param index the index of the light (0 to count() - 1)
+     */
+    void select(int index) {
+        pos = base + HEADER_LENGTH + 2 + (RECORD_LENGTH * index);
+    }
+
+    long address() {
+        return packet.getLong(pos + 2);
+    }
+
+    boolean on() {
+        return packet.get(pos + 18) == (byte)0x01;
+    }
+
+    byte luminance() {
+        return packet.get(pos + 19);
+    }
+
+    short temperature() {
+        return packet.getShort(pos + 20);
+    }
+
+    byte r() {
+        return packet.get(pos + 22);
+    }
+
+    byte g() {
+        return packet.get(pos + 23);
+    }
+
+    byte b() {
+        return packet.get(pos + 24);
+    }
+
+    boolean nameEquals(byte[] name) {
+        return nameEquals(pos + 26, name);
+    }
+
+    void copyName(byte[] name) {
+        copyName(pos + 26, name);
+    }
+}
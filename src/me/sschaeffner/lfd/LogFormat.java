@@ -0,0 +1,45 @@
+package me.sschaeffner.lfd;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+/**
+ * Formats log messages given as a format with {} placeholders.
+ *
+ * Every {} is replaced by the next argument; placeholders without argument are kept as they are.
+ *
+ * @author Simon Schäffner (simon.schaeffner@googlemail.com)
+ */
+final class LogFormat {
+
+    private LogFormat() {
+    }
+
+    static String format(String format, Object arg) {
+        return format(format, arg, null, 1);
+    }
+
+    static String format(String format, Object arg1, Object arg2) {
+        return format(format, arg1, arg2, 2);
+    }
+
+    static String stackTrace(Throwable throwable) {
+        StringWriter trace = new StringWriter();
+        throwable.printStackTrace(new PrintWriter(trace));
+        return trace.toString();
+    }
+
+    private static String format(String format, Object arg1, Object arg2, int args) {
+        StringBuilder message = new StringBuilder(format.length() + 32);
+        int start = 0;
+        for (int i = 0; i < args; i++) {
+            int placeholder = format.indexOf("{}", start);
+            if (placeholder < 0) {
+                break;
+            }
+            message.append(format, start, placeholder).append(i == 0 ? arg1 : arg2);
+            start = placeholder + 2;
+        }
+        return message.append(format, start, format.length()).toString();
+    }
+}
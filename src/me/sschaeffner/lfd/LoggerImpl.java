@@ -3,10 +3,13 @@ package me.sschaeffner.lfd;
 /**
  * A simple Logger Implementation writing to System.out.
  *
+ * Writing to System.out blocks while the console is busy; wrap this logger in an LfdAsyncLogger to
+ * keep that off the threads handling the connection.
+ *
  * @author Simon Schäffner (simon.schaeffner@googlemail.com)
  */
 public class LoggerImpl implements LfdLogger {
-    private Loglevel level;
+    private volatile Loglevel level;
 
     public LoggerImpl(Loglevel level) {
         this.level = level;
@@ -15,13 +18,13 @@ public class LoggerImpl implements LfdLogger {
 
     @Override
     public void debug(String msg) {
-        if (level == Loglevel.DEBUG)
+        if (isDebugEnabled())
             System.out.println("[Lfd][Debug] " + msg);
     }
 
     @Override
     public void info(String msg) {
-        if (level == Loglevel.DEBUG || level == Loglevel.INFO)
+        if (isInfoEnabled())
             System.out.println("[Lfd][Info] " + msg);
 
     }
@@ -31,6 +34,16 @@ public class LoggerImpl implements LfdLogger {
         System.out.println("[Lfd][Error] " + msg);
     }
 
+    @Override
+    public boolean isDebugEnabled() {
+        return level == Loglevel.DEBUG;
+    }
+
+    @Override
+    public boolean isInfoEnabled() {
+        return level == Loglevel.DEBUG || level == Loglevel.INFO;
+    }
+
     public void setLevel(Loglevel level) {
         this.level = level;
     }
@@ -0,0 +1,204 @@
+package me.sschaeffner.lfd;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A hash map with primitive long keys (open addressing with linear probing).
+ *
+ * Unlike a HashMap&lt;Long, V&gt; neither lookups nor insertions box their key and no entry objects
+ * are allocated. Null values are not supported. Not thread-safe.
+ *
+ * @author Simon Schäffner (simon.schaeffner@googlemail.com)
+ */
+final class LongObjectMap<V> {
+
+    /* the initial capacity (a power of two) */
+    private static final int INITIAL_CAPACITY = 16;
+
+    /* keys of the entries */
+    private long[] keys;
+
+    /* values of the entries (null marks an empty slot) */
+    private V[] values;
+
+    /* amount of entries */
+    private int size;
+
+    LongObjectMap() {
+        this(INITIAL_CAPACITY);
+    }
+
+    /**
+     * Constructs a new LongObjectMap.
+     *
+     * @param expectedSize the amount of entries to make room for
+     */
+    LongObjectMap(int expectedSize) {
+        int capacity = INITIAL_CAPACITY;
+        while (capacity * 3 / 4 < expectedSize) {
+            capacity <<= 1;
+        }
+        this.keys = new long[capacity];
+        this.values = newArray(capacity);
+    }
+
+    /**
+     * Returns the value mapped to the given key.
+     *
+     * @param key   the key
+     * @return the value or null when there is none
+     */
+    V get(long key) {
+        int mask = keys.length - 1;
+        for (int i = slot(key, mask); ; i = (i + 1) & mask) {
+            V value = values[i];
+            if (value == null || keys[i] == key) {
+                return value;
+            }
+        }
+    }
+
+    /**
+     * Maps a key to a value.
+     *
+     * @param key   the key
+     * @param value the value (not null)
+     * @return the value previously mapped to the key or null when there was none
+     */
+    V put(long key, V value) {
+        if (value == null) {
+            throw new NullPointerException("value");
+        }
+        if ((size + 1) * 4 > keys.length * 3) {
+            resize(keys.length << 1);
+        }
+        int mask = keys.length - 1;
+        for (int i = slot(key, mask); ; i = (i + 1) & mask) {
+            V previous = values[i];
+            if (previous == null) {
+                keys[i] = key;
+                values[i] = value;
+                size++;
+                return null;
+            }
+            if (keys[i] == key) {
+                values[i] = value;
+                return previous;
+            }
+        }
+    }
+
+    /**
+     * Removes the value mapped to the given key.
+     *
+     * @param key   the key
+     * @return the removed value or null when there was none
+     */
+    V remove(long key) {
+        int mask = keys.length - 1;
+        int i = slot(key, mask);
+        while (values[i] != null && keys[i] != key) {
+            i = (i + 1) & mask;
+        }
+        V removed = values[i];
+        if (removed == null) {
+            return null;
+        }
+
+        /* shift following entries of the same probe sequence back into the gap */
+        int gap = i;
+        for (int j = (gap + 1) & mask; values[j] != null; j = (j + 1) & mask) {
+            int home = slot(keys[j], mask);
+            if (((j - home) & mask) >= ((j - gap) & mask)) {
+                keys[gap] = keys[j];
+                values[gap] = values[j];
+                gap = j;
+            }
+        }
+        values[gap] = null;
+        size--;
+        return removed;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Returns the amount of slots; use with keyAt() and valueAt() to iterate without allocating.
+     *
+     * @return the amount of slots
+     */
+    int capacity() {
+        return keys.length;
+    }
+
+    long keyAt(int slot) {
+        return keys[slot];
+    }
+
+    /**
+     * Returns the value in the given slot.
+     *
+     * @param slot  the slot (0 to capacity() - 1)
+     * @return the value or null when the slot is empty
+     */
+    V valueAt(int slot) {
+        return values[slot];
+    }
+
+    /**
+     * Returns a list of all values.
+     *
+     * @return a new list holding all values
+     */
+    List<V> values() {
+        ArrayList<V> list = new ArrayList<>(size);
+        for (V value : values) {
+            if (value != null) {
+                list.add(value);
+            }
+        }
+        return list;
+    }
+
+    /**
+     * Returns a copy of this map.
+     *
+     * @param expectedSize the amount of entries the copy has to make room for
+     * @return a new map holding the same entries
+     */
+    LongObjectMap<V> copy(int expectedSize) {
+        LongObjectMap<V> copy = new LongObjectMap<>(Math.max(expectedSize, size));
+        for (int i = 0; i < keys.length; i++) {
+            if (values[i] != null) {
+                copy.put(keys[i], values[i]);
+            }
+        }
+        return copy;
+    }
+
+    private void resize(int capacity) {
+        long[] oldKeys = keys;
+        V[] oldValues = values;
+        keys = new long[capacity];
+        values = newArray(capacity);
+        size = 0;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldValues[i] != null) {
+                put(oldKeys[i], oldValues[i]);
+            }
+        }
+    }
+
+    private static int slot(long key, int mask) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <V> V[] newArray(int capacity) {
+        return (V[]) new Object[capacity];
+    }
+}
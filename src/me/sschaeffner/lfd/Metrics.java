@@ -0,0 +1,118 @@
+package me.sschaeffner.lfd;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Collects a bridge's metrics.
+ *
+ * Everything is recorded through LongAdders and Histograms, so recording neither locks nor allocates
+ * and can be done on the hot path.
+ *
+ * @author Simon Schäffner (simon.schaeffner@googlemail.com)
+ */
+final class Metrics {
+
+    /* round trip times by request type (indexed by ordinal) */
+    private final Histogram[] roundTrips;
+
+    /* time it took to handle status answers */
+    private final Histogram statusParseTime;
+
+    /* traffic (bytes including the length prefix) */
+    private final LongAdder bytesSent;
+    private final LongAdder bytesReceived;
+    private final LongAdder framesSent;
+    private final LongAdder framesReceived;
+
+    /* received frames dropped because they were too short, did not match a request or could not be parsed */
+    private final LongAdder framesTooShort;
+    private final LongAdder framesUnmatched;
+    private final LongAdder framesUnparsable;
+
+    /* commands replaced by a newer command while waiting in the command queue */
+    private final LongAdder commandsCoalesced;
+
+    /* commands held back by the command rate limits */
+    private final LongAdder commandsRateLimited;
+
+    /* connections established again after they had been lost */
+    private final LongAdder reconnects;
+
+    Metrics() {
+        this.roundTrips = new Histogram[LfdRequest.values().length];
+        for (int i = 0; i < roundTrips.length; i++) {
+            roundTrips[i] = new Histogram();
+        }
+        this.statusParseTime = new Histogram();
+        this.bytesSent = new LongAdder();
+        this.bytesReceived = new LongAdder();
+        this.framesSent = new LongAdder();
+        this.framesReceived = new LongAdder();
+        this.framesTooShort = new LongAdder();
+        this.framesUnmatched = new LongAdder();
+        this.framesUnparsable = new LongAdder();
+        this.commandsCoalesced = new LongAdder();
+        this.commandsRateLimited = new LongAdder();
+        this.reconnects = new LongAdder();
+    }
+
+    void recordRoundTrip(LfdRequest type, long nanos) {
+        roundTrips[type.ordinal()].record(nanos);
+    }
+
+    void recordStatusParseTime(long nanos) {
+        statusParseTime.record(nanos);
+    }
+
+    void frameSent(int length) {
+        framesSent.increment();
+        bytesSent.add(length);
+    }
+
+    void frameReceived(int length) {
+        framesReceived.increment();
+        bytesReceived.add(length);
+    }
+
+    void frameTooShort() {
+        framesTooShort.increment();
+    }
+
+    void frameUnmatched() {
+        framesUnmatched.increment();
+    }
+
+    void frameUnparsable() {
+        framesUnparsable.increment();
+    }
+
+    void commandCoalesced() {
+        commandsCoalesced.increment();
+    }
+
+    void commandRateLimited() {
+        commandsRateLimited.increment();
+    }
+
+    void reconnected() {
+        reconnects.increment();
+    }
+
+    /**
+     * Takes a snapshot of all metrics.
+     *
+     * @param requests  the bridge's request table (for the gauges)
+     * @return the snapshot
+     */
+    LfdMetricsSnapshot snapshot(RequestTable requests) {
+        LfdHistogram[] roundTrips = new LfdHistogram[this.roundTrips.length];
+        for (int i = 0; i < roundTrips.length; i++) {
+            roundTrips[i] = this.roundTrips[i].snapshot();
+        }
+        return new LfdMetricsSnapshot(System.currentTimeMillis(), roundTrips, statusParseTime.snapshot(),
+                bytesSent.sum(), bytesReceived.sum(), framesSent.sum(), framesReceived.sum(),
+                framesTooShort.sum(), framesUnmatched.sum(), framesUnparsable.sum(),
+                commandsCoalesced.sum(), commandsRateLimited.sum(), reconnects.sum(), requests.getTimeouts(),
+                requests.getInFlight(), requests.getWaiting());
+    }
+}
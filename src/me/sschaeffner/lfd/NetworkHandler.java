@@ -1,18 +1,23 @@
 package me.sschaeffner.lfd;
 
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * Handles the "low level" networking.
  *
  * @author Simon Schäffner (simon.schaeffner@googlemail.com)
  */
-final class NetworkHandler {
-    /* Default LfdBridge port */
-    private static final int PORT = 4000;
+final class NetworkHandler implements Transport {
+
+    /* initial size of the send buffer */
+    private static final int SEND_BUFFER_CAPACITY = 1024;
 
     /* PacketReceiver instance that all received packets are passed on to */
     private final PacketReceiver packetReceiver;
@@ -26,6 +31,15 @@ final class NetworkHandler {
     /*Socket's InputStream */
     private final InputStream is;
 
+    /* packets not sent yet (little endian, guarded by this) */
+    private ByteBuffer sendBuffer;
+
+    /* hook closing the socket when the JVM exits */
+    private final Thread shutdownHook;
+
+    /* whether the connection has been lost or shut down (the receiver is told only once) */
+    private final AtomicBoolean closed;
+
 
     /**
      * Constructs a new NetworkHandler.
@@ -39,6 +53,18 @@ final class NetworkHandler {
         this.socket = new Socket(host, PORT);
         this.os = socket.getOutputStream();
         this.is = socket.getInputStream();
+        this.sendBuffer = ByteBuffer.allocate(SEND_BUFFER_CAPACITY).order(ByteOrder.LITTLE_ENDIAN);
+        this.closed = new AtomicBoolean();
+        this.shutdownHook = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    shutdown();
+                } catch (IOException e) {
+                    packetReceiver.onConnectionLost(e);
+                }
+            }
+        };
 
         startListenerThread();
     }
@@ -50,57 +76,100 @@ final class NetworkHandler {
         Thread t = new Thread(new Runnable() {
             @Override
             public void run() {
-                byte[] buffer = new byte[1024];
+                FrameDecoder decoder = new FrameDecoder(packetReceiver, false);
                 int bytesRead;
                 try {
-                    while ((bytesRead = is.read(buffer)) != -1) {
-                        int length = (buffer[1] << 8) + (buffer[0]);
-                        if (length == bytesRead - 2) {
-                            byte[] input = new byte[bytesRead - 2];
-                            System.arraycopy(buffer, 2, input, 0, bytesRead - 2);
-                            packetReceiver.onPacketReceive(input);
-
-                            if (packetReceiver.toBeNotifiedOnPacketReceived()) {
-                                synchronized (packetReceiver) {
-                                    packetReceiver.notifyAll();
-                                }
-                            }
+                    while (true) {
+                        ByteBuffer buffer = decoder.buffer();
+                        bytesRead = is.read(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+                        if (bytesRead == -1) {
+                            connectionLost(new EOFException("connection closed by bridge"));
+                            return;
                         }
+                        buffer.position(buffer.position() + bytesRead);
+                        decoder.decode();
                     }
                 } catch (IOException e) {
-                    e.printStackTrace();
+                    connectionLost(e);
                 }
             }
-        });
+        }, "lfd-listener");
         t.start();
-        Runtime.getRuntime().addShutdownHook(new Thread(){
-            @Override
-            public void run() {
-                try {
-                    shutdown();
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
-            }
-        });
+        Runtime.getRuntime().addShutdownHook(shutdownHook);
     }
 
     /**
-     * Sends a packet to the bridge.
-     * @param packet a packet
+     * Encodes a packet into the send buffer.
+     *
+     * Synchronized as packets may be sent from multiple threads at the same time.
      */
-    void send(byte[] packet) {
+    @Override
+    public synchronized void write(byte flag, byte command, byte sequence, long target, int targetLength, long data, int dataLength) {
+        int length = PacketEncoder.length(targetLength, dataLength);
+        if (sendBuffer.remaining() < length) {
+            ByteBuffer grown = ByteBuffer.allocate(Math.max(sendBuffer.capacity() * 2, sendBuffer.position() + length))
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            sendBuffer.flip();
+            grown.put(sendBuffer);
+            sendBuffer = grown;
+        }
+        PacketEncoder.encode(sendBuffer, flag, command, sequence, target, targetLength, data, dataLength);
+    }
+
+    /**
+     * Sends all packets in the send buffer to the bridge with a single write.
+     */
+    @Override
+    public synchronized void flush() {
+        if (sendBuffer.position() == 0) {
+            return;
+        }
         try {
-            os.write(packet);
+            os.write(sendBuffer.array(), 0, sendBuffer.position());
             os.flush();
         } catch (IOException e) {
-            e.printStackTrace();
+            connectionLost(e);
+        } finally {
+            sendBuffer.clear();
         }
     }
 
-    void shutdown() throws IOException {
+    @Override
+    public boolean isConnected() {
+        return !closed.get();
+    }
+
+    /**
+     * Closes the socket and tells the receiver, unless the connection has been shut down already.
+     */
+    private void connectionLost(IOException cause) {
+        if (!closed.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            close();
+        } catch (IOException e) {
+            /* ignore, the connection is gone anyway */
+        }
+        packetReceiver.onConnectionLost(cause);
+    }
+
+    @Override
+    public void shutdown() throws IOException {
+        closed.set(true);
+        close();
+    }
+
+    private void close() throws IOException {
         if (!socket.isClosed()) {
             socket.close();
         }
+        if (Thread.currentThread() != shutdownHook) {
+            try {
+                Runtime.getRuntime().removeShutdownHook(shutdownHook);
+            } catch (IllegalStateException e) {
+                /* the JVM is already shutting down */
+            }
+        }
     }
 }
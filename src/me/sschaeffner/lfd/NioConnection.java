@@ -0,0 +1,209 @@
+package me.sschaeffner.lfd;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A non-blocking connection to the bridge served by an LfdEventLoop.
+ *
+ * @author Simon Schäffner (simon.schaeffner@googlemail.com)
+ */
+final class NioConnection implements Transport {
+
+    /* initial size of the send buffer */
+    private static final int OUTBOUND_CAPACITY = 1024;
+
+    /* receiver of all packets and connection events */
+    private final PacketReceiver packetReceiver;
+
+    /* event loop serving this connection */
+    private final LfdEventLoop eventLoop;
+
+    /* channel connected to the bridge */
+    private final SocketChannel channel;
+
+    /* splits received data into packets */
+    private final FrameDecoder decoder;
+
+    /* packets not yet written to the channel (little endian, write mode), guarded by this */
+    private ByteBuffer outbound;
+
+    /* the channel's key, set once registered with the event loop's selector (guarded by this) */
+    private SelectionKey key;
+
+    /* whether the key's interest set includes OP_WRITE (guarded by this) */
+    private boolean writeInterest;
+
+    /* whether the connection has been lost or shut down (the receiver is told only once) */
+    private final AtomicBoolean closed;
+
+    /**
+     * Constructs a new NioConnection.
+     *
+     * @param packetReceiver    an instance of a PacketReceiver
+     * @param host              IP address to connect to (the bridge's ip address)
+     * @param eventLoop         the event loop serving this connection
+     * @throws IOException      when the connection cannot be established
+     */
+    NioConnection(PacketReceiver packetReceiver, String host, LfdEventLoop eventLoop) throws IOException {
+        this.packetReceiver = packetReceiver;
+        this.eventLoop = eventLoop;
+        this.closed = new AtomicBoolean();
+        if (!eventLoop.isRunning()) {
+            /* do not open a socket that can never be served */
+            throw new LfdEventLoop.ClosedException(null);
+        }
+        this.channel = SocketChannel.open(new InetSocketAddress(host, PORT));
+        this.channel.socket().setTcpNoDelay(true);
+        this.channel.configureBlocking(false);
+        this.decoder = new FrameDecoder(packetReceiver, true);
+        this.outbound = allocateOutbound(OUTBOUND_CAPACITY);
+        try {
+            eventLoop.register(this);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    SocketChannel getChannel() {
+        return channel;
+    }
+
+    /**
+     * Encodes a packet into the send buffer.
+     */
+    @Override
+    public synchronized void write(byte flag, byte command, byte sequence, long target, int targetLength, long data, int dataLength) {
+        int length = PacketEncoder.length(targetLength, dataLength);
+        if (outbound.remaining() < length) {
+            ByteBuffer grown = allocateOutbound(Math.max(outbound.capacity() * 2, outbound.position() + length));
+            outbound.flip();
+            grown.put(outbound);
+            outbound = grown;
+        }
+        PacketEncoder.encode(outbound, flag, command, sequence, target, targetLength, data, dataLength);
+    }
+
+    /**
+     * Sends all packets in the send buffer to the bridge. Whatever cannot be written right away is
+     * written by the event loop.
+     */
+    @Override
+    public synchronized void flush() {
+        try {
+            writeOutbound();
+        } catch (IOException e) {
+            connectionLost(e);
+        }
+    }
+
+    @Override
+    public boolean isConnected() {
+        return !closed.get();
+    }
+
+    synchronized void onRegistered(SelectionKey key) {
+        this.key = key;
+        updateInterest(outbound.position() > 0);
+    }
+
+    void onReadable() throws IOException {
+        int bytesRead;
+        while ((bytesRead = channel.read(decoder.buffer())) > 0) {
+            decoder.decode();
+        }
+        if (bytesRead == -1) {
+            connectionLost(new EOFException("connection closed by bridge"));
+        }
+    }
+
+    synchronized void onWritable() throws IOException {
+        writeOutbound();
+    }
+
+    void onError(Exception e) {
+        connectionLost(e instanceof IOException ? (IOException) e : new IOException(e));
+    }
+
+    /**
+     * Closes the channel and tells the receiver, unless the connection has been shut down already.
+     */
+    private void connectionLost(IOException cause) {
+        if (!closed.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            /* ignore, the connection is gone anyway */
+        }
+        packetReceiver.onConnectionLost(cause);
+    }
+
+    @Override
+    public void shutdown() throws IOException {
+        closed.set(true);
+        if (channel.isOpen()) {
+            channel.close();
+        }
+    }
+
+    /**
+     * Writes as much pending data as possible. Called with the lock held.
+     */
+    private void writeOutbound() throws IOException {
+        outbound.flip();
+        channel.write(outbound);
+        boolean pending = outbound.hasRemaining();
+        outbound.compact();
+        updateInterest(pending);
+    }
+
+    private static ByteBuffer allocateOutbound(int capacity) {
+        return ByteBuffer.allocateDirect(capacity).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Makes the event loop wait for the channel to become writable while there is pending data.
+     * Called with the lock held.
+     */
+    private void updateInterest(boolean write) {
+        if (key == null || write == writeInterest) {
+            return;
+        }
+        writeInterest = write;
+        if (eventLoop.inEventLoop()) {
+            applyInterest();
+        } else {
+            eventLoop.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        synchronized (NioConnection.this) {
+                            applyInterest();
+                        }
+                    } catch (RuntimeException e) {
+                        onError(e);
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Applies the current interest to the key. Called on the event loop's thread with the lock held;
+     * always applies the latest state so tasks queued earlier cannot undo a later change.
+     */
+    private void applyInterest() {
+        if (key.isValid()) {
+            key.interestOps(writeInterest ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+        }
+    }
+}
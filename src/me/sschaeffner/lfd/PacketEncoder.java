@@ -0,0 +1,78 @@
+package me.sschaeffner.lfd;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Encodes packets sent to the bridge.
+ *
+ * Packets are written straight into a connection's send buffer (which has to be little endian), so
+ * sending a command does not allocate anything. A packet consists of
+ *
+ * - the length of the rest of the packet (2 bytes)
+ * - a flag (0x00 for a single light, 0x02 for a group or the whole bridge)
+ * - the command's opcode
+ * - 0x00 0x00 0x07 and the sequence
+ * - the target: a light's address or a group's id (8 bytes, omitted for commands to the bridge)
+ * - the command's data
+ *
+ * The data of every command fits into a long (little endian, at most 8 bytes).
+ *
+ * @author Simon Schäffner (simon.schaeffner@googlemail.com)
+ */
+final class PacketEncoder {
+
+    /* flag of packets sent to a single light */
+    static final byte FLAG_LIGHT = 0x00;
+
+    /* flag of packets sent to a group or the whole bridge */
+    static final byte FLAG_GROUP = 0x02;
+
+    /* length of a target (light address or group id) */
+    static final int TARGET_LENGTH = 8;
+
+    /* length of the header including the length prefix */
+    private static final int HEADER_LENGTH = 8;
+
+    private PacketEncoder() {
+    }
+
+    /**
+     * Returns the length of a packet.
+     *
+     * @param targetLength  length of the target (0 or TARGET_LENGTH)
+     * @param dataLength    length of the command's data
+     * @return the packet's length including the length prefix
+     */
+    static int length(int targetLength, int dataLength) {
+        return HEADER_LENGTH + targetLength + dataLength;
+    }
+
+    /**
+     * Writes a packet into a buffer with enough space left.
+     *
+     * @param out           the buffer (little endian)
+     * @param flag          FLAG_LIGHT or FLAG_GROUP
+     * @param command       the command's opcode
+     * @param sequence      the packet's sequence
+     * @param target        the light's address or the group's id
+     * @param targetLength  length of the target (0 or TARGET_LENGTH)
+     * @param data          the command's data (little endian)
+     * @param dataLength    length of the command's data (0-8)
+     */
+    static void encode(ByteBuffer out, byte flag, byte command, byte sequence,
+                       long target, int targetLength, long data, int dataLength) {
+        out.putShort((short) (length(targetLength, dataLength) - 2));
+        out.put(flag);
+        out.put(command);
+        out.put((byte) 0x00);
+        out.put((byte) 0x00);
+        out.put((byte) 0x07);
+        out.put(sequence);
+        if (targetLength == TARGET_LENGTH) {
+            out.putLong(target);
+        }
+        for (int i = 0; i < dataLength; i++) {
+            out.put((byte) (data >>> (8 * i)));
+        }
+    }
+}
@@ -1,11 +1,32 @@
 package me.sschaeffner.lfd;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
 /**
  * An interface to which received packets can be passed on to.
  *
  * @author Simon Schäffner (simon.schaeffner@googlemail.com)
  */
 interface PacketReceiver {
-    void onPacketReceive(byte[] packet);
-    boolean toBeNotifiedOnPacketReceived();
+    /**
+     * Called for every packet received (without length prefix).
+     *
+     * The packet lies between the buffer's position and limit and is only valid during the call.
+     *
+     * @param packet a buffer holding the packet
+     */
+    void onPacketReceive(ByteBuffer packet);
+
+    /**
+     * Called once when the connection has been lost unexpectedly (not when it has been shut down).
+     *
+     * @param cause the reason
+     */
+    void onConnectionLost(IOException cause);
+
+    /**
+     * Called when a lost connection has been established again.
+     */
+    void onConnectionRestored();
 }
@@ -0,0 +1,92 @@
+package me.sschaeffner.lfd;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A reusable view of a packet received from the bridge.
+ *
+ * Views read the fields of a packet right from the receive buffer (little endian) without copying
+ * the packet. They are only valid while the packet is being handled.
+ *
+ * @author Simon Schäffner (simon.schaeffner@googlemail.com)
+ */
+abstract class PacketView {
+
+    /* length of a name */
+    static final int NAME_LENGTH = 16;
+
+    /* offset of the first field after the header */
+    static final int HEADER_LENGTH = 7;
+
+    /* the packet */
+    ByteBuffer packet;
+
+    /* absolute offset of the packet in the buffer */
+    int base;
+
+    /**
+     * Formats a packet as hexadecimal bytes, e.g. for debug output.
+     *
+     * @param packet a buffer holding the packet between its position and limit
+     * @return the packet's bytes, separated by spaces
+     */
+    static String toHex(ByteBuffer packet) {
+        StringBuilder hex = new StringBuilder(packet.remaining() * 3);
+        for (int i = packet.position(); i < packet.limit(); i++) {
+            if (hex.length() > 0) {
+                hex.append(' ');
+            }
+            hex.append(Character.forDigit((packet.get(i) >> 4) & 0xF, 16)).append(Character.forDigit(packet.get(i) & 0xF, 16));
+        }
+        return hex.toString();
+    }
+
+    /**
+     * Points this view to a packet.
+     *
+     * @param packet a buffer holding the packet between its position and limit
+     */
+    void wrap(ByteBuffer packet) {
+        this.packet = packet;
+        this.base = packet.position();
+    }
+
+    /**
+     * Returns whether the name at the given offset equals the given name.
+     *
+     * @param offset    absolute offset of the name
+     * @param name      a name (NAME_LENGTH ASCII bytes)
+     * @return whether both names are equal
+     */
+    final boolean nameEquals(int offset, byte[] name) {
+        for (int i = 0; i < NAME_LENGTH; i++) {
+            if (packet.get(offset + i) != name[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Copies the name at the given offset.
+     *
+     * @param offset    absolute offset of the name
+     * @param name      the array to copy the name into (NAME_LENGTH bytes)
+     */
+    final void copyName(int offset, byte[] name) {
+        for (int i = 0; i < NAME_LENGTH; i++) {
+            name[i] = packet.get(offset + i);
+        }
+    }
+
+    /**
+     * Decodes a name.
+     *
+     * @param name  a name (NAME_LENGTH ASCII bytes, padded)
+     * @return the name without padding
+     */
+    static String decodeName(byte[] name) {
+        return new String(name, StandardCharsets.US_ASCII).trim();
+    }
+}
@@ -0,0 +1,79 @@
+package me.sschaeffner.lfd;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledFuture;
+
+/**
+ * A request that was sent to the bridge and is waiting for its answer.
+ *
+ * The answer is matched by the sequence byte echoed in the reply's header.
+ *
+ * @author Simon Schäffner (simon.schaeffner@googlemail.com)
+ */
+final class PendingRequest {
+
+    /* the type of the request */
+    final LfdRequest type;
+
+    /* the opcode the answer is expected to carry */
+    final byte opcode;
+
+    /* the sequence the request was sent with */
+    final byte sequence;
+
+    /* completed when the answer has been handled */
+    final CompletableFuture<Void> future;
+
+    /* the time the request has been admitted and sent (System.nanoTime()) */
+    final long sentTime;
+
+    /* the connection the request has been sent over (null until it has been sent) */
+    volatile Transport transport;
+
+    /* the scheduled timeout of this request (null when there is none) */
+    private ScheduledFuture<?> timeout;
+
+    PendingRequest(LfdRequest type, byte opcode, byte sequence) {
+        this.type = type;
+        this.opcode = opcode;
+        this.sequence = sequence;
+        this.future = new CompletableFuture<>();
+        this.sentTime = System.nanoTime();
+    }
+
+    void setTimeout(ScheduledFuture<?> timeout) {
+        this.timeout = timeout;
+    }
+
+    /**
+     * Marks this request as answered.
+     */
+    void complete() {
+        cancelTimeout();
+        future.complete(null);
+    }
+
+    /**
+     * Marks this request as failed.
+     * @param e the reason
+     */
+    void fail(LfdException e) {
+        cancelTimeout();
+        future.completeExceptionally(e);
+    }
+
+    private void cancelTimeout() {
+        ScheduledFuture<?> t = timeout;
+        if (t != null) {
+            t.cancel(false);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "PendingRequest{" +
+                "type=" + type +
+                ", sequence=" + (sequence & 0xFF) +
+                '}';
+    }
+}
@@ -0,0 +1,131 @@
+package me.sschaeffner.lfd;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Polls the status of a bridge's lights in the background.
+ *
+ * The interval adapts to the amount of changes: a poll detecting changes resets it to the minimum,
+ * a poll without changes doubles it up to the maximum. The lights of all groups are polled at a
+ * separate, usually much longer interval. Changes are reported by the bridge to its
+ * LfdChangeListeners while handling the answers.
+ *
+ * @author Simon Schäffner (simon.schaeffner@googlemail.com)
+ */
+final class Poller {
+
+    /* maximum amount of group information requests in flight while polling groups */
+    private static final int GROUP_PARALLELISM = 4;
+
+    /* the polled bridge */
+    private final LfdBridge lfdBridge;
+
+    /* intervals in milliseconds */
+    private long minInterval;
+    private long maxInterval;
+    private long groupInterval;
+
+    /* interval until the next poll in milliseconds */
+    private long interval;
+
+    /* time of the last group poll */
+    private long lastGroupPoll;
+
+    /* the next scheduled poll (null: not polling) */
+    private ScheduledFuture<?> next;
+
+    /* incremented on every start and stop, so polls of an earlier start do not reschedule themselves */
+    private int run;
+
+    Poller(LfdBridge lfdBridge) {
+        this.lfdBridge = lfdBridge;
+    }
+
+    /**
+     * Starts polling, replacing the intervals of a poller already running.
+     *
+     * @param minInterval   the shortest interval between two polls in milliseconds
+     * @param maxInterval   the longest interval between two polls in milliseconds
+     * @param groupInterval the interval between polls of all groups' lights in milliseconds (0: never)
+     */
+    synchronized void start(long minInterval, long maxInterval, long groupInterval) {
+        if (minInterval <= 0 || maxInterval < minInterval || groupInterval < 0) {
+            throw new IllegalArgumentException("invalid polling intervals");
+        }
+        stop();
+        this.minInterval = minInterval;
+        this.maxInterval = maxInterval;
+        this.groupInterval = groupInterval;
+        this.interval = minInterval;
+        this.lastGroupPoll = System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(groupInterval);
+        schedule(run, 0);
+    }
+
+    /**
+     * Stops polling. A poll already in progress completes but is not followed by another one.
+     */
+    synchronized void stop() {
+        run++;
+        if (next != null) {
+            next.cancel(false);
+            next = null;
+        }
+    }
+
+    private void schedule(final int pollRun, long delay) {
+        next = Scheduler.get().schedule(new Runnable() {
+            @Override
+            public void run() {
+                /* polling sends requests, which must not hold up the scheduler */
+                lfdBridge.getSender().execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        poll(pollRun);
+                    }
+                });
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private void poll(final int pollRun) {
+        final boolean pollGroups;
+        synchronized (this) {
+            if (pollRun != run) {
+                return;
+            }
+            long now = System.nanoTime();
+            pollGroups = groupInterval > 0 && now - lastGroupPoll >= TimeUnit.MILLISECONDS.toNanos(groupInterval);
+            if (pollGroups) {
+                lastGroupPoll = now;
+            }
+        }
+
+        CompletableFuture<Integer> changes = lfdBridge.requestAllLightsStatusAsync()
+                .thenApply(lights -> lfdBridge.getStatusChanges());
+        if (pollGroups) {
+            changes = changes.thenCombine(pollGroups(), (lightChanges, v) -> lightChanges);
+        }
+        changes.whenComplete((lightChanges, e) -> {
+            if (e != null) {
+                lfdBridge.getLogger().error("polling failed", e);
+            }
+            synchronized (Poller.this) {
+                if (pollRun != run) {
+                    return;
+                }
+                if (lightChanges != null && lightChanges > 0) {
+                    interval = minInterval;
+                } else {
+                    interval = Math.min(interval * 2, maxInterval);
+                }
+                schedule(pollRun, interval);
+            }
+        });
+    }
+
+    private CompletableFuture<Void> pollGroups() {
+        return lfdBridge.refreshTopologyAsync(GROUP_PARALLELISM).thenApply(topology -> null);
+    }
+}
@@ -0,0 +1,10 @@
+package me.sschaeffner.lfd;
+
+/**
+ * Sends a request once it has been assigned a sequence.
+ *
+ * @author Simon Schäffner (simon.schaeffner@googlemail.com)
+ */
+interface RequestSender {
+    void send(byte sequence);
+}
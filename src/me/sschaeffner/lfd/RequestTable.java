@@ -0,0 +1,331 @@
+package me.sschaeffner.lfd;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Correlates requests sent to the bridge with their answers.
+ *
+ * Every packet carries a sequence byte that the bridge echoes in its answer. Requests waiting for an
+ * answer are stored in a slot indexed by that byte, so multiple requests can be in flight on the same
+ * connection. The amount of requests in flight is limited by a window; further requests are queued
+ * until a slot becomes free.
+ *
+ * @author Simon Schäffner (simon.schaeffner@googlemail.com)
+ */
+final class RequestTable {
+
+    /* the biggest possible window: one slot always stays free for commands that are not tracked */
+    static final int MAX_WINDOW = 255;
+
+    /* requests in flight, indexed by their sequence */
+    private final PendingRequest[] slots;
+
+    /* whether a sequence has last been handed out for a packet that does not wait for an answer */
+    private final boolean[] untracked;
+
+    /* the next sequence to hand out */
+    private int nextSequence;
+
+    /* amount of requests in flight */
+    private int inFlight;
+
+    /* maximum amount of requests in flight */
+    private int window;
+
+    /* requests waiting for a free slot, in order of registration */
+    private final ArrayDeque<Admission> waiting;
+
+    /* amount of requests that passed their deadline */
+    private final LongAdder timeouts;
+
+    /* completes admissions of queued requests, which sends them */
+    private final Executor sender;
+
+    /**
+     * Constructs a new RequestTable.
+     *
+     * @param window    the maximum amount of requests in flight
+     * @param sender    completes admissions of queued requests (see Scheduler.newSender())
+     */
+    RequestTable(int window, Executor sender) {
+        this.slots = new PendingRequest[256];
+        this.untracked = new boolean[256];
+        this.nextSequence = 0;
+        this.inFlight = 0;
+        this.waiting = new ArrayDeque<>();
+        this.timeouts = new LongAdder();
+        this.sender = sender;
+        setWindow(window);
+    }
+
+    /**
+     * Returns the next sequence for a packet that does not wait for an answer.
+     *
+     * Sequences of requests in flight are skipped.
+     *
+     * @return the next free sequence
+     */
+    synchronized byte nextSequence() {
+        byte sequence = allocateSequence();
+        untracked[sequence & 0xFF] = true;
+        return sequence;
+    }
+
+    /**
+     * Returns whether a sequence has last been handed out by nextSequence(), so an answer carrying it
+     * acknowledges a packet nobody waits for (e.g. a command).
+     *
+     * @param sequence  the sequence of the answer
+     * @return whether the sequence belongs to a packet not waiting for an answer
+     */
+    synchronized boolean isUntracked(byte sequence) {
+        return untracked[sequence & 0xFF];
+    }
+
+    /**
+     * Registers a new request without blocking.
+     *
+     * When the window is full the request is queued and admitted as soon as a slot becomes free. The
+     * returned future completes with the pending request holding the sequence to send the request with.
+     *
+     * @param type      the type of request
+     * @param opcode    the opcode of the request (the answer carries the same opcode)
+     * @param timeout   time in milliseconds until the answer has to arrive, including waiting for a slot
+     * @return a future completing with the admitted request
+     */
+    CompletableFuture<PendingRequest> register(LfdRequest type, byte opcode, long timeout) {
+        final Admission admission = new Admission(type, opcode, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout));
+        PendingRequest request;
+        synchronized (this) {
+            if (inFlight >= window || !waiting.isEmpty()) {
+                waiting.add(admission);
+                admission.timeout = Scheduler.get().schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (removeWaiting(admission)) {
+                            timeouts.increment();
+                            admission.completeExceptionally(new LfdException("request window full: " + admission.type + " timed out waiting for a free slot"));
+                        }
+                    }
+                }, timeout, TimeUnit.MILLISECONDS);
+                return admission;
+            }
+            request = admit(admission);
+        }
+        admission.complete(request);
+        return admission;
+    }
+
+    /**
+     * Cancels a request registered with register(), freeing its slot or its place in the queue.
+     *
+     * @param registered    the future returned by register()
+     */
+    void cancel(CompletableFuture<PendingRequest> registered) {
+        Admission admission = (Admission) registered;
+        if (removeWaiting(admission)) {
+            admission.cancelTimeout();
+            admission.cancel(false);
+            return;
+        }
+        /* admitted already or about to be */
+        admission.thenAccept(request -> {
+            if (remove(request)) {
+                request.fail(new LfdException("request cancelled: " + request));
+            }
+        });
+    }
+
+    /**
+     * Removes and returns the request waiting for an answer with the given sequence and opcode.
+     *
+     * @param sequence  the sequence of the answer
+     * @param opcode    the opcode of the answer
+     * @return the matching request or null when no request waits for this answer
+     */
+    synchronized PendingRequest take(byte sequence, byte opcode) {
+        int slot = sequence & 0xFF;
+        PendingRequest request = slots[slot];
+        if (request == null || request.opcode != opcode) {
+            return null;
+        }
+        slots[slot] = null;
+        inFlight--;
+        admitWaiting();
+        return request;
+    }
+
+    /**
+     * Removes a request from the table (e.g. because it timed out).
+     *
+     * @param request   the request to remove
+     * @return whether the request was still in the table
+     */
+    synchronized boolean remove(PendingRequest request) {
+        int slot = request.sequence & 0xFF;
+        if (slots[slot] != request) {
+            return false;
+        }
+        slots[slot] = null;
+        inFlight--;
+        admitWaiting();
+        return true;
+    }
+
+    /**
+     * Fails all requests in flight.
+     *
+     * @param e the reason
+     */
+    void failAll(LfdException e) {
+        PendingRequest[] failed = new PendingRequest[slots.length];
+        Admission[] failedWaiting;
+        synchronized (this) {
+            System.arraycopy(slots, 0, failed, 0, slots.length);
+            for (int i = 0; i < slots.length; i++) {
+                slots[i] = null;
+            }
+            inFlight = 0;
+            failedWaiting = waiting.toArray(new Admission[waiting.size()]);
+            waiting.clear();
+        }
+        for (PendingRequest request : failed) {
+            if (request != null) {
+                request.fail(e);
+            }
+        }
+        for (Admission admission : failedWaiting) {
+            admission.cancelTimeout();
+            admission.completeExceptionally(e);
+        }
+    }
+
+    /**
+     * Fails the requests in flight which have been sent over the given connection, e.g. because it
+     * has been lost. Requests sent over other connections keep waiting for their answers.
+     *
+     * @param transport the connection
+     * @param e         the reason
+     */
+    void failSentOver(Transport transport, LfdException e) {
+        PendingRequest[] failed = new PendingRequest[slots.length];
+        synchronized (this) {
+            for (int i = 0; i < slots.length; i++) {
+                if (slots[i] != null && slots[i].transport == transport) {
+                    failed[i] = slots[i];
+                    slots[i] = null;
+                    inFlight--;
+                }
+            }
+            admitWaiting();
+        }
+        for (PendingRequest request : failed) {
+            if (request != null) {
+                request.fail(e);
+            }
+        }
+    }
+
+    synchronized void setWindow(int window) {
+        if (window < 1 || window > MAX_WINDOW) {
+            throw new IllegalArgumentException("window must be between 1 and " + MAX_WINDOW);
+        }
+        this.window = window;
+        admitWaiting();
+    }
+
+    synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    synchronized int getWaiting() {
+        return waiting.size();
+    }
+
+    long getTimeouts() {
+        return timeouts.sum();
+    }
+
+    /**
+     * Admits queued requests while there are free slots. Called with the lock held; the admitted
+     * requests' futures are completed asynchronously so no callback runs while holding the lock.
+     *
+     * Completing an admission sends the request, so this is never done on the scheduler thread
+     * (slots are freed there by timeouts) but by the sender.
+     */
+    private void admitWaiting() {
+        while (inFlight < window && !waiting.isEmpty()) {
+            final Admission admission = waiting.poll();
+            admission.cancelTimeout();
+            final PendingRequest request = admit(admission);
+            sender.execute(new Runnable() {
+                @Override
+                public void run() {
+                    admission.complete(request);
+                }
+            });
+        }
+    }
+
+    /**
+     * Allocates a slot for the given admission. Called with the lock held and a free slot in the window.
+     */
+    private PendingRequest admit(final Admission admission) {
+        final PendingRequest request = new PendingRequest(admission.type, admission.opcode, allocateSequence());
+        slots[request.sequence & 0xFF] = request;
+        untracked[request.sequence & 0xFF] = false;
+        inFlight++;
+
+        request.setTimeout(Scheduler.get().schedule(new Runnable() {
+            @Override
+            public void run() {
+                if (remove(request)) {
+                    timeouts.increment();
+                    request.fail(new LfdException("request timed out: " + request));
+                }
+            }
+        }, Math.max(admission.deadline - System.nanoTime(), 0), TimeUnit.NANOSECONDS));
+
+        return request;
+    }
+
+    private synchronized boolean removeWaiting(Admission admission) {
+        return waiting.remove(admission);
+    }
+
+    private byte allocateSequence() {
+        while (slots[nextSequence] != null) {
+            nextSequence = (nextSequence + 1) & 0xFF;
+        }
+        byte sequence = (byte) nextSequence;
+        nextSequence = (nextSequence + 1) & 0xFF;
+        return sequence;
+    }
+
+    /**
+     * A request waiting for a free slot in the window.
+     */
+    private static final class Admission extends CompletableFuture<PendingRequest> {
+        private final LfdRequest type;
+        private final byte opcode;
+        private final long deadline;
+        private ScheduledFuture<?> timeout;
+
+        private Admission(LfdRequest type, byte opcode, long deadline) {
+            this.type = type;
+            this.opcode = opcode;
+            this.deadline = deadline;
+        }
+
+        private void cancelTimeout() {
+            if (timeout != null) {
+                timeout.cancel(false);
+            }
+        }
+    }
+}
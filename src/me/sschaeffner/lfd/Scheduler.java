@@ -0,0 +1,101 @@
+package me.sschaeffner.lfd;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * The single scheduler thread shared by all bridges (request timeouts and other timed tasks).
+ *
+ * Tasks on the scheduler thread must never write to a connection: a write blocks while the bridge
+ * does not read, which would hold up the timers of all bridges. Such tasks hand the write off to a
+ * sender (see newSender()). Every bridge has its own sender running one task at a time, so a bridge
+ * that stops reading blocks a single thread rather than a new one per task.
+ *
+ * @author Simon Schäffner (simon.schaeffner@googlemail.com)
+ */
+final class Scheduler {
+
+    /* the shared executor; its thread is a daemon so it never keeps the JVM alive */
+    private static final ScheduledExecutorService EXECUTOR = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "lfd-scheduler");
+            t.setDaemon(true);
+            return t;
+        }
+    });
+
+    /* threads of the senders; started as needed and reused, at most one per sender at a time */
+    private static final ExecutorService SENDERS = Executors.newCachedThreadPool(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "lfd-sender");
+            t.setDaemon(true);
+            return t;
+        }
+    });
+
+    private Scheduler() {
+    }
+
+    static ScheduledExecutorService get() {
+        return EXECUTOR;
+    }
+
+    /**
+     * Creates an executor for tasks which may block writing to a connection. It runs its tasks one
+     * after another, in the order they have been submitted, on a shared "lfd-sender" thread.
+     *
+     * @return the new sender
+     */
+    static Executor newSender() {
+        return new SerialExecutor();
+    }
+
+    /**
+     * Runs tasks one at a time on the threads of SENDERS.
+     */
+    private static final class SerialExecutor implements Executor, Runnable {
+
+        /* tasks waiting to run (guarded by this) */
+        private final ArrayDeque<Runnable> tasks = new ArrayDeque<>();
+
+        /* whether a thread is running the tasks (guarded by this) */
+        private boolean running;
+
+        @Override
+        public void execute(Runnable task) {
+            synchronized (this) {
+                tasks.add(task);
+                if (running) {
+                    return;
+                }
+                running = true;
+            }
+            SENDERS.execute(this);
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                Runnable task;
+                synchronized (this) {
+                    task = tasks.poll();
+                    if (task == null) {
+                        running = false;
+                        return;
+                    }
+                }
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    /* a failing task must not stop the tasks after it */
+                }
+            }
+        }
+    }
+}
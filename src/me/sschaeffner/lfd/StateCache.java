@@ -0,0 +1,88 @@
+package me.sschaeffner.lfd;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serves the lights' states from memory as long as they are recent enough.
+ *
+ * Every status answer refreshes the states of all lights, so a light's state is fetched from the
+ * bridge only when it has not been reported for longer than the allowed age. Concurrent reads of
+ * expired states share a single status request.
+ *
+ * @author Simon Schäffner (simon.schaeffner@googlemail.com)
+ */
+final class StateCache {
+
+    /* the cache's bridge */
+    private final LfdBridge lfdBridge;
+
+    /* default maximum age of a state served from memory in nanoseconds */
+    private volatile long ttl;
+
+    /* the status request in progress (null: none) */
+    private CompletableFuture<List<LfdLight>> refresh;
+
+    StateCache(LfdBridge lfdBridge, long ttl) {
+        this.lfdBridge = lfdBridge;
+        setTtl(ttl);
+    }
+
+    void setTtl(long ttl) {
+        if (ttl < 0) {
+            throw new IllegalArgumentException("ttl must not be negative");
+        }
+        this.ttl = TimeUnit.MILLISECONDS.toNanos(ttl);
+    }
+
+    long getTtl() {
+        return TimeUnit.NANOSECONDS.toMillis(ttl);
+    }
+
+    /**
+     * Returns a light's state, requesting the status of all lights when it is older than maxAge.
+     *
+     * @param address   the light's address
+     * @param maxAge    the maximum age of the state in milliseconds (negative: the default ttl)
+     * @return a future completing with the light's state
+     */
+    CompletableFuture<LfdLightState> read(final long address, long maxAge) {
+        long age = maxAge < 0 ? ttl : TimeUnit.MILLISECONDS.toNanos(maxAge);
+        LfdLight light = lfdBridge.getLight(address);
+        if (light != null) {
+            long confirmedTime = light.getConfirmedTime();
+            if (confirmedTime != 0 && System.nanoTime() - confirmedTime <= age) {
+                return CompletableFuture.completedFuture(light.getState());
+            }
+        }
+
+        return refresh().thenCompose(lights -> {
+            CompletableFuture<LfdLightState> state = new CompletableFuture<>();
+            LfdLight refreshed = lfdBridge.getLight(address);
+            if (refreshed != null) {
+                state.complete(refreshed.getState());
+            } else {
+                state.completeExceptionally(new LfdException("unknown light 0x" + Long.toHexString(address)));
+            }
+            return state;
+        });
+    }
+
+    private synchronized CompletableFuture<List<LfdLight>> refresh() {
+        if (refresh != null) {
+            return refresh;
+        }
+        final CompletableFuture<List<LfdLight>> request = lfdBridge.requestAllLightsStatusAsync();
+        refresh = request;
+        /* runs right away when the request failed already (e.g. while disconnected) */
+        request.whenComplete((lights, e) -> {
+            synchronized (StateCache.this) {
+                if (refresh == request) {
+                    refresh = null;
+                }
+            }
+        });
+        return request;
+    }
+}
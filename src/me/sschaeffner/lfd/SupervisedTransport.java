@@ -0,0 +1,273 @@
+package me.sschaeffner.lfd;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A connection to the bridge which is established again whenever it is lost.
+ *
+ * Reconnection attempts back off exponentially, from 100ms up to 30s between two attempts. While the
+ * connection is down, packets are dropped and isConnected() returns false. When the connection cannot
+ * ever be established again (its event loop has been closed), supervising stops and the listener is
+ * told that the connection failed.
+ *
+ * @author Simon Schäffner (simon.schaeffner@googlemail.com)
+ */
+final class SupervisedTransport implements Transport {
+
+    /* delay before the first reconnection attempt in milliseconds */
+    private static final long INITIAL_BACKOFF = 100;
+
+    /* maximum delay between two reconnection attempts in milliseconds */
+    private static final long MAX_BACKOFF = 30000;
+
+    /**
+     * Establishes a connection to the bridge.
+     */
+    interface Connector {
+        Transport connect(PacketReceiver packetReceiver) throws IOException;
+    }
+
+    /**
+     * Receives the packets and is told about the state of the connection.
+     */
+    interface Listener {
+
+        /**
+         * Called for every packet received (see PacketReceiver.onPacketReceive()).
+         *
+         * @param packet a buffer holding the packet
+         */
+        void onPacketReceive(ByteBuffer packet);
+
+        /**
+         * Called when the connection has been lost; reconnecting is attempted.
+         *
+         * @param transport the transport that lost its connection
+         * @param cause     the reason
+         */
+        void onConnectionLost(SupervisedTransport transport, IOException cause);
+
+        /**
+         * Called when a lost connection has been established again.
+         *
+         * @param transport the transport that is connected again
+         */
+        void onConnectionRestored(SupervisedTransport transport);
+
+        /**
+         * Called when the connection has been lost for good; it is not established again.
+         *
+         * @param transport the transport that failed
+         * @param cause     the reason
+         */
+        void onConnectionFailed(SupervisedTransport transport, IOException cause);
+    }
+
+    /* receiver of all packets and connection events */
+    private final Listener listener;
+
+    /* establishes the connections */
+    private final Connector connector;
+
+    /* counts the traffic and reconnects */
+    private final Metrics metrics;
+
+    /* the current connection (null while disconnected) */
+    private volatile Link current;
+
+    /* delay before the next reconnection attempt (guarded by this) */
+    private long backoff;
+
+    /* the next reconnection attempt (guarded by this) */
+    private ScheduledFuture<?> reconnect;
+
+    /* runs the reconnection attempts, which block while connecting */
+    private final Executor connecting;
+
+    /* whether the connection has been shut down or failed for good (guarded by this) */
+    private boolean closed;
+
+    /**
+     * Constructs a new SupervisedTransport and establishes the first connection.
+     *
+     * @param listener          receives the packets and is told about the state of the connection
+     * @param connector         establishes the connections
+     * @param metrics           counts the traffic and reconnects
+     * @throws IOException      when the first connection cannot be established
+     */
+    SupervisedTransport(Listener listener, Connector connector, Metrics metrics) throws IOException {
+        this.listener = listener;
+        this.connector = connector;
+        this.metrics = metrics;
+        this.backoff = INITIAL_BACKOFF;
+        this.connecting = Scheduler.newSender();
+        Link link = open();
+        synchronized (this) {
+            if (link.lost) {
+                scheduleReconnect();
+            } else {
+                current = link;
+            }
+        }
+    }
+
+    @Override
+    public void write(byte flag, byte command, byte sequence, long target, int targetLength, long data, int dataLength) {
+        Link link = current;
+        if (link != null) {
+            link.transport.write(flag, command, sequence, target, targetLength, data, dataLength);
+            metrics.frameSent(PacketEncoder.length(targetLength, dataLength));
+        }
+    }
+
+    @Override
+    public void flush() {
+        Link link = current;
+        if (link != null) {
+            link.transport.flush();
+        }
+    }
+
+    @Override
+    public boolean isConnected() {
+        return current != null;
+    }
+
+    @Override
+    public void shutdown() throws IOException {
+        Link link;
+        synchronized (this) {
+            closed = true;
+            if (reconnect != null) {
+                reconnect.cancel(false);
+            }
+            link = current;
+            current = null;
+        }
+        if (link != null) {
+            link.transport.shutdown();
+        }
+    }
+
+    private Link open() throws IOException {
+        Link link = new Link();
+        link.transport = connector.connect(link);
+        return link;
+    }
+
+    private void connectionLost(Link link, IOException cause) {
+        boolean permanent = cause instanceof LfdEventLoop.ClosedException;
+        synchronized (this) {
+            link.lost = true;
+            if (current != link || closed) {
+                return;
+            }
+            current = null;
+            if (permanent) {
+                closed = true;
+            } else {
+                scheduleReconnect();
+            }
+        }
+        if (permanent) {
+            listener.onConnectionFailed(this, cause);
+        } else {
+            listener.onConnectionLost(this, cause);
+        }
+    }
+
+    /**
+     * Schedules the next reconnection attempt. Called with the lock held.
+     */
+    private void scheduleReconnect() {
+        if (closed) {
+            return;
+        }
+        long delay = backoff;
+        backoff = Math.min(backoff * 2, MAX_BACKOFF);
+        reconnect = Scheduler.get().schedule(new Runnable() {
+            @Override
+            public void run() {
+                /* connecting blocks, so it must not hold up the shared scheduler */
+                connecting.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        reconnect();
+                    }
+                });
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private void reconnect() {
+        Link link;
+        try {
+            link = open();
+        } catch (LfdEventLoop.ClosedException e) {
+            /* no connection can ever be established through a closed event loop */
+            synchronized (this) {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+            }
+            listener.onConnectionFailed(this, e);
+            return;
+        } catch (IOException e) {
+            synchronized (this) {
+                scheduleReconnect();
+            }
+            return;
+        }
+
+        synchronized (this) {
+            if (closed) {
+                link.lost = true;
+            } else if (link.lost) {
+                scheduleReconnect();
+                return;
+            } else {
+                current = link;
+                backoff = INITIAL_BACKOFF;
+                metrics.reconnected();
+            }
+        }
+        if (link.lost) {
+            try {
+                link.transport.shutdown();
+            } catch (IOException e) {
+                /* ignore, shutting down anyway */
+            }
+            return;
+        }
+        listener.onConnectionRestored(this);
+    }
+
+    /**
+     * A single connection, passing its packets on and reporting its loss to the supervisor.
+     */
+    private final class Link implements PacketReceiver {
+        private Transport transport;
+        private volatile boolean lost;
+
+        @Override
+        public void onPacketReceive(ByteBuffer packet) {
+            /* the length prefix is not part of the packet */
+            metrics.frameReceived(packet.remaining() + 2);
+            listener.onPacketReceive(packet);
+        }
+
+        @Override
+        public void onConnectionLost(IOException cause) {
+            connectionLost(this, cause);
+        }
+
+        @Override
+        public void onConnectionRestored() {
+        }
+    }
+}
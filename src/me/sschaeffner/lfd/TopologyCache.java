@@ -0,0 +1,229 @@
+package me.sschaeffner.lfd;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Stores a bridge's lights, groups and group memberships in a compact binary file.
+ *
+ * The file (little endian) consists of a header
+ *
+ * - magic "LFDT" and format version (4 bytes each)
+ * - the time the file has been written (System.currentTimeMillis(), 8 bytes)
+ * - length and CRC32 of the body (4 bytes each)
+ *
+ * and a body holding
+ *
+ * - the amount of lights (4 bytes) and a 32 byte record per light: address (8 bytes), name (16
+ *   bytes), on, luminance, temperature (2 bytes), r, g, b and a padding byte
+ * - the amount of groups (4 bytes) and per group: id (2 bytes), name (16 bytes), the amount of lights
+ *   (2 bytes) and their addresses (8 bytes each)
+ *
+ * Files are written to a temporary file first and moved into place, so a crash never leaves a
+ * partial file behind. They are small and read once, so they are read into a heap buffer; a mapping
+ * would keep the file open until garbage collected and make replacing it fail on some platforms.
+ *
+ * @author Simon Schäffner (simon.schaeffner@googlemail.com)
+ */
+final class TopologyCache {
+
+    /* "LFDT" */
+    private static final int MAGIC = 0x5444464C;
+
+    /* version of the file format */
+    private static final int VERSION = 1;
+
+    /* length of the header */
+    private static final int HEADER_LENGTH = 24;
+
+    /* length of a light record */
+    private static final int LIGHT_RECORD_LENGTH = 32;
+
+    private TopologyCache() {
+    }
+
+    /**
+     * The content of a cache file.
+     */
+    static final class Content {
+        final LongObjectMap<LfdLight> lights;
+        final LongObjectMap<LfdGroup> groups;
+        final LfdTopology topology;
+
+        private Content(LongObjectMap<LfdLight> lights, LongObjectMap<LfdGroup> groups, LfdTopology topology) {
+            this.lights = lights;
+            this.groups = groups;
+            this.topology = topology;
+        }
+    }
+
+    /**
+     * Writes a bridge's lights and groups to a file.
+     *
+     * @param lfdBridge the bridge
+     * @param file      the file (replaced when it exists)
+     * @throws IOException when writing the file fails
+     */
+    static void write(LfdBridge lfdBridge, Path file) throws IOException {
+        List<LfdLight> lights = lfdBridge.getLights();
+        List<LfdGroup> groups = lfdBridge.getGroups();
+
+        int length = 4 + lights.size() * LIGHT_RECORD_LENGTH + 4;
+        LfdAddressSet[] members = new LfdAddressSet[groups.size()];
+        for (int i = 0; i < members.length; i++) {
+            members[i] = groups.get(i).getLights();
+            length += 2 + PacketView.NAME_LENGTH + 2 + members[i].size() * 8;
+        }
+
+        ByteBuffer out = ByteBuffer.allocate(HEADER_LENGTH + length).order(ByteOrder.LITTLE_ENDIAN);
+        out.position(HEADER_LENGTH);
+        out.putInt(lights.size());
+        for (LfdLight light : lights) {
+            /* commands not confirmed by the bridge yet may never have been applied */
+            LfdLightState state = light.getConfirmedState();
+            out.putLong(light.getAddress());
+            out.put(light.getNameAscii());
+            out.put((byte) (state.isOn() ? 1 : 0));
+            out.put(state.getLuminance());
+            out.putShort(state.getTemperature());
+            out.put(state.getR());
+            out.put(state.getG());
+            out.put(state.getB());
+            out.put((byte) 0);
+        }
+        out.putInt(groups.size());
+        for (int i = 0; i < members.length; i++) {
+            LfdGroup group = groups.get(i);
+            out.putShort((short) group.getTarget());
+            out.put(group.getNameAscii());
+            out.putShort((short) members[i].size());
+            for (int j = 0; j < members[i].size(); j++) {
+                out.putLong(members[i].get(j));
+            }
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(out.array(), HEADER_LENGTH, length);
+        out.putInt(0, MAGIC);
+        out.putInt(4, VERSION);
+        out.putLong(8, System.currentTimeMillis());
+        out.putInt(16, length);
+        out.putInt(20, (int) crc.getValue());
+        out.rewind();
+
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (out.hasRemaining()) {
+                channel.write(out);
+            }
+            channel.force(true);
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Reads a file written by write().
+     *
+     * @param lfdBridge the bridge the lights and groups will belong to
+     * @param file      the file
+     * @return the file's content or null when the file does not exist
+     * @throws IOException when reading the file fails or it is not a valid cache file
+     */
+    static Content read(LfdBridge lfdBridge, Path file) throws IOException {
+        long start = System.nanoTime();
+        ByteBuffer in;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException(file + " is not a topology cache file");
+            }
+            in = ByteBuffer.allocate((int) size).order(ByteOrder.LITTLE_ENDIAN);
+            while (in.hasRemaining()) {
+                if (channel.read(in) == -1) {
+                    throw new IOException(file + " is truncated");
+                }
+            }
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+        in.flip();
+
+        if (in.remaining() < HEADER_LENGTH || in.getInt(0) != MAGIC) {
+            throw new IOException(file + " is not a topology cache file");
+        }
+        if (in.getInt(4) != VERSION) {
+            throw new IOException(file + " has unsupported version " + in.getInt(4));
+        }
+        int length = in.getInt(16);
+        if (length < 8 || length != in.remaining() - HEADER_LENGTH) {
+            throw new IOException(file + " is truncated");
+        }
+        in.position(HEADER_LENGTH);
+        CRC32 crc = new CRC32();
+        crc.update(in);
+        if ((int) crc.getValue() != in.getInt(20)) {
+            throw new IOException(file + " is corrupt (checksum mismatch)");
+        }
+
+        try {
+            in.position(HEADER_LENGTH);
+            int lightCount = in.getInt();
+            if (lightCount < 0 || lightCount > in.remaining() / LIGHT_RECORD_LENGTH) {
+                throw new IOException(file + " is corrupt (light count)");
+            }
+            LongObjectMap<LfdLight> lights = new LongObjectMap<>(lightCount);
+            for (int i = 0; i < lightCount; i++) {
+                LfdLight light = new LfdLight(lfdBridge, in.getLong());
+                in.get(light.getNameAscii());
+                light.setName(PacketView.decodeName(light.getNameAscii()));
+                boolean on = in.get() != 0;
+                byte luminance = in.get();
+                short temperature = in.getShort();
+                byte r = in.get();
+                byte g = in.get();
+                byte b = in.get();
+                in.get();
+                /* never confirmed by the bridge: reads of the state go to the bridge */
+                light.setConfirmedState(new LfdLightState(on, luminance, temperature, r, g, b), 0);
+                lights.put(light.getAddress(), light);
+            }
+
+            int groupCount = in.getInt();
+            if (groupCount < 0 || groupCount > in.remaining() / (2 + PacketView.NAME_LENGTH + 2)) {
+                throw new IOException(file + " is corrupt (group count)");
+            }
+            LongObjectMap<LfdGroup> groups = new LongObjectMap<>(groupCount);
+            List<LfdGroup> groupList = new ArrayList<>(groupCount);
+            for (int i = 0; i < groupCount; i++) {
+                short id = in.getShort();
+                LfdGroup group = new LfdGroup(lfdBridge, id);
+                in.get(group.getNameAscii());
+                group.setName(PacketView.decodeName(group.getNameAscii()));
+                long[] addresses = new long[in.getShort() & 0xFFFF];
+                for (int j = 0; j < addresses.length; j++) {
+                    addresses[j] = in.getLong();
+                }
+                group.setLights(LfdAddressSet.of(addresses, addresses.length));
+                groups.put(id, group);
+                groupList.add(group);
+            }
+
+            LfdTopology topology = TopologyLoader.index(groupList, System.nanoTime() - start);
+            return new Content(lights, groups, topology);
+        } catch (BufferUnderflowException e) {
+            throw new IOException(file + " is corrupt (truncated record)");
+        }
+    }
+}
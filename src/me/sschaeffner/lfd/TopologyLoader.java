@@ -0,0 +1,129 @@
+package me.sschaeffner.lfd;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Loads a bridge's topology: the group list followed by the information of every group, with a
+ * bounded amount of GROUP_INFO requests in flight at the same time.
+ *
+ * @author Simon Schäffner (simon.schaeffner@googlemail.com)
+ */
+final class TopologyLoader {
+
+    /* the bridge to load the topology from */
+    private final LfdBridge lfdBridge;
+
+    /* maximum amount of GROUP_INFO requests in flight */
+    private final int parallelism;
+
+    /* the future completing with the topology */
+    private final CompletableFuture<LfdTopology> result;
+
+    /* time the load started */
+    private final long start;
+
+    /* the groups to request and the index of the next one to request (guarded by this) */
+    private List<LfdGroup> groups;
+    private int next;
+
+    /* amount of requests not yet answered (guarded by this) */
+    private int pending;
+
+    private TopologyLoader(LfdBridge lfdBridge, int parallelism) {
+        this.lfdBridge = lfdBridge;
+        this.parallelism = parallelism;
+        this.result = new CompletableFuture<>();
+        this.start = System.nanoTime();
+    }
+
+    /**
+     * Loads a bridge's topology.
+     *
+     * @param lfdBridge     the bridge
+     * @param parallelism   maximum amount of GROUP_INFO requests in flight
+     * @return a future completing with the topology
+     */
+    static CompletableFuture<LfdTopology> load(LfdBridge lfdBridge, int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism must be at least 1");
+        }
+        final TopologyLoader loader = new TopologyLoader(lfdBridge, parallelism);
+        lfdBridge.requestGroupListAsync().whenComplete((groups, e) -> {
+            if (e != null) {
+                loader.result.completeExceptionally(e);
+            } else {
+                loader.start(groups);
+            }
+        });
+        return loader.result;
+    }
+
+    private void start(List<LfdGroup> groups) {
+        synchronized (this) {
+            this.groups = groups;
+            this.pending = groups.size();
+        }
+        if (groups.isEmpty()) {
+            complete();
+            return;
+        }
+        for (int i = 0; i < parallelism; i++) {
+            requestNext();
+        }
+    }
+
+    private void requestNext() {
+        LfdGroup group;
+        synchronized (this) {
+            if (next == groups.size() || result.isDone()) {
+                return;
+            }
+            group = groups.get(next++);
+        }
+        group.requestGroupInfoAsync().whenComplete((g, e) -> {
+            if (e != null) {
+                result.completeExceptionally(e);
+                return;
+            }
+            boolean done;
+            synchronized (TopologyLoader.this) {
+                done = --pending == 0;
+            }
+            if (done) {
+                complete();
+            } else {
+                requestNext();
+            }
+        });
+    }
+
+    private void complete() {
+        result.complete(index(groups, System.nanoTime() - start));
+    }
+
+    /**
+     * Builds a topology, indexing the lights' groups in a single pass over all groups.
+     *
+     * @param groups    all groups
+     * @param loadTime  time it took to load the groups in nanoseconds
+     * @return the topology
+     */
+    static LfdTopology index(List<LfdGroup> groups, long loadTime) {
+        LongObjectMap<List<LfdGroup>> lightGroups = new LongObjectMap<>();
+        for (LfdGroup group : groups) {
+            LfdAddressSet lights = group.getLights();
+            for (int i = 0; i < lights.size(); i++) {
+                long address = lights.get(i);
+                List<LfdGroup> of = lightGroups.get(address);
+                if (of == null) {
+                    of = new ArrayList<>(1);
+                    lightGroups.put(address, of);
+                }
+                of.add(group);
+            }
+        }
+        return new LfdTopology(groups, lightGroups, loadTime);
+    }
+}
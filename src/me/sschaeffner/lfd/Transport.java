@@ -0,0 +1,46 @@
+package me.sschaeffner.lfd;
+
+import java.io.IOException;
+
+/**
+ * A connection to the bridge.
+ *
+ * Packets are encoded into the connection's send buffer (see PacketEncoder) and sent when the buffer
+ * is flushed, so multiple packets can be sent with a single write.
+ *
+ * @author Simon Schäffner (simon.schaeffner@googlemail.com)
+ */
+interface Transport {
+    /* Default LfdBridge port */
+    int PORT = 4000;
+
+    /**
+     * Encodes a packet into the send buffer.
+     *
+     * @param flag          PacketEncoder.FLAG_LIGHT or PacketEncoder.FLAG_GROUP
+     * @param command       the command's opcode
+     * @param sequence      the packet's sequence
+     * @param target        the light's address or the group's id
+     * @param targetLength  length of the target (0 or PacketEncoder.TARGET_LENGTH)
+     * @param data          the command's data (little endian)
+     * @param dataLength    length of the command's data (0-8)
+     */
+    void write(byte flag, byte command, byte sequence, long target, int targetLength, long data, int dataLength);
+
+    /**
+     * Sends all packets in the send buffer to the bridge.
+     */
+    void flush();
+
+    /**
+     * Returns whether the connection is established.
+     * @return false once the connection has been lost or shut down
+     */
+    boolean isConnected();
+
+    /**
+     * Closes the connection.
+     * @throws IOException when closing the connection fails
+     */
+    void shutdown() throws IOException;
+}
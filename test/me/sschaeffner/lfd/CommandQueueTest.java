@@ -0,0 +1,137 @@
+package me.sschaeffner.lfd;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests rate limiting and coalescing commands without a bridge.
+ *
+ * @author Simon Schäffner (simon.schaeffner@googlemail.com)
+ */
+public class CommandQueueTest {
+
+    private TestTransport transport;
+    private LfdBridge bridge;
+
+    @Before
+    public void connect() throws Exception {
+        transport = new TestTransport();
+        bridge = transport.connect();
+    }
+
+    @After
+    public void shutdown() throws Exception {
+        bridge.shutdown();
+    }
+
+    @Test
+    public void commandsAreSentRightAwayWithoutLimits() {
+        LfdLight light = new LfdLight(bridge, 1);
+        light.sendLuminance((byte) 10, (short) 0);
+        light.sendLuminance((byte) 20, (short) 0);
+
+        assertEquals(2, transport.takeSent().size());
+    }
+
+    @Test
+    public void pendingCommandsAreCoalesced() throws Exception {
+        bridge.setCommandRate(0, 1);
+        LfdLight light = new LfdLight(bridge, 1);
+        light.sendLuminance((byte) 10, (short) 0);
+        for (int i = 11; i <= 20; i++) {
+            light.sendLuminance((byte) i, (short) 0);
+        }
+
+        List<TestTransport.Packet> sent = waitForPackets(2);
+        assertEquals(2, sent.size());
+        assertEquals(10, sent.get(0).data & 0xFF);
+        assertEquals(20, sent.get(1).data & 0xFF);
+    }
+
+    @Test
+    public void targetsWaitingForATokenAreNotDelayedFurther() throws Exception {
+        /* a single token every 500ms, at most one command per second and light */
+        bridge.setCommandRate(2, 1);
+        LfdLight first = new LfdLight(bridge, 1);
+        LfdLight second = new LfdLight(bridge, 2);
+        long start = System.nanoTime();
+        first.sendLuminance((byte) 10, (short) 0);
+        second.sendLuminance((byte) 10, (short) 0);
+
+        List<TestTransport.Packet> sent = waitForPackets(2);
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertEquals(2, sent.get(1).target);
+        /* the second light got the next token rather than waiting out a target interval it never used */
+        assertTrue("second command sent after " + elapsed + "ms", elapsed < 900);
+    }
+
+    @Test
+    public void targetsAreSentASingleCommandPerInterval() throws Exception {
+        /* at most one command per 100ms and light */
+        bridge.setCommandRate(0, 10);
+        LfdLight light = new LfdLight(bridge, 1);
+        long start = System.nanoTime();
+        light.sendLuminance((byte) 10, (short) 0);
+        light.sendTemperature((short) 3000, (short) 0);
+        light.sendOnOff(false);
+
+        /* the temperature and on/off commands are not sent together */
+        List<TestTransport.Packet> sent = waitForPackets(2);
+        assertEquals(2, sent.size());
+        assertEquals(LfdOpCodes.TEMPERATURE, sent.get(1).command);
+        assertEquals(LfdOpCodes.ONOFF, waitForPackets(1).get(0).command);
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertTrue("three commands sent within " + elapsed + "ms", elapsed >= 190);
+    }
+
+    @Test
+    public void delayedCommandsAreNotSentByTheSchedulerThread() throws Exception {
+        bridge.setCommandRate(0, 10);
+        LfdLight light = new LfdLight(bridge, 1);
+        light.sendLuminance((byte) 10, (short) 0);
+        light.sendLuminance((byte) 20, (short) 0);
+
+        waitForPackets(2);
+        assertEquals("lfd-sender", transport.getWriteThread());
+    }
+
+    @Test
+    public void commandsSentRightAwayAreNotCountedAsRateLimited() {
+        bridge.setCommandRate(100, 0);
+        LfdLight light = new LfdLight(bridge, 1);
+        light.sendLuminance((byte) 10, (short) 0);
+
+        assertEquals(1, transport.takeSent().size());
+        assertEquals(0, bridge.getMetrics().getCommandsRateLimited());
+    }
+
+    @Test
+    public void commandsHeldBackAreCountedAsRateLimited() throws Exception {
+        bridge.setCommandRate(0, 1);
+        LfdLight light = new LfdLight(bridge, 1);
+        light.sendLuminance((byte) 10, (short) 0);
+        light.sendLuminance((byte) 20, (short) 0);
+
+        assertEquals(1, transport.takeSent().size());
+        assertEquals(1, bridge.getMetrics().getCommandsRateLimited());
+        assertEquals(1, waitForPackets(1).size());
+    }
+
+    private List<TestTransport.Packet> waitForPackets(int amount) throws InterruptedException {
+        List<TestTransport.Packet> sent = new ArrayList<>();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (sent.size() < amount && System.nanoTime() < deadline) {
+            sent.addAll(transport.takeSent());
+            Thread.sleep(5);
+        }
+        return sent;
+    }
+}
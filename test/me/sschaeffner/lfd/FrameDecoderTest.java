@@ -0,0 +1,182 @@
+package me.sschaeffner.lfd;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests splitting the received byte stream into packets.
+ *
+ * @author Simon Schäffner (simon.schaeffner@googlemail.com)
+ */
+public class FrameDecoderTest {
+
+    @Test
+    public void splitsPacketsReceivedTogether() {
+        Receiver receiver = new Receiver();
+        FrameDecoder decoder = new FrameDecoder(receiver, false);
+        byte[] first = packet(7, 1);
+        byte[] second = packet(20, 2);
+        byte[] third = packet(0, 3);
+
+        receive(decoder, concat(frame(first), frame(second), frame(third)));
+
+        assertEquals(3, receiver.packets.size());
+        assertArrayEquals(first, receiver.packets.get(0));
+        assertArrayEquals(second, receiver.packets.get(1));
+        assertArrayEquals(third, receiver.packets.get(2));
+    }
+
+    @Test
+    public void keepsPartialPacketsUntilTheRestArrives() {
+        Receiver receiver = new Receiver();
+        FrameDecoder decoder = new FrameDecoder(receiver, false);
+        byte[] first = packet(30, 1);
+        byte[] second = packet(12, 2);
+        byte[] stream = concat(frame(first), frame(second));
+
+        /* a byte at a time, splitting the length prefix as well */
+        for (byte b : stream) {
+            receive(decoder, new byte[] {b});
+        }
+
+        assertEquals(2, receiver.packets.size());
+        assertArrayEquals(first, receiver.packets.get(0));
+        assertArrayEquals(second, receiver.packets.get(1));
+    }
+
+    @Test
+    public void passesPartsSplitAnywhere() {
+        byte[] first = packet(40, 1);
+        byte[] second = packet(3, 2);
+        byte[] stream = concat(frame(first), frame(second));
+
+        for (int split = 1; split < stream.length; split++) {
+            Receiver receiver = new Receiver();
+            FrameDecoder decoder = new FrameDecoder(receiver, true);
+            receive(decoder, Arrays.copyOfRange(stream, 0, split));
+            receive(decoder, Arrays.copyOfRange(stream, split, stream.length));
+
+            assertEquals("split at " + split, 2, receiver.packets.size());
+            assertArrayEquals(first, receiver.packets.get(0));
+            assertArrayEquals(second, receiver.packets.get(1));
+        }
+    }
+
+    @Test
+    public void growsForPacketsLargerThanTheBuffer() {
+        Receiver receiver = new Receiver();
+        FrameDecoder decoder = new FrameDecoder(receiver, false);
+        byte[] small = packet(10, 1);
+        byte[] large = packet(5000, 2);
+        byte[] largest = packet(0xFFFF, 3);
+
+        receive(decoder, concat(frame(small), frame(large), frame(largest), frame(small)));
+
+        assertEquals(4, receiver.packets.size());
+        assertArrayEquals(small, receiver.packets.get(0));
+        assertArrayEquals(large, receiver.packets.get(1));
+        assertArrayEquals(largest, receiver.packets.get(2));
+        assertArrayEquals(small, receiver.packets.get(3));
+    }
+
+    @Test
+    public void growsForPartialPacketsLargerThanTheBuffer() {
+        Receiver receiver = new Receiver();
+        FrameDecoder decoder = new FrameDecoder(receiver, false);
+        byte[] large = packet(3000, 1);
+        byte[] stream = frame(large);
+
+        receive(decoder, Arrays.copyOfRange(stream, 0, 100));
+        assertEquals(0, receiver.packets.size());
+        /* the buffer must have grown to hold the whole packet */
+        assertTrue(decoder.buffer().capacity() >= stream.length);
+        receive(decoder, Arrays.copyOfRange(stream, 100, stream.length));
+
+        assertEquals(1, receiver.packets.size());
+        assertArrayEquals(large, receiver.packets.get(0));
+    }
+
+    @Test
+    public void passesPacketsWithoutTheLengthPrefix() {
+        Receiver receiver = new Receiver();
+        FrameDecoder decoder = new FrameDecoder(receiver, false);
+        receive(decoder, frame(new byte[] {0x03, 0x13, 0, 0, 0, 5, 0}));
+
+        assertEquals(1, receiver.packets.size());
+        assertEquals(7, receiver.packets.get(0).length);
+        assertEquals(0x13, receiver.packets.get(0)[1]);
+    }
+
+    /**
+     * Feeds data to a decoder the way the connections do: into its buffer, as much as fits at once.
+     */
+    private static void receive(FrameDecoder decoder, byte[] data) {
+        int offset = 0;
+        while (offset < data.length) {
+            ByteBuffer buffer = decoder.buffer();
+            int length = Math.min(buffer.remaining(), data.length - offset);
+            buffer.put(data, offset, length);
+            offset += length;
+            decoder.decode();
+        }
+    }
+
+    private static byte[] packet(int length, int seed) {
+        byte[] packet = new byte[length];
+        for (int i = 0; i < length; i++) {
+            packet[i] = (byte) (seed * 31 + i);
+        }
+        return packet;
+    }
+
+    private static byte[] frame(byte[] packet) {
+        ByteBuffer frame = ByteBuffer.allocate(2 + packet.length).order(ByteOrder.LITTLE_ENDIAN);
+        frame.putShort((short) packet.length);
+        frame.put(packet);
+        return frame.array();
+    }
+
+    private static byte[] concat(byte[]... parts) {
+        int length = 0;
+        for (byte[] part : parts) {
+            length += part.length;
+        }
+        ByteBuffer all = ByteBuffer.allocate(length);
+        for (byte[] part : parts) {
+            all.put(part);
+        }
+        return all.array();
+    }
+
+    /**
+     * Copies every packet, as the decoder's buffer is only valid during the call.
+     */
+    private static final class Receiver implements PacketReceiver {
+        private final List<byte[]> packets = new ArrayList<>();
+
+        @Override
+        public void onPacketReceive(ByteBuffer packet) {
+            byte[] copy = new byte[packet.remaining()];
+            packet.get(copy);
+            packets.add(copy);
+        }
+
+        @Override
+        public void onConnectionLost(IOException cause) {
+        }
+
+        @Override
+        public void onConnectionRestored() {
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package me.sschaeffner.lfd;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests handing messages to another logger on a background thread.
+ *
+ * @author Simon Schäffner (simon.schaeffner@googlemail.com)
+ */
+public class LfdAsyncLoggerTest {
+
+    @Test
+    public void mutableArgumentsAreFormattedWhenOffered() {
+        RecordingLogger delegate = new RecordingLogger();
+        LfdAsyncLogger logger = new LfdAsyncLogger(delegate);
+        StringBuilder argument = new StringBuilder("before");
+        logger.info("{} {}", argument, 42);
+        argument.setLength(0);
+        argument.append("after");
+        logger.close();
+
+        assertEquals("before 42", delegate.messages.get(0));
+    }
+
+    @Test
+    public void throwablesAreHandedToTheDelegate() {
+        RecordingLogger delegate = new RecordingLogger();
+        LfdAsyncLogger logger = new LfdAsyncLogger(delegate);
+        Exception cause = new Exception("cause");
+        logger.error("failed", cause);
+        logger.close();
+
+        assertEquals("failed", delegate.messages.get(0));
+        assertSame(cause, delegate.throwables.get(0));
+    }
+
+    @Test
+    public void theDefaultThrowableOverloadKeepsTheStackTrace() {
+        final List<String> messages = new ArrayList<>();
+        LfdLogger logger = new LfdLogger() {
+            @Override
+            public void debug(String msg) {
+            }
+
+            @Override
+            public void info(String msg) {
+            }
+
+            @Override
+            public void error(String msg) {
+                messages.add(msg);
+            }
+        };
+        logger.error("failed", new IllegalStateException("cause"));
+
+        String message = messages.get(0);
+        assertTrue(message, message.startsWith("failed"));
+        assertTrue(message, message.contains("IllegalStateException: cause"));
+        assertTrue(message, message.contains("at " + LfdAsyncLoggerTest.class.getName()));
+    }
+
+    /**
+     * Records all messages and the throwables logged with them.
+     */
+    private static class RecordingLogger implements LfdLogger {
+        private final List<String> messages = new ArrayList<>();
+        private final List<Throwable> throwables = new ArrayList<>();
+
+        @Override
+        public void debug(String msg) {
+            messages.add(msg);
+        }
+
+        @Override
+        public void info(String msg) {
+            messages.add(msg);
+        }
+
+        @Override
+        public void error(String msg) {
+            messages.add(msg);
+        }
+
+        @Override
+        public void error(String msg, Throwable throwable) {
+            messages.add(msg);
+            throwables.add(throwable);
+        }
+    }
+}
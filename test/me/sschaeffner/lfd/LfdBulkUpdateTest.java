@@ -0,0 +1,196 @@
+package me.sschaeffner.lfd;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests batches, planning group commands for bulk updates and restoring scenes without a bridge.
+ *
+ * @author Simon Schäffner (simon.schaeffner@googlemail.com)
+ */
+public class LfdBulkUpdateTest {
+
+    private static final long A = 0xA1;
+    private static final long B = 0xB2;
+    private static final long C = 0xC3;
+    private static final long D = 0xD4;
+
+    /* state of all lights as reported by the bridge */
+    private static final LfdLightState STATE = new LfdLightState(true, (byte) 40, (short) 2700, (byte) 10, (byte) 20, (byte) 30);
+
+    private TestTransport transport;
+    private LfdBridge bridge;
+
+    /**
+     * Connects to a bridge with the lights A, B, C and D, group 1 (A, B) and group 2 (C, D).
+     */
+    @Before
+    public void connect() throws Exception {
+        transport = new TestTransport();
+        bridge = transport.connect();
+
+        CompletableFuture<List<LfdLight>> lights = bridge.requestAllLightsStatusAsync();
+        transport.answer(TestTransport.allLightsStatus(new long[] {A, B, C, D}, new LfdLightState[] {STATE, STATE, STATE, STATE}));
+        lights.get(5, TimeUnit.SECONDS);
+
+        CompletableFuture<LfdTopology> topology = bridge.refreshTopologyAsync(1);
+        transport.answer(TestTransport.groupList((short) 1, (short) 2));
+        transport.answer(TestTransport.groupInfo((short) 1, A, B));
+        transport.answer(TestTransport.groupInfo((short) 2, C, D));
+        topology.get(5, TimeUnit.SECONDS);
+        transport.takeSent();
+    }
+
+    @After
+    public void shutdown() throws Exception {
+        bridge.shutdown();
+    }
+
+    @Test
+    public void groupsWithTheSameValueForAllMembersAreSentOneCommand() {
+        LfdBulkUpdate update = new LfdBulkUpdate();
+        update.set(light(A)).setLuminance(50);
+        update.set(light(B)).setLuminance(50);
+        update.set(light(C)).setLuminance(50);
+
+        assertEquals(2, update.send((short) 0, false));
+
+        List<TestTransport.Packet> sent = transport.takeSent();
+        assertEquals(2, sent.size());
+        assertCommand(sent.get(0), PacketEncoder.FLAG_GROUP, 1, LfdOpCodes.LUMINANCE, 50);
+        /* group 2 would set D as well */
+        assertCommand(sent.get(1), PacketEncoder.FLAG_LIGHT, C, LfdOpCodes.LUMINANCE, 50);
+        assertEquals(50, light(A).getState().getLuminance());
+        assertEquals(40, light(D).getState().getLuminance());
+    }
+
+    @Test
+    public void membersWithDifferentValuesAreSentSeparately() {
+        LfdBulkUpdate update = new LfdBulkUpdate();
+        update.set(light(A)).setLuminance(50);
+        update.set(light(B)).setLuminance(60);
+
+        assertEquals(2, update.send((short) 0, false));
+
+        List<TestTransport.Packet> sent = transport.takeSent();
+        assertCommand(sent.get(0), PacketEncoder.FLAG_LIGHT, A, LfdOpCodes.LUMINANCE, 50);
+        assertCommand(sent.get(1), PacketEncoder.FLAG_LIGHT, B, LfdOpCodes.LUMINANCE, 60);
+    }
+
+    @Test
+    public void unchangedValuesAreSkipped() {
+        LfdBulkUpdate update = new LfdBulkUpdate();
+        update.set(light(A)).setLuminance(40);
+        update.set(light(B)).setLuminance(40);
+        update.set(light(C)).setLuminance(70);
+
+        assertEquals(1, update.send((short) 0, true));
+        assertCommand(transport.takeSent().get(0), PacketEncoder.FLAG_LIGHT, C, LfdOpCodes.LUMINANCE, 70);
+    }
+
+    @Test
+    public void membersAlreadyHavingTheValueDoNotPreventGroupCommands() {
+        light(D).sendLuminance((byte) 90, (short) 0);
+        transport.takeSent();
+
+        LfdBulkUpdate update = new LfdBulkUpdate();
+        for (long address : new long[] {A, B, C, D}) {
+            update.set(light(address)).setLuminance(90);
+        }
+
+        assertEquals(2, update.send((short) 0, true));
+        List<TestTransport.Packet> sent = transport.takeSent();
+        assertCommand(sent.get(0), PacketEncoder.FLAG_GROUP, 1, LfdOpCodes.LUMINANCE, 90);
+        assertCommand(sent.get(1), PacketEncoder.FLAG_LIGHT, C, LfdOpCodes.LUMINANCE, 90);
+    }
+
+    @Test
+    public void allCommandsAreSentInASingleWrite() {
+        LfdBulkUpdate update = new LfdBulkUpdate();
+        update.set(light(A)).setColour(255, 0, 0);
+        update.set(light(B)).setTemperature(4000);
+        update.set(light(C)).setOn(false);
+        int writes = transport.getWrites();
+
+        assertEquals(3, update.send((short) 0, false));
+        assertEquals(writes + 1, transport.getWrites());
+    }
+
+    @Test
+    public void scenesRestoreOnlyWhatChanged() {
+        LfdScene scene = LfdScene.capture(bridge);
+        assertEquals(4, scene.size());
+
+        bridge.getGroup((short) 1).sendLuminance((byte) 80, (short) 0);
+        light(C).sendLuminance((byte) 80, (short) 0);
+        light(D).sendOnOff(false);
+        transport.takeSent();
+
+        assertEquals(3, scene.restore((short) 0));
+        List<TestTransport.Packet> sent = transport.takeSent();
+        assertCommand(sent.get(0), PacketEncoder.FLAG_LIGHT, D, LfdOpCodes.ONOFF, 1);
+        assertCommand(sent.get(1), PacketEncoder.FLAG_GROUP, 1, LfdOpCodes.LUMINANCE, 40);
+        assertCommand(sent.get(2), PacketEncoder.FLAG_LIGHT, C, LfdOpCodes.LUMINANCE, 40);
+        for (long address : new long[] {A, B, C, D}) {
+            assertEquals(STATE, light(address).getState());
+        }
+
+        /* nothing left to restore */
+        assertEquals(0, scene.restore((short) 0));
+    }
+
+    @Test
+    public void scenesOnlySwitchOffLightsCapturedWhileOff() {
+        light(A).sendOnOff(false);
+        light(A).sendLuminance((byte) 5, (short) 0);
+        LfdScene scene = LfdScene.capture(bridge);
+        light(A).sendOnOff(true);
+        transport.takeSent();
+
+        assertEquals(1, scene.restore((short) 0));
+        assertCommand(transport.takeSent().get(0), PacketEncoder.FLAG_LIGHT, A, LfdOpCodes.ONOFF, 0);
+    }
+
+    @Test
+    public void requestsInABatchAreSentRightAway() throws Exception {
+        final List<List<TestTransport.Packet>> sentInBatch = new ArrayList<>();
+        bridge.batch(b -> {
+            light(A).sendLuminance((byte) 50, (short) 0);
+            CompletableFuture<List<LfdLight>> lights = b.requestAllLightsStatusAsync();
+            List<TestTransport.Packet> sent = transport.takeSent();
+            sentInBatch.add(sent);
+            ByteBuffer answer = TestTransport.allLightsStatus(new long[] {A, B, C, D}, new LfdLightState[] {STATE, STATE, STATE, STATE});
+            answer.put(5, sent.get(sent.size() - 1).sequence);
+            transport.receive(answer);
+            lights.join();
+            light(B).sendLuminance((byte) 50, (short) 0);
+            sentInBatch.add(transport.takeSent());
+        });
+
+        /* the command collected before the request is sent along with it */
+        assertEquals(2, sentInBatch.get(0).size());
+        assertEquals(LfdOpCodes.ALL_LIGHTS_STATUS, sentInBatch.get(0).get(1).command);
+        assertEquals(0, sentInBatch.get(1).size());
+        assertCommand(transport.takeSent().get(0), PacketEncoder.FLAG_LIGHT, B, LfdOpCodes.LUMINANCE, 50);
+    }
+
+    private LfdLight light(long address) {
+        return bridge.getLight(address);
+    }
+
+    private static void assertCommand(TestTransport.Packet packet, byte flag, long target, byte command, int value) {
+        assertEquals(packet.toString(), flag, packet.flag);
+        assertEquals(packet.toString(), target, packet.target);
+        assertEquals(packet.toString(), command, packet.command);
+        assertEquals(packet.toString(), value, packet.data & 0xFF);
+    }
+}
@@ -0,0 +1,119 @@
+package me.sschaeffner.lfd;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests playing effects without a bridge.
+ *
+ * @author Simon Schäffner (simon.schaeffner@googlemail.com)
+ */
+public class LfdEffectEngineTest {
+
+    private TestTransport transport;
+    private LfdBridge bridge;
+    private LfdEffectEngine engine;
+
+    @Before
+    public void start() throws Exception {
+        transport = new TestTransport();
+        bridge = transport.connect();
+        engine = new LfdEffectEngine(50);
+    }
+
+    @After
+    public void stop() throws Exception {
+        engine.close();
+        bridge.shutdown();
+    }
+
+    @Test
+    public void framesOfFinishedEffectsAreNotSent() throws Exception {
+        LfdLight light = new LfdLight(bridge, 1);
+        CompletableFuture<Void> played = engine.play((time, index, count, frame) -> {
+            frame.setLuminance(50);
+            return false;
+        }, Collections.singletonList(light));
+
+        played.get(5, TimeUnit.SECONDS);
+        assertTrue(transport.takeSent().isEmpty());
+    }
+
+    @Test
+    public void sunrisesEndWithTheRisenSun() throws Exception {
+        LfdLight first = new LfdLight(bridge, 1);
+        LfdLight second = new LfdLight(bridge, 2);
+        engine.play(LfdEffects.sunrise(230), Arrays.asList(first, second)).get(5, TimeUnit.SECONDS);
+
+        List<TestTransport.Packet> sent = transport.takeSent();
+        for (long target = 1; target <= 2; target++) {
+            TestTransport.Packet luminance = null;
+            TestTransport.Packet temperature = null;
+            for (TestTransport.Packet packet : sent) {
+                if (packet.target == target && packet.command == LfdOpCodes.LUMINANCE) {
+                    luminance = packet;
+                } else if (packet.target == target && packet.command == LfdOpCodes.TEMPERATURE) {
+                    temperature = packet;
+                }
+            }
+            assertEquals(100, luminance.data & 0xFF);
+            assertEquals(6500, temperature.data & 0xFFFF);
+        }
+        assertEquals(100, first.getState().getLuminance());
+        assertEquals(6500, second.getState().getTemperature());
+    }
+
+    @Test
+    public void sunrisesCanBePlayedAgain() {
+        LfdEffect sunrise = LfdEffects.sunrise(100);
+        LfdFrame frame = new LfdFrame();
+        assertTrue(sunrise.compute(120, 0, 1, frame));
+        assertFalse(sunrise.compute(140, 0, 1, frame));
+        assertTrue(sunrise.compute(0, 0, 1, frame));
+        assertTrue(sunrise.compute(100, 0, 1, frame));
+        assertFalse(sunrise.compute(150, 0, 1, frame));
+    }
+
+    @Test
+    public void failingBridgesOnlyStopTheirPlayback() throws Exception {
+        TestTransport failingTransport = new TestTransport();
+        LfdBridge failingBridge = failingTransport.connect();
+        try {
+            RuntimeException failure = new IllegalStateException("write failed");
+            failingTransport.writeFailure = failure;
+            CompletableFuture<Void> failing = engine.play(LfdEffects.colourLoop(1000, false),
+                    Collections.singletonList(new LfdLight(failingBridge, 1)));
+            CompletableFuture<Void> running = engine.play(LfdEffects.colourLoop(1000, false),
+                    Collections.singletonList(new LfdLight(bridge, 2)));
+
+            try {
+                failing.get(5, TimeUnit.SECONDS);
+                fail("playback did not fail");
+            } catch (ExecutionException e) {
+                assertSame(failure, e.getCause());
+            }
+
+            /* the engine keeps ticking */
+            transport.takeSent();
+            Thread.sleep(200);
+            assertFalse(transport.takeSent().isEmpty());
+            assertFalse(running.isDone());
+        } finally {
+            failingBridge.shutdown();
+        }
+    }
+}
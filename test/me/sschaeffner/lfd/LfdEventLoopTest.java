@@ -0,0 +1,77 @@
+package me.sschaeffner.lfd;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests that failures on the event loop's thread are contained and logged.
+ *
+ * @author Simon Schäffner (simon.schaeffner@googlemail.com)
+ */
+public class LfdEventLoopTest {
+
+    @Test
+    public void failingTasksAreLoggedAndLaterTasksStillRun() throws Exception {
+        final CountDownLatch logged = new CountDownLatch(1);
+        final StringBuilder message = new StringBuilder();
+        LfdEventLoop eventLoop = new LfdEventLoop(new LfdLogger() {
+            @Override
+            public void debug(String msg) {
+            }
+
+            @Override
+            public void info(String msg) {
+            }
+
+            @Override
+            public void error(String msg) {
+                synchronized (message) {
+                    message.append(msg);
+                }
+                logged.countDown();
+            }
+        });
+        final CountDownLatch ran = new CountDownLatch(1);
+        try {
+            eventLoop.execute(new Runnable() {
+                @Override
+                public void run() {
+                    throw new IllegalStateException("task failed");
+                }
+            });
+            eventLoop.execute(new Runnable() {
+                @Override
+                public void run() {
+                    ran.countDown();
+                }
+            });
+
+            assertTrue(ran.await(5, TimeUnit.SECONDS));
+            assertTrue(logged.await(5, TimeUnit.SECONDS));
+            synchronized (message) {
+                assertTrue(message.toString(), message.toString().contains("IllegalStateException: task failed"));
+            }
+        } finally {
+            eventLoop.close();
+        }
+    }
+
+    @Test
+    public void closedEventLoopsRejectConnections() throws Exception {
+        LfdEventLoop eventLoop = new LfdEventLoop();
+        eventLoop.close();
+        try {
+            eventLoop.register(null);
+            fail("closed event loop accepted a connection");
+        } catch (IOException e) {
+            assertEquals("event loop closed", e.getMessage());
+        }
+    }
+}
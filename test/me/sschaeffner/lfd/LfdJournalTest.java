@@ -0,0 +1,161 @@
+package me.sschaeffner.lfd;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests appending to and reading the journal's segment files.
+ *
+ * @author Simon Schäffner (simon.schaeffner@googlemail.com)
+ */
+public class LfdJournalTest {
+
+    private static final LfdLightState STATE = new LfdLightState(true, (byte) 40, (short) 2700, (byte) 200, (byte) 20, (byte) 30);
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void recordsAreReadBackInOrder() throws Exception {
+        LfdJournal journal = new LfdJournal(directory());
+        long before = System.currentTimeMillis();
+        journal.append(LfdJournal.Event.ADDED, 0xA1, STATE);
+        journal.append(LfdJournal.Event.REMOVED, 0xB2, LfdLightState.UNKNOWN);
+
+        LfdJournalCursor cursor = journal.cursor();
+        assertTrue(cursor.next());
+        assertTrue(cursor.getTime() >= before);
+        assertEquals(0xA1, cursor.getAddress());
+        assertEquals(0, cursor.getSequence());
+        assertEquals(LfdJournal.Event.ADDED, cursor.getEvent());
+        assertEquals(STATE, cursor.getState());
+        assertEquals(200, cursor.getR() & 0xFF);
+        assertTrue(cursor.next());
+        assertEquals(LfdJournal.Event.REMOVED, cursor.getEvent());
+        assertEquals(1, cursor.getSequence());
+        assertFalse(cursor.next());
+        journal.close();
+    }
+
+    @Test
+    public void fullSegmentsRollOver() throws Exception {
+        LfdJournal journal = new LfdJournal(directory(), 4, 10);
+        append(journal, 10);
+
+        assertEquals(3, LfdJournal.segments(directory()).size());
+        assertSequences(journal.cursor(), 0, 10);
+        journal.close();
+    }
+
+    @Test
+    public void theOldestSegmentsBeyondTheRetentionAreDeleted() throws Exception {
+        LfdJournal journal = new LfdJournal(directory(), 4, 2);
+        append(journal, 10);
+
+        /* segments starting at 4 and 8 are kept */
+        assertEquals(2, LfdJournal.segments(directory()).size());
+        assertSequences(journal.cursor(), 4, 10);
+        journal.close();
+    }
+
+    @Test
+    public void reopenedJournalsContinueAfterTheLastRecord() throws Exception {
+        LfdJournal journal = new LfdJournal(directory(), 4, 10);
+        append(journal, 6);
+        journal.close();
+
+        journal = new LfdJournal(directory(), 4, 10);
+        assertEquals(6, journal.getNextSequence());
+        append(journal, 3);
+        assertSequences(journal.cursor(), 0, 9);
+        journal.close();
+    }
+
+    @Test
+    public void cursorsStartAtTheGivenTime() throws Exception {
+        LfdJournal journal = new LfdJournal(directory(), 4, 10);
+        append(journal, 6);
+        Thread.sleep(20);
+        long fromTime = System.currentTimeMillis();
+        append(journal, 3);
+
+        /* the first segment ends before fromTime and is skipped, the second one partly */
+        assertSequences(journal.cursor(fromTime), 6, 9);
+        assertFalse(journal.cursor(System.currentTimeMillis() + 1000).next());
+        journal.close();
+    }
+
+    @Test
+    public void cursorsOnlyCoverRecordsAppendedBeforeOpening() throws Exception {
+        LfdJournal journal = new LfdJournal(directory(), 4, 10);
+        append(journal, 2);
+        LfdJournalCursor cursor = journal.cursor();
+        append(journal, 5);
+
+        assertSequences(cursor, 0, 2);
+        journal.close();
+    }
+
+    @Test
+    public void lightsLoadedFromATopologyCacheAreNotRecordedAsAdded() throws Exception {
+        LfdJournal journal = new LfdJournal(directory());
+        Path cache = folder.getRoot().toPath().resolve("topology.lfdt");
+        TestTransport transport = new TestTransport();
+        LfdBridge bridge = transport.connect();
+        bridge.addChangeListener(journal);
+        LfdBridge restarted = new TestTransport().connect();
+        restarted.addChangeListener(journal);
+        try {
+            CompletableFuture<List<LfdLight>> lights = bridge.requestAllLightsStatusAsync();
+            transport.answer(TestTransport.allLightsStatus(new long[] {0xA1}, new LfdLightState[] {STATE}));
+            lights.get(5, TimeUnit.SECONDS);
+            bridge.saveTopologyCache(cache);
+            assertTrue(restarted.loadTopologyCache(cache));
+        } finally {
+            bridge.shutdown();
+            restarted.shutdown();
+        }
+
+        LfdJournalCursor cursor = journal.cursor();
+        assertTrue(cursor.next());
+        assertEquals(LfdJournal.Event.ADDED, cursor.getEvent());
+        assertTrue(cursor.next());
+        assertEquals(LfdJournal.Event.LOADED, cursor.getEvent());
+        assertEquals(0xA1, cursor.getAddress());
+        assertEquals(STATE, cursor.getState());
+        assertFalse(cursor.next());
+        journal.close();
+    }
+
+    private Path directory() {
+        return folder.getRoot().toPath().resolve("journal");
+    }
+
+    private static void append(LfdJournal journal, int amount) {
+        for (int i = 0; i < amount; i++) {
+            journal.append(LfdJournal.Event.CHANGED, 0xA1, STATE);
+        }
+    }
+
+    /**
+     * Asserts that the cursor returns the records with sequences from start (inclusive) to end (exclusive).
+     */
+    private static void assertSequences(LfdJournalCursor cursor, long start, long end) throws IOException {
+        for (long sequence = start; sequence < end; sequence++) {
+            assertTrue("missing record " + sequence, cursor.next());
+            assertEquals(sequence, cursor.getSequence());
+        }
+        assertFalse(cursor.next());
+    }
+}
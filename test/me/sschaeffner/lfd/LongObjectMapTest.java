@@ -0,0 +1,195 @@
+package me.sschaeffner.lfd;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the primitive-keyed map and address set.
+ *
+ * @author Simon Schäffner (simon.schaeffner@googlemail.com)
+ */
+public class LongObjectMapTest {
+
+    @Test
+    public void putReplacesAndReturnsThePreviousValue() {
+        LongObjectMap<String> map = new LongObjectMap<>();
+        assertNull(map.put(1, "a"));
+        assertEquals("a", map.put(1, "b"));
+        assertEquals("b", map.get(1));
+        assertEquals(1, map.size());
+        assertNull(map.get(2));
+    }
+
+    @Test
+    public void zeroAndNegativeKeysAreOrdinaryKeys() {
+        LongObjectMap<String> map = new LongObjectMap<>();
+        map.put(0, "zero");
+        map.put(-1, "minus one");
+        map.put(Long.MIN_VALUE, "min");
+        assertEquals("zero", map.get(0));
+        assertEquals("minus one", map.get(-1));
+        assertEquals("min", map.get(Long.MIN_VALUE));
+    }
+
+    @Test
+    public void removingKeepsCollidingKeysReachable() {
+        LongObjectMap<Long> map = new LongObjectMap<>();
+        List<Long> colliding = collidingKeys(map.capacity(), 6);
+        for (long key : colliding) {
+            map.put(key, key);
+        }
+
+        /* remove from the middle of the probe sequence, then the start */
+        assertEquals(colliding.get(2), map.remove(colliding.get(2)));
+        assertEquals(colliding.get(0), map.remove(colliding.get(0)));
+        assertNull(map.remove(colliding.get(0)));
+
+        for (int i = 0; i < colliding.size(); i++) {
+            long key = colliding.get(i);
+            if (i == 0 || i == 2) {
+                assertNull(map.get(key));
+            } else {
+                assertEquals(Long.valueOf(key), map.get(key));
+            }
+        }
+        assertEquals(4, map.size());
+    }
+
+    @Test
+    public void probeSequencesWrapAroundTheEndOfTheTable() {
+        LongObjectMap<Long> map = new LongObjectMap<>();
+        int capacity = map.capacity();
+        List<Long> last = keysInSlot(capacity, capacity - 1, 3);
+        List<Long> first = keysInSlot(capacity, 0, 2);
+        for (long key : last) {
+            map.put(key, key);
+        }
+        for (long key : first) {
+            map.put(key, key);
+        }
+
+        map.remove(last.get(0));
+        for (int i = 1; i < last.size(); i++) {
+            assertEquals(last.get(i), map.get(last.get(i)));
+        }
+        for (long key : first) {
+            assertEquals(Long.valueOf(key), map.get(key));
+        }
+    }
+
+    @Test
+    public void behavesLikeAHashMap() {
+        Random random = new Random(42);
+        LongObjectMap<Long> map = new LongObjectMap<>();
+        Map<Long, Long> expected = new HashMap<>();
+
+        for (int i = 0; i < 200000; i++) {
+            /* a small key space so removals hit and the probe sequences get long */
+            long key = random.nextInt(2000) * 0x100000000L;
+            if (random.nextInt(3) == 0) {
+                assertEquals(expected.remove(key), map.remove(key));
+            } else {
+                assertEquals(expected.put(key, (long) i), map.put(key, (long) i));
+            }
+        }
+
+        assertEquals(expected.size(), map.size());
+        assertEquals(expected.size(), map.values().size());
+        for (Map.Entry<Long, Long> entry : expected.entrySet()) {
+            assertEquals(entry.getValue(), map.get(entry.getKey()));
+        }
+        int entries = 0;
+        for (int slot = 0; slot < map.capacity(); slot++) {
+            if (map.valueAt(slot) != null) {
+                assertEquals(expected.get(map.keyAt(slot)), map.valueAt(slot));
+                entries++;
+            }
+        }
+        assertEquals(expected.size(), entries);
+    }
+
+    @Test
+    public void copiesAreIndependent() {
+        LongObjectMap<String> map = new LongObjectMap<>();
+        map.put(1, "a");
+        LongObjectMap<String> copy = map.copy(100);
+        copy.put(2, "b");
+        copy.remove(1);
+
+        assertEquals("a", map.get(1));
+        assertNull(map.get(2));
+        assertEquals(1, copy.size());
+        assertTrue(copy.capacity() * 3 / 4 >= 100);
+    }
+
+    @Test
+    public void addressSetsAreSortedWithoutDuplicates() {
+        LfdAddressSet set = LfdAddressSet.of(new long[] {5, 3, 5, 1, 3, 9}, 5);
+        assertEquals(3, set.size());
+        assertEquals(1, set.get(0));
+        assertEquals(3, set.get(1));
+        assertEquals(5, set.get(2));
+        assertTrue(set.contains(3L));
+        assertFalse(set.contains(9L));
+        assertTrue(set.contains((Object) 5L));
+        assertEquals(0, LfdAddressSet.of(new long[0], 0).size());
+    }
+
+    /**
+     * Finds keys landing in the same slot of an empty map with the given capacity.
+     */
+    private static List<Long> collidingKeys(int capacity, int amount) {
+        LongObjectMap<Long> probe = new LongObjectMap<>();
+        long home = -1;
+        List<Long> keys = new ArrayList<>();
+        for (long key = 1; keys.size() < amount; key++) {
+            long slot = slotOf(probe, capacity, key);
+            if (home == -1) {
+                home = slot;
+            }
+            if (slot == home) {
+                keys.add(key);
+            }
+        }
+        return keys;
+    }
+
+    /**
+     * Finds keys landing in the given slot of an empty map with the given capacity.
+     */
+    private static List<Long> keysInSlot(int capacity, int slot, int amount) {
+        LongObjectMap<Long> probe = new LongObjectMap<>();
+        List<Long> keys = new ArrayList<>();
+        for (long key = 1; keys.size() < amount; key++) {
+            if (slotOf(probe, capacity, key) == slot) {
+                keys.add(key);
+            }
+        }
+        return keys;
+    }
+
+    /**
+     * Returns the slot a key is stored in when put into an empty map.
+     */
+    private static int slotOf(LongObjectMap<Long> probe, int capacity, long key) {
+        probe.put(key, key);
+        int slot = -1;
+        for (int i = 0; i < capacity; i++) {
+            if (probe.valueAt(i) != null) {
+                slot = i;
+            }
+        }
+        probe.remove(key);
+        return slot;
+    }
+}
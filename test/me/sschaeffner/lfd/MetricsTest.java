@@ -0,0 +1,89 @@
+package me.sschaeffner.lfd;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests counting received frames that were dropped without a bridge.
+ *
+ * @author Simon Schäffner (simon.schaeffner@googlemail.com)
+ */
+public class MetricsTest {
+
+    private static final long ADDRESS = 0x84182600000A0001L;
+
+    private static final LfdLightState STATE = new LfdLightState(true, (byte) 40, (short) 2700, (byte) 1, (byte) 2, (byte) 3);
+
+    private TestTransport transport;
+    private LfdBridge bridge;
+
+    @Before
+    public void connect() throws Exception {
+        transport = new TestTransport();
+        bridge = transport.connect();
+    }
+
+    @After
+    public void shutdown() throws Exception {
+        bridge.shutdown();
+    }
+
+    @Test
+    public void acknowledgementsOfCommandsAreNotDropped() {
+        new LfdLight(bridge, ADDRESS).sendLuminance((byte) 10, (short) 0);
+        List<TestTransport.Packet> sent = transport.takeSent();
+        assertEquals(1, sent.size());
+
+        transport.receive(TestTransport.acknowledgement(sent.get(0)));
+        assertEquals(0, bridge.getMetrics().getFramesDropped());
+    }
+
+    @Test
+    public void shortFramesAreCountedAsTooShort() {
+        transport.receive(ByteBuffer.wrap(new byte[] {0x03, 0x01, 0x00}));
+
+        LfdMetricsSnapshot metrics = bridge.getMetrics();
+        assertEquals(1, metrics.getFramesTooShort());
+        assertEquals(1, metrics.getFramesDropped());
+    }
+
+    @Test
+    public void answersWithoutRequestAreCountedAsUnmatched() {
+        ByteBuffer answer = TestTransport.groupList((short) 1);
+        answer.put(5, (byte) 0x42);
+        transport.receive(answer);
+
+        LfdMetricsSnapshot metrics = bridge.getMetrics();
+        assertEquals(1, metrics.getFramesUnmatched());
+        assertEquals(1, metrics.getFramesDropped());
+    }
+
+    @Test
+    public void corruptAnswersAreCountedAsUnparsable() throws Exception {
+        CompletableFuture<List<LfdLight>> lights = bridge.requestAllLightsStatusAsync();
+        ByteBuffer answer = TestTransport.allLightsStatus(new long[] {ADDRESS}, new LfdLightState[] {STATE});
+        answer.limit(answer.limit() - 10);
+        transport.answer(answer);
+
+        try {
+            lights.get(5, TimeUnit.SECONDS);
+            fail("corrupt answer was parsed");
+        } catch (ExecutionException e) {
+            assertTrue("unexpected " + e.getCause(), e.getCause() instanceof LfdException);
+        }
+        LfdMetricsSnapshot metrics = bridge.getMetrics();
+        assertEquals(1, metrics.getFramesUnparsable());
+        assertEquals(1, metrics.getFramesDropped());
+    }
+}
@@ -0,0 +1,147 @@
+package me.sschaeffner.lfd;
+
+import org.junit.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests correlating requests and answers by sequence without a bridge.
+ *
+ * @author Simon Schäffner (simon.schaeffner@googlemail.com)
+ */
+public class RequestTableTest {
+
+    /* timeout of requests that are not supposed to time out in milliseconds */
+    private static final long LONG_TIMEOUT = 60000;
+
+    @Test
+    public void sequencesWrapAroundAndSkipRequestsInFlight() throws Exception {
+        RequestTable table = new RequestTable(16, Scheduler.newSender());
+        PendingRequest request = register(table, LfdOpCodes.GROUP_LIST, LONG_TIMEOUT);
+        assertEquals(0, request.sequence);
+
+        for (int i = 1; i < 256; i++) {
+            assertEquals((byte) i, table.nextSequence());
+        }
+        /* sequence 0 is still waiting for its answer */
+        assertEquals(1, table.nextSequence());
+
+        assertSame(request, table.take((byte) 0, LfdOpCodes.GROUP_LIST));
+        for (int i = 2; i < 256; i++) {
+            table.nextSequence();
+        }
+        assertEquals(0, table.nextSequence());
+    }
+
+    @Test
+    public void answersMatchSequenceAndOpcode() throws Exception {
+        RequestTable table = new RequestTable(16, Scheduler.newSender());
+        PendingRequest request = register(table, LfdOpCodes.GROUP_LIST, LONG_TIMEOUT);
+
+        assertNull(table.take(request.sequence, LfdOpCodes.ALL_LIGHTS_STATUS));
+        assertNull(table.take((byte) (request.sequence + 1), LfdOpCodes.GROUP_LIST));
+        assertEquals(1, table.getInFlight());
+
+        assertSame(request, table.take(request.sequence, LfdOpCodes.GROUP_LIST));
+        assertNull(table.take(request.sequence, LfdOpCodes.GROUP_LIST));
+        assertEquals(0, table.getInFlight());
+    }
+
+    @Test
+    public void requestsWithoutAnswerTimeOut() throws Exception {
+        RequestTable table = new RequestTable(16, Scheduler.newSender());
+        PendingRequest request = register(table, LfdOpCodes.GROUP_LIST, 50);
+
+        assertFailsWith(request.future, LfdException.class);
+        assertEquals(1, table.getTimeouts());
+        assertEquals(0, table.getInFlight());
+        assertNull(table.take(request.sequence, LfdOpCodes.GROUP_LIST));
+    }
+
+    @Test
+    public void fullWindowQueuesRequestsUntilASlotIsFree() throws Exception {
+        RequestTable table = new RequestTable(1, Scheduler.newSender());
+        PendingRequest first = register(table, LfdOpCodes.GROUP_LIST, LONG_TIMEOUT);
+        CompletableFuture<PendingRequest> second = table.register(LfdRequest.GROUP_INFO, LfdOpCodes.GROUP_INFO, LONG_TIMEOUT);
+
+        assertFalse(second.isDone());
+        assertEquals(1, table.getWaiting());
+
+        table.take(first.sequence, LfdOpCodes.GROUP_LIST);
+        PendingRequest admitted = second.get(5, TimeUnit.SECONDS);
+        assertEquals(LfdRequest.GROUP_INFO, admitted.type);
+        assertNotEquals(first.sequence, admitted.sequence);
+        assertEquals(0, table.getWaiting());
+        assertEquals(1, table.getInFlight());
+    }
+
+    @Test
+    public void queuedRequestsTimeOutWaitingForASlot() throws Exception {
+        RequestTable table = new RequestTable(1, Scheduler.newSender());
+        register(table, LfdOpCodes.GROUP_LIST, LONG_TIMEOUT);
+        CompletableFuture<PendingRequest> second = table.register(LfdRequest.GROUP_INFO, LfdOpCodes.GROUP_INFO, 50);
+
+        assertFailsWith(second, LfdException.class);
+        assertEquals(0, table.getWaiting());
+        assertEquals(1, table.getTimeouts());
+    }
+
+    @Test
+    public void slotsFreedByTimeoutsAdmitRequestsOffTheSchedulerThread() throws Exception {
+        RequestTable table = new RequestTable(1, Scheduler.newSender());
+        register(table, LfdOpCodes.GROUP_LIST, 50);
+        CompletableFuture<String> admittedOn = table.register(LfdRequest.GROUP_INFO, LfdOpCodes.GROUP_INFO, LONG_TIMEOUT)
+                .thenApply(request -> Thread.currentThread().getName());
+
+        assertEquals("lfd-sender", admittedOn.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void cancellingFreesTheSlot() throws Exception {
+        RequestTable table = new RequestTable(1, Scheduler.newSender());
+        CompletableFuture<PendingRequest> registered = table.register(LfdRequest.GROUP_LIST, LfdOpCodes.GROUP_LIST, LONG_TIMEOUT);
+        PendingRequest request = registered.get();
+
+        table.cancel(registered);
+        assertFailsWith(request.future, LfdException.class);
+        assertEquals(0, table.getInFlight());
+    }
+
+    @Test
+    public void failAllFailsRequestsInFlightAndWaiting() throws Exception {
+        RequestTable table = new RequestTable(1, Scheduler.newSender());
+        PendingRequest first = register(table, LfdOpCodes.GROUP_LIST, LONG_TIMEOUT);
+        CompletableFuture<PendingRequest> second = table.register(LfdRequest.GROUP_INFO, LfdOpCodes.GROUP_INFO, LONG_TIMEOUT);
+
+        table.failAll(new LfdException("connection lost"));
+        assertFailsWith(first.future, LfdException.class);
+        assertFailsWith(second, LfdException.class);
+        assertEquals(0, table.getInFlight());
+        assertEquals(0, table.getWaiting());
+    }
+
+    private static PendingRequest register(RequestTable table, byte opcode, long timeout) throws Exception {
+        CompletableFuture<PendingRequest> registered = table.register(LfdRequest.GROUP_LIST, opcode, timeout);
+        assertTrue(registered.isDone());
+        return registered.get();
+    }
+
+    private static void assertFailsWith(CompletableFuture<?> future, Class<? extends Throwable> type) throws Exception {
+        try {
+            future.get(5, TimeUnit.SECONDS);
+            fail("future completed normally");
+        } catch (ExecutionException e) {
+            assertTrue("unexpected " + e.getCause(), type.isInstance(e.getCause()));
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package me.sschaeffner.lfd;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the senders running blocking writes.
+ *
+ * @author Simon Schäffner (simon.schaeffner@googlemail.com)
+ */
+public class SchedulerTest {
+
+    @Test
+    public void aBlockedSenderRunsNoFurtherTasks() throws Exception {
+        Executor sender = Scheduler.newSender();
+        final CountDownLatch blocked = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(10);
+        final List<String> threads = Collections.synchronizedList(new ArrayList<String>());
+        sender.execute(new Runnable() {
+            @Override
+            public void run() {
+                blocked.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        for (int i = 0; i < 10; i++) {
+            sender.execute(new Runnable() {
+                @Override
+                public void run() {
+                    threads.add(Thread.currentThread().getName());
+                    done.countDown();
+                }
+            });
+        }
+
+        assertTrue(blocked.await(5, TimeUnit.SECONDS));
+        assertFalse("tasks ran while the sender was blocked", done.await(100, TimeUnit.MILLISECONDS));
+        release.countDown();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(Collections.nCopies(10, "lfd-sender"), threads);
+    }
+
+    @Test
+    public void sendersDoNotWaitForEachOther() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        Scheduler.newSender().execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+
+        final CountDownLatch done = new CountDownLatch(1);
+        Scheduler.newSender().execute(new Runnable() {
+            @Override
+            public void run() {
+                done.countDown();
+            }
+        });
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        release.countDown();
+    }
+}
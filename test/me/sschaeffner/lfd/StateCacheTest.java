@@ -0,0 +1,115 @@
+package me.sschaeffner.lfd;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests serving light states from memory without a bridge.
+ *
+ * @author Simon Schäffner (simon.schaeffner@googlemail.com)
+ */
+public class StateCacheTest {
+
+    private static final long ADDRESS = 0x84182600000A0001L;
+
+    private static final LfdLightState STATE = new LfdLightState(true, (byte) 40, (short) 2700, (byte) 1, (byte) 2, (byte) 3);
+
+    private TestTransport transport;
+    private LfdBridge bridge;
+
+    @Before
+    public void connect() throws Exception {
+        transport = new TestTransport();
+        bridge = transport.connect();
+    }
+
+    @After
+    public void shutdown() throws Exception {
+        bridge.shutdown();
+    }
+
+    @Test
+    public void readsWhileDisconnectedFail() throws Exception {
+        transport.disconnect();
+
+        CompletableFuture<LfdLightState> state = bridge.readLightStateAsync(ADDRESS, -1);
+        try {
+            state.get(5, TimeUnit.SECONDS);
+            fail("read succeeded while disconnected");
+        } catch (ExecutionException e) {
+            assertTrue("unexpected " + e.getCause(), e.getCause() instanceof LfdException);
+        }
+
+        try {
+            bridge.readLightState(ADDRESS);
+            fail("read succeeded while disconnected");
+        } catch (LfdException e) {
+            /* expected */
+        }
+    }
+
+    @Test
+    public void recentStatesAreServedFromMemory() throws Exception {
+        loadLight();
+
+        assertEquals(STATE, bridge.readLightStateAsync(ADDRESS, 60000).get(5, TimeUnit.SECONDS));
+        assertTrue(transport.takeSent().isEmpty());
+    }
+
+    @Test
+    public void expiredStatesShareASingleRequest() throws Exception {
+        loadLight();
+        Thread.sleep(5);
+
+        CompletableFuture<LfdLightState> first = bridge.readLightStateAsync(ADDRESS, 0);
+        CompletableFuture<LfdLightState> second = bridge.readLightStateAsync(ADDRESS, 0);
+        List<TestTransport.Packet> sent = transport.takeSent();
+        assertEquals(1, sent.size());
+        assertEquals(LfdOpCodes.ALL_LIGHTS_STATUS, sent.get(0).command);
+        assertFalse(first.isDone());
+
+        LfdLightState changed = new LfdLightState(false, (byte) 0, (short) 2700, (byte) 1, (byte) 2, (byte) 3);
+        transport.receive(status(sent.get(0).sequence, changed));
+        assertEquals(changed, first.get(5, TimeUnit.SECONDS));
+        assertEquals(changed, second.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void unknownLightsFail() throws Exception {
+        loadLight();
+
+        CompletableFuture<LfdLightState> state = bridge.readLightStateAsync(ADDRESS + 1, -1);
+        transport.answer(TestTransport.allLightsStatus(new long[] {ADDRESS}, new LfdLightState[] {STATE}));
+        try {
+            state.get(5, TimeUnit.SECONDS);
+            fail("read of an unknown light succeeded");
+        } catch (ExecutionException e) {
+            assertTrue("unexpected " + e.getCause(), e.getCause() instanceof LfdException);
+        }
+    }
+
+    private void loadLight() throws Exception {
+        CompletableFuture<List<LfdLight>> lights = bridge.requestAllLightsStatusAsync();
+        transport.answer(TestTransport.allLightsStatus(new long[] {ADDRESS}, new LfdLightState[] {STATE}));
+        assertEquals(1, lights.get(5, TimeUnit.SECONDS).size());
+        transport.takeSent();
+    }
+
+    private static ByteBuffer status(byte sequence, LfdLightState state) {
+        ByteBuffer answer = TestTransport.allLightsStatus(new long[] {ADDRESS}, new LfdLightState[] {state});
+        answer.put(5, sequence);
+        return answer;
+    }
+}
@@ -0,0 +1,131 @@
+package me.sschaeffner.lfd;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests reconnecting lost connections and giving up on connections that cannot be established again.
+ *
+ * @author Simon Schäffner (simon.schaeffner@googlemail.com)
+ */
+public class SupervisedTransportTest {
+
+    private static final long ADDRESS = 0x84182600000A0001L;
+
+    private static final LfdLightState STATE = new LfdLightState(true, (byte) 40, (short) 2700, (byte) 1, (byte) 2, (byte) 3);
+
+    @Test
+    public void losingTheCommandConnectionKeepsQueriesWaiting() throws Exception {
+        TestTransport queries = new TestTransport();
+        TestTransport commands = new TestTransport();
+        LfdBridge bridge = queries.connect();
+        try {
+            queries.next = commands;
+            bridge.openCommandConnection();
+
+            CompletableFuture<List<LfdLight>> lights = bridge.requestAllLightsStatusAsync();
+            CompletableFuture<Void> command = new LfdLight(bridge, ADDRESS).sendLuminanceAsync((byte) 10, (short) 0);
+            assertEquals(1, commands.takeSent().size());
+
+            commands.disconnect();
+            assertFailed(command);
+            assertFalse(lights.isDone());
+
+            queries.answer(TestTransport.allLightsStatus(new long[] {ADDRESS}, new LfdLightState[] {STATE}));
+            assertEquals(1, lights.get(5, TimeUnit.SECONDS).size());
+        } finally {
+            bridge.shutdown();
+        }
+    }
+
+    @Test
+    public void closedEventLoopsAreNotReconnectedTo() throws Exception {
+        final AtomicInteger attempts = new AtomicInteger();
+        Listener listener = new Listener();
+        SupervisedTransport transport = new SupervisedTransport(listener, r -> {
+            if (attempts.incrementAndGet() == 1) {
+                TestTransport connected = new TestTransport();
+                listener.link = r;
+                return connected;
+            }
+            throw new LfdEventLoop.ClosedException(null);
+        }, new Metrics());
+
+        listener.link.onConnectionLost(new IOException("connection reset"));
+        assertTrue(listener.awaitFailed());
+        Thread.sleep(400);
+        assertEquals(2, attempts.get());
+        assertEquals(1, listener.lost.get());
+        assertFalse(transport.isConnected());
+    }
+
+    @Test
+    public void connectionsClosedWithTheirEventLoopAreNotReconnected() throws Exception {
+        final AtomicInteger attempts = new AtomicInteger();
+        Listener listener = new Listener();
+        SupervisedTransport transport = new SupervisedTransport(listener, r -> {
+            attempts.incrementAndGet();
+            listener.link = r;
+            return new TestTransport();
+        }, new Metrics());
+
+        listener.link.onConnectionLost(new LfdEventLoop.ClosedException(null));
+        assertTrue(listener.awaitFailed());
+        Thread.sleep(300);
+        assertEquals(1, attempts.get());
+        assertEquals(0, listener.lost.get());
+        assertFalse(transport.isConnected());
+    }
+
+    private static void assertFailed(CompletableFuture<?> future) throws Exception {
+        try {
+            future.get(5, TimeUnit.SECONDS);
+            fail("request succeeded");
+        } catch (ExecutionException e) {
+            assertTrue("unexpected " + e.getCause(), e.getCause() instanceof LfdException);
+        }
+    }
+
+    /**
+     * Records the connection events.
+     */
+    private static final class Listener implements SupervisedTransport.Listener {
+        private final AtomicInteger lost = new AtomicInteger();
+        private final CompletableFuture<IOException> failed = new CompletableFuture<>();
+        private volatile PacketReceiver link;
+
+        @Override
+        public void onPacketReceive(ByteBuffer packet) {
+        }
+
+        @Override
+        public void onConnectionLost(SupervisedTransport transport, IOException cause) {
+            lost.incrementAndGet();
+        }
+
+        @Override
+        public void onConnectionRestored(SupervisedTransport transport) {
+        }
+
+        @Override
+        public void onConnectionFailed(SupervisedTransport transport, IOException cause) {
+            failed.complete(cause);
+        }
+
+        private boolean awaitFailed() throws Exception {
+            return failed.get(5, TimeUnit.SECONDS) instanceof LfdEventLoop.ClosedException;
+        }
+    }
+}
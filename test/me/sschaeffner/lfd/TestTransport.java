@@ -0,0 +1,269 @@
+package me.sschaeffner.lfd;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A connection recording the packets sent by a bridge and passing answers built by the tests to it.
+ *
+ * @author Simon Schäffner (simon.schaeffner@googlemail.com)
+ */
+final class TestTransport implements Transport {
+
+    /* receiver of the answers (the bridge's connection supervisor) */
+    private volatile PacketReceiver receiver;
+
+    /* whether connecting succeeds (the bridge reconnects on its own) */
+    private volatile boolean reachable = true;
+
+    /* packets written but not flushed yet (guarded by this) */
+    private final List<Packet> buffered = new ArrayList<>();
+
+    /* packets flushed (guarded by this) */
+    private final List<Packet> sent = new ArrayList<>();
+
+    /* amount of flushes sending at least one packet (guarded by this) */
+    private int writes;
+
+    /* name of the thread that flushed packets last */
+    private volatile String writeThread;
+
+    /* thrown by write() when set */
+    volatile RuntimeException writeFailure;
+
+    /* the transport the next connection is established through (this one when null) */
+    volatile TestTransport next;
+
+    /**
+     * Constructs a bridge connected through this transport.
+     *
+     * @return the bridge
+     */
+    LfdBridge connect() throws IOException {
+        return new LfdBridge(null, r -> {
+            TestTransport connected = next != null ? next : this;
+            next = null;
+            if (!connected.reachable) {
+                throw new IOException("bridge unreachable");
+            }
+            connected.receiver = r;
+            return connected;
+        });
+    }
+
+    /**
+     * Loses the connection; reconnecting fails until the bridge is shut down.
+     */
+    void disconnect() {
+        disconnect(new IOException("connection lost"));
+    }
+
+    /**
+     * Loses the connection for the given reason; reconnecting fails until the bridge is shut down.
+     *
+     * @param cause the reason
+     */
+    void disconnect(IOException cause) {
+        reachable = false;
+        receiver.onConnectionLost(cause);
+    }
+
+    @Override
+    public synchronized void write(byte flag, byte command, byte sequence, long target, int targetLength, long data, int dataLength) {
+        if (writeFailure != null) {
+            throw writeFailure;
+        }
+        buffered.add(new Packet(flag, command, sequence, target, data));
+    }
+
+    @Override
+    public synchronized void flush() {
+        if (!buffered.isEmpty()) {
+            sent.addAll(buffered);
+            buffered.clear();
+            writes++;
+            writeThread = Thread.currentThread().getName();
+        }
+    }
+
+    @Override
+    public boolean isConnected() {
+        return true;
+    }
+
+    @Override
+    public void shutdown() {
+    }
+
+    /**
+     * Returns and forgets the packets sent so far.
+     * @return the packets in the order they have been sent
+     */
+    synchronized List<Packet> takeSent() {
+        List<Packet> taken = new ArrayList<>(sent);
+        sent.clear();
+        return taken;
+    }
+
+    synchronized int getWrites() {
+        return writes;
+    }
+
+    String getWriteThread() {
+        return writeThread;
+    }
+
+    /**
+     * Passes an answer to the request sent last with the answer's opcode.
+     *
+     * @param answer the answer (see the builders below)
+     */
+    void answer(ByteBuffer answer) {
+        byte opcode = answer.get(1);
+        Packet request = null;
+        synchronized (this) {
+            for (Packet packet : sent) {
+                if (packet.command == opcode) {
+                    request = packet;
+                }
+            }
+        }
+        if (request == null) {
+            throw new IllegalStateException("no request with opcode " + opcode + " sent");
+        }
+        answer.put(5, request.sequence);
+        receive(answer);
+    }
+
+    /**
+     * Passes a packet to the bridge as if received.
+     *
+     * @param packet the packet (without length prefix)
+     */
+    void receive(ByteBuffer packet) {
+        receiver.onPacketReceive(packet);
+    }
+
+    /**
+     * Builds an ALL_LIGHTS_STATUS answer.
+     *
+     * @param addresses the lights' addresses
+     * @param states    the lights' states, indexed like the addresses
+     * @return the answer
+     */
+    static ByteBuffer allLightsStatus(long[] addresses, LfdLightState[] states) {
+        ByteBuffer packet = header(LfdOpCodes.ALL_LIGHTS_STATUS, 2 + addresses.length * 50);
+        packet.putShort((short) addresses.length);
+        for (int i = 0; i < addresses.length; i++) {
+            int record = packet.position();
+            packet.putShort((short) i);
+            packet.putLong(addresses[i]);
+            packet.position(record + 18);
+            packet.put((byte) (states[i].isOn() ? 1 : 0));
+            packet.put(states[i].getLuminance());
+            packet.putShort(states[i].getTemperature());
+            packet.put(states[i].getR());
+            packet.put(states[i].getG());
+            packet.put(states[i].getB());
+            packet.position(record + 26);
+            putName(packet, "light " + i);
+            packet.position(record + 50);
+        }
+        packet.flip();
+        return packet;
+    }
+
+    /**
+     * Builds a GROUP_LIST answer.
+     *
+     * @param ids the groups' ids
+     * @return the answer
+     */
+    static ByteBuffer groupList(short... ids) {
+        ByteBuffer packet = header(LfdOpCodes.GROUP_LIST, 2 + ids.length * 18);
+        packet.putShort((short) ids.length);
+        for (short id : ids) {
+            packet.putShort(id);
+            putName(packet, "group " + id);
+        }
+        packet.flip();
+        return packet;
+    }
+
+    /**
+     * Builds a GROUP_INFO answer.
+     *
+     * @param id        the group's id
+     * @param addresses the addresses of the group's lights
+     * @return the answer
+     */
+    static ByteBuffer groupInfo(short id, long... addresses) {
+        ByteBuffer packet = header(LfdOpCodes.GROUP_INFO, 2 + 16 + 1 + addresses.length * 18);
+        packet.putShort(id);
+        putName(packet, "group " + id);
+        packet.put((byte) addresses.length);
+        for (long address : addresses) {
+            packet.putLong(address);
+            packet.position(packet.position() + 10);
+        }
+        packet.flip();
+        return packet;
+    }
+
+    /**
+     * Builds the acknowledgement of a command.
+     *
+     * @param command the acknowledged command
+     * @return the answer
+     */
+    static ByteBuffer acknowledgement(Packet command) {
+        ByteBuffer packet = header(command.command, 0);
+        packet.put(5, command.sequence);
+        packet.flip();
+        return packet;
+    }
+
+    private static ByteBuffer header(byte opcode, int payload) {
+        ByteBuffer packet = ByteBuffer.allocate(PacketView.HEADER_LENGTH + payload).order(ByteOrder.LITTLE_ENDIAN);
+        packet.put((byte) 0x03);
+        packet.put(opcode);
+        packet.put(new byte[] {0x00, 0x00, 0x07, 0x00});
+        packet.put((byte) 0x00);
+        return packet;
+    }
+
+    private static void putName(ByteBuffer packet, String name) {
+        byte[] ascii = name.getBytes(StandardCharsets.US_ASCII);
+        byte[] padded = new byte[PacketView.NAME_LENGTH];
+        System.arraycopy(ascii, 0, padded, 0, Math.min(ascii.length, padded.length));
+        packet.put(padded);
+    }
+
+    /**
+     * A packet sent by the bridge.
+     */
+    static final class Packet {
+        final byte flag;
+        final byte command;
+        final byte sequence;
+        final long target;
+        final long data;
+
+        private Packet(byte flag, byte command, byte sequence, long target, long data) {
+            this.flag = flag;
+            this.command = command;
+            this.sequence = sequence;
+            this.target = target;
+            this.data = data;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Packet{flag=%d, command=0x%02x, target=0x%x, data=0x%x}", flag, command, target, data);
+        }
+    }
+}
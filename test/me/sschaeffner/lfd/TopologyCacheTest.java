@@ -0,0 +1,201 @@
+package me.sschaeffner.lfd;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests storing and loading the topology cache file without a bridge.
+ *
+ * @author Simon Schäffner (simon.schaeffner@googlemail.com)
+ */
+public class TopologyCacheTest {
+
+    private static final long A = 0xA1;
+    private static final long B = 0xB2;
+
+    private static final LfdLightState STATE = new LfdLightState(true, (byte) 40, (short) 2700, (byte) 10, (byte) 20, (byte) 30);
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private TestTransport transport;
+    private LfdBridge bridge;
+    private Path file;
+
+    /**
+     * Connects to a bridge with the lights A and B in group 1 and stores them in a cache file.
+     */
+    @Before
+    public void connect() throws Exception {
+        transport = new TestTransport();
+        bridge = transport.connect();
+        file = folder.getRoot().toPath().resolve("topology.lfdt");
+
+        CompletableFuture<List<LfdLight>> lights = bridge.requestAllLightsStatusAsync();
+        transport.answer(TestTransport.allLightsStatus(new long[] {A, B}, new LfdLightState[] {STATE, STATE}));
+        lights.get(5, TimeUnit.SECONDS);
+
+        CompletableFuture<LfdTopology> topology = bridge.refreshTopologyAsync(1);
+        transport.answer(TestTransport.groupList((short) 1));
+        transport.answer(TestTransport.groupInfo((short) 1, A, B));
+        topology.get(5, TimeUnit.SECONDS);
+        transport.takeSent();
+    }
+
+    @After
+    public void shutdown() throws Exception {
+        bridge.shutdown();
+    }
+
+    @Test
+    public void writtenFilesAreReadBack() throws Exception {
+        bridge.saveTopologyCache(file);
+
+        TopologyCache.Content content = TopologyCache.read(bridge, file);
+        assertEquals(2, content.lights.size());
+        LfdLight light = content.lights.get(B);
+        assertEquals("light 1", light.getName());
+        assertEquals(STATE, light.getState());
+        assertEquals(0, light.getConfirmedTime());
+        LfdGroup group = content.groups.get(1);
+        assertEquals("group 1", group.getName());
+        assertEquals(2, group.getLights().size());
+        assertTrue(group.getLights().contains(A));
+    }
+
+    @Test
+    public void commandsNotConfirmedAreNotStored() throws Exception {
+        bridge.getLight(A).sendLuminance((byte) 90, (short) 0);
+        bridge.saveTopologyCache(file);
+
+        assertEquals(STATE, TopologyCache.read(bridge, file).lights.get(A).getState());
+    }
+
+    @Test
+    public void loadedFilesCanBeReplaced() throws Exception {
+        bridge.saveTopologyCache(file);
+        LfdBridge restarted = new TestTransport().connect();
+        try {
+            assertTrue(restarted.loadTopologyCache(file));
+            restarted.saveTopologyCache(file);
+        } finally {
+            restarted.shutdown();
+        }
+
+        assertEquals(2, TopologyCache.read(bridge, file).lights.size());
+    }
+
+    @Test
+    public void missingFilesAreNoCache() throws Exception {
+        assertEquals(null, TopologyCache.read(bridge, file));
+    }
+
+    @Test
+    public void checksumMismatchesAreRejected() throws Exception {
+        bridge.saveTopologyCache(file);
+        byte[] bytes = Files.readAllBytes(file);
+        bytes[bytes.length - 1] ^= 0x01;
+        Files.write(file, bytes);
+
+        assertRejected("checksum");
+    }
+
+    @Test
+    public void otherVersionsAreRejected() throws Exception {
+        bridge.saveTopologyCache(file);
+        byte[] bytes = Files.readAllBytes(file);
+        ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN).putInt(4, 2);
+        Files.write(file, bytes);
+
+        assertRejected("version");
+    }
+
+    @Test
+    public void truncatedFilesAreRejected() throws Exception {
+        bridge.saveTopologyCache(file);
+        byte[] bytes = Files.readAllBytes(file);
+        Files.write(file, Arrays.copyOf(bytes, bytes.length - 8));
+
+        assertRejected("truncated");
+    }
+
+    @Test
+    public void loadingNotifiesTheChangeListeners() throws Exception {
+        bridge.saveTopologyCache(file);
+        LfdBridge restarted = new TestTransport().connect();
+        final List<Long> added = new ArrayList<>();
+        final List<LfdAddressSet> memberships = new ArrayList<>();
+        restarted.addChangeListener(new LfdChangeListener() {
+            @Override
+            public void onLightAdded(LfdLight light) {
+                added.add(light.getAddress());
+            }
+
+            @Override
+            public void onGroupMembershipChanged(LfdGroup group, LfdAddressSet oldLights, LfdAddressSet newLights) {
+                assertEquals(0, oldLights.size());
+                memberships.add(newLights);
+            }
+        });
+
+        try {
+            assertTrue(restarted.loadTopologyCache(file));
+            assertEquals(2, added.size());
+            assertTrue(added.contains(A) && added.contains(B));
+            assertEquals(1, memberships.size());
+            assertEquals(2, memberships.get(0).size());
+        } finally {
+            restarted.shutdown();
+        }
+    }
+
+    @Test
+    public void corruptFilesFallBackToTheBridge() throws Exception {
+        Files.write(file, new byte[] {1, 2, 3});
+        TestTransport restartedTransport = new TestTransport();
+        LfdBridge restarted = restartedTransport.connect();
+
+        try {
+            CompletableFuture<LfdTopology> topology = restarted.startFromTopologyCache(file, 1);
+            assertFalse(topology.isDone());
+            restartedTransport.answer(TestTransport.allLightsStatus(new long[] {A}, new LfdLightState[] {STATE}));
+            restartedTransport.answer(TestTransport.groupList((short) 1));
+            restartedTransport.answer(TestTransport.groupInfo((short) 1, A));
+            assertNotNull(topology.get(5, TimeUnit.SECONDS));
+
+            /* replaced by a valid file */
+            assertEquals(1, TopologyCache.read(restarted, file).lights.size());
+        } finally {
+            restarted.shutdown();
+        }
+    }
+
+    private void assertRejected(String reason) {
+        try {
+            TopologyCache.read(bridge, file);
+            fail("invalid file has been read");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains(reason));
+        }
+    }
+}